@@ -0,0 +1,191 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/** Writes the files of a commit to a tar or zip archive, straight from the
+ *  blob store, one file at a time, in path order, and each file a chunk at
+ *  a time. Every entry gets the same timestamp (the commit's), mode and
+ *  owner, so archiving a commit twice gives byte-for-byte identical
+ *  archives.
+ *  @author Frank Jin
+ */
+class Archive {
+
+    /** The supported formats. */
+    static final Set<String> FORMATS = Set.of("tar", "zip");
+
+    /** Size of a tar block. */
+    private static final int BLOCK = 512;
+
+    /** Largest size a ustar header can hold: 11 octal digits. */
+    private static final long MAX_USTAR_SIZE = (1L << 33) - 1;
+
+    /** An archive of blobs from BLOBDUMP, whose entries are all stamped
+     *  with MTIME, in seconds since the epoch. */
+    Archive(File blobDump, long mtime) {
+        _blobDump = blobDump;
+        _mtime = mtime;
+    }
+
+    /** Writes FILES, which maps paths to blobs, to OUT as an archive in
+     *  FORMAT, one of FORMATS. */
+    void write(SortedMap<String, String> files, String format,
+               OutputStream out) throws IOException {
+        if (format.equals("zip")) {
+            writeZip(files, out);
+        } else {
+            writeTar(files, out);
+        }
+    }
+
+    /** Writes FILES to OUT as a POSIX (ustar) tar archive. Paths too long
+     *  for a ustar header, and sizes too large for one, are recorded in a
+     *  pax extended header. */
+    private void writeTar(SortedMap<String, String> files, OutputStream out)
+            throws IOException {
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            Blob blob = blob(file.getValue());
+            byte[] path = file.getKey().getBytes(StandardCharsets.UTF_8);
+            int split = ustarSplit(path);
+            String records = "";
+            if (split < -1) {
+                records += paxRecord("path", file.getKey());
+                path = Arrays.copyOf(path, Math.min(path.length, 100));
+                split = -1;
+            }
+            if (blob.size() > MAX_USTAR_SIZE) {
+                records += paxRecord("size", Long.toString(blob.size()));
+            }
+            if (!records.isEmpty()) {
+                byte[] pax = records.getBytes(StandardCharsets.UTF_8);
+                writeTarHeader(out, "././@PaxHeader".getBytes(
+                        StandardCharsets.US_ASCII), -1, 'x', pax.length);
+                out.write(pax);
+                pad(out, pax.length);
+            }
+            writeTarHeader(out, path, split, '0',
+                    Math.min(blob.size(), MAX_USTAR_SIZE));
+            blob.writeTo(out);
+            pad(out, blob.size());
+        }
+        out.write(new byte[2 * BLOCK]);
+    }
+
+    /** Writes a tar header for an entry of type TYPE named PATH, whose
+     *  first SPLIT bytes go in the header's prefix field (none if SPLIT is
+     *  -1), with SIZE bytes of contents. */
+    private void writeTarHeader(OutputStream out, byte[] path, int split,
+                                char type, long size) throws IOException {
+        byte[] header = new byte[BLOCK];
+        if (split >= 0) {
+            System.arraycopy(path, 0, header, 345, split);
+            System.arraycopy(path, split + 1, header, 0,
+                    path.length - split - 1);
+        } else {
+            System.arraycopy(path, 0, header, 0, path.length);
+        }
+        octal(header, 100, 8, 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, _mtime);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0,
+                header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        int sum = 0;
+        for (byte b : header) {
+            sum += b & 0xff;
+        }
+        octal(header, 148, 7, sum);
+        out.write(header);
+    }
+
+    /** Pads the SIZE bytes of an entry's contents just written to OUT to a
+     *  whole block. */
+    private static void pad(OutputStream out, long size) throws IOException {
+        out.write(new byte[(int) ((BLOCK - size % BLOCK) % BLOCK)]);
+    }
+
+    /** Returns -1 if PATH fits in the name field of a ustar header, the
+     *  position of the '/' at which to split it between the prefix and
+     *  name fields if that makes it fit, or -2 if neither works. */
+    private static int ustarSplit(byte[] path) {
+        if (path.length <= 100) {
+            return -1;
+        }
+        for (int i = Math.max(1, path.length - 101);
+             i <= Math.min(155, path.length - 1); i += 1) {
+            if (path[i] == '/') {
+                return i;
+            }
+        }
+        return -2;
+    }
+
+    /** Returns the pax record setting KEY to VALUE: "LENGTH KEY=VALUE\n",
+     *  where LENGTH counts the whole record, itself included. */
+    private static String paxRecord(String key, String value) {
+        String body = " " + key + "=" + value + "\n";
+        int length = body.getBytes(StandardCharsets.UTF_8).length;
+        int total = length + Integer.toString(length).length();
+        if (Integer.toString(total).length()
+                > Integer.toString(length).length()) {
+            total += 1;
+        }
+        return total + body;
+    }
+
+    /** Writes VALUE into the WIDTH bytes of HEADER at START as a
+     *  zero-padded octal number followed by a NUL. */
+    private static void octal(byte[] header, int start, int width,
+                              long value) {
+        String digits = String.format("%0" + (width - 1) + "o", value);
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0,
+                header, start, width - 1);
+        header[start + width - 1] = 0;
+    }
+
+    /** Writes FILES to OUT as a zip archive. Entry times are stored
+     *  without a time zone, so the archive does not depend on where it is
+     *  made. */
+    private void writeZip(SortedMap<String, String> files, OutputStream out)
+            throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        LocalDateTime time = LocalDateTime.ofEpochSecond(_mtime, 0,
+                ZoneOffset.UTC);
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            ZipEntry entry = new ZipEntry(file.getKey());
+            entry.setTimeLocal(time);
+            zip.putNextEntry(entry);
+            blob(file.getValue()).writeTo(zip);
+            zip.closeEntry();
+        }
+        zip.finish();
+    }
+
+    /** Returns blob ID. Its contents are only read as they are written
+     *  out, a chunk at a time. */
+    private Blob blob(String id) {
+        return ObjectStore.read(_blobDump, id, Blob.class);
+    }
+
+    /** Where blobs live. **/
+    private final File _blobDump;
+
+    /** Time stamp of every entry, in seconds since the epoch. **/
+    private final long _mtime;
+}
@@ -0,0 +1,257 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** The state of a bisection, kept in the worktree's private metadata
+ *  folder, in the file bisect, between commands: the commit checked out
+ *  when it started, the commits marked good, bad or skipped, and the
+ *  ancestry of the commits still in question.
+ *
+ *  The commits in question are those reachable from the bad commit but not
+ *  from any good one. Their ancestry (each one's parents among them, merge
+ *  parents included) is found by walking the history once, and then only
+ *  narrowed as commits are marked, so later steps read no commits. The next
+ *  commit to test is the one that splits them most evenly: the one from
+ *  which the number of commits in question it can reach is closest to
+ *  half.
+ *  @author Frank Jin
+ */
+class Bisect implements Serializable {
+    /** Fixed so that a bisection in progress stays readable as methods are
+     *  added to this class. **/
+    private static final long serialVersionUID = 5485650729017593199L;
+
+    /** A bisection started when commit HEAD on branch BRANCH was checked
+     *  out. */
+    Bisect(String head, String branch) {
+        _startHead = head;
+        _startBranch = branch;
+    }
+
+    /** Returns the bisection in progress in the worktree whose private
+     *  metadata is in STATEDIR, or null if there is none. */
+    static Bisect load(File stateDir) {
+        File file = new File(stateDir, "bisect");
+        return file.exists() ? Utils.readObject(file, Bisect.class) : null;
+    }
+
+    /** Saves this bisection in STATEDIR. */
+    void save(File stateDir) {
+        Utils.writeObjectAtomic(new File(stateDir, "bisect"), stateDir,
+                this);
+    }
+
+    /** Ends the bisection in progress in STATEDIR, if any. */
+    static void clear(File stateDir) {
+        new File(stateDir, "bisect").delete();
+    }
+
+    /** Returns the commit checked out when the bisection started. */
+    String getStartHead() {
+        return _startHead;
+    }
+
+    /** Returns the branch checked out when the bisection started. */
+    String getStartBranch() {
+        return _startBranch;
+    }
+
+    /** Returns true iff both a bad commit and a good one are known. */
+    boolean ready() {
+        return _bad != null && !_good.isEmpty();
+    }
+
+    /** Records that commit ID is bad. */
+    void markBad(String id) {
+        _bad = id;
+        if (_parents != null && _parents.containsKey(id)) {
+            Set<String> kept = ancestorsWithin(id);
+            _parents.keySet().retainAll(kept);
+        } else {
+            _parents = null;
+        }
+    }
+
+    /** Records that commit ID is good. */
+    void markGood(String id) {
+        _good.add(id);
+        if (_parents != null && _parents.containsKey(id)) {
+            _parents.keySet().removeAll(ancestorsWithin(id));
+        } else {
+            _parents = null;
+        }
+    }
+
+    /** Records that commit ID cannot be tested. */
+    void markSkipped(String id) {
+        _skipped.add(id);
+    }
+
+    /** Returns the number of commits still in question. Requires
+     *  ready(). */
+    int remaining() {
+        return parents().size();
+    }
+
+    /** Returns the first bad commit, if it is known, or null. Requires
+     *  ready(). */
+    String firstBad() {
+        return parents().size() == 1 ? _bad : null;
+    }
+
+    /** Returns the commits still in question other than the bad one, or an
+     *  empty set if some of them are not skipped. Requires ready(). */
+    Set<String> onlySkipped() {
+        Set<String> rest = new TreeSet<>(parents().keySet());
+        rest.remove(_bad);
+        return _skipped.containsAll(rest) ? rest : new TreeSet<>();
+    }
+
+    /** Returns the commit to test next, or null if there is none (the
+     *  first bad commit is known, or only skipped commits are left).
+     *  Requires ready(). */
+    String next() {
+        HashMap<String, List<String>> parents = parents();
+        int total = parents.size();
+        HashMap<String, Integer> reach = new HashMap<>();
+        String best = null;
+        int bestScore = -1;
+        for (String id : topologicalOrder()) {
+            List<String> inside = new ArrayList<>();
+            for (String parent : parents.get(id)) {
+                if (parents.containsKey(parent)) {
+                    inside.add(parent);
+                }
+            }
+            int count;
+            if (inside.isEmpty()) {
+                count = 1;
+            } else if (inside.size() == 1) {
+                count = reach.get(inside.get(0)) + 1;
+            } else {
+                count = ancestorsWithin(id).size();
+            }
+            reach.put(id, count);
+            int score = Math.min(count, total - count);
+            if (score > bestScore && !id.equals(_bad)
+                    && !_skipped.contains(id)) {
+                best = id;
+                bestScore = score;
+            }
+        }
+        return total == 1 ? null : best;
+    }
+
+    /** Returns the ancestry of the commits in question, finding it if it is
+     *  not known. Each maps to its parents, which may not be in question. */
+    private HashMap<String, List<String>> parents() {
+        if (_parents == null) {
+            Set<String> good = new HashSet<>();
+            LinkedList<String> queue = new LinkedList<>(_good);
+            while (!queue.isEmpty()) {
+                String id = queue.poll();
+                if (good.add(id)) {
+                    queue.addAll(readParents(id));
+                }
+            }
+            _parents = new HashMap<>();
+            queue.add(_bad);
+            while (!queue.isEmpty()) {
+                String id = queue.poll();
+                if (!good.contains(id) && !_parents.containsKey(id)) {
+                    List<String> parents = readParents(id);
+                    _parents.put(id, parents);
+                    queue.addAll(parents);
+                }
+            }
+        }
+        return _parents;
+    }
+
+    /** Returns the commits in question reachable from commit ID, which is
+     *  one of them. Reads no commits. */
+    private Set<String> ancestorsWithin(String id) {
+        Set<String> result = new HashSet<>();
+        LinkedList<String> queue = new LinkedList<>();
+        queue.add(id);
+        while (!queue.isEmpty()) {
+            String next = queue.poll();
+            if (_parents.containsKey(next) && result.add(next)) {
+                queue.addAll(_parents.get(next));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the commits in question, each after all of its parents. */
+    private List<String> topologicalOrder() {
+        List<String> result = new ArrayList<>();
+        Set<String> done = new HashSet<>();
+        LinkedList<String> stack = new LinkedList<>();
+        for (String start : new TreeSet<>(_parents.keySet())) {
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                String id = stack.peek();
+                if (done.contains(id) || !_parents.containsKey(id)) {
+                    stack.pop();
+                    continue;
+                }
+                boolean ready = true;
+                for (String parent : _parents.get(id)) {
+                    if (_parents.containsKey(parent)
+                            && !done.contains(parent)) {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    done.add(id);
+                    result.add(id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the parents of commit ID, read from the commit. */
+    private List<String> readParents(String id) {
+        Commit commit = ObjectStore.read(Utils.join(Main.getGitletDir(),
+                "commitDump"), id, Commit.class);
+        List<String> result = new ArrayList<>();
+        if (commit.getPrevCommitID() != null) {
+            result.add(commit.getPrevCommitID());
+        }
+        if (commit.getMergeParent() != null) {
+            result.add(commit.getMergeParent());
+        }
+        return result;
+    }
+
+    /** Commit checked out when the bisection started. **/
+    private final String _startHead;
+
+    /** Branch checked out when the bisection started. **/
+    private final String _startBranch;
+
+    /** The latest commit marked bad, or null. **/
+    private String _bad;
+
+    /** Commits marked good. **/
+    private final TreeSet<String> _good = new TreeSet<>();
+
+    /** Commits marked as untestable. **/
+    private final TreeSet<String> _skipped = new TreeSet<>();
+
+    /** The commits in question, each mapped to its parents, or null if
+     *  they must be found again. **/
+    private HashMap<String, List<String>> _parents;
+}
@@ -0,0 +1,96 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/** EWAH (Enhanced Word-Aligned Hybrid) compression of bit sets. The bits
+ *  are cut into 64-bit words. A run of words that are all 0s or all 1s is
+ *  stored as a count, and the other words are stored as they are, so long
+ *  stretches of set or clear bits, as in the ancestry of a commit, take
+ *  almost no room.
+ *
+ *  The compressed form is a sequence of marker words, each followed by the
+ *  literal words it announces. A marker holds, from its lowest bit up: the
+ *  value of the bits in its run (1 bit), the number of words in the run
+ *  (32 bits), and the number of literal words after it (31 bits).
+ *  @author Frank Jin
+ */
+class Bitmap {
+
+    /** Bits in a marker's run length. */
+    private static final int RUN_BITS = 32;
+
+    /** Largest run length, or literal count, one marker can hold. */
+    private static final long MAX_COUNT = (1L << 31) - 1;
+
+    /** Returns BITS compressed. */
+    static byte[] compress(BitSet bits) {
+        long[] words = bits.toLongArray();
+        List<Long> result = new ArrayList<>();
+        int i = 0;
+        while (i < words.length) {
+            long clean = words[i] == -1L ? -1L : 0L;
+            long run = 0;
+            while (i < words.length && words[i] == clean
+                    && run < MAX_COUNT) {
+                run += 1;
+                i += 1;
+            }
+            int start = i;
+            while (i < words.length && words[i] != 0 && words[i] != -1L
+                    && i - start < MAX_COUNT) {
+                i += 1;
+            }
+            result.add((clean & 1) | run << 1
+                    | (long) (i - start) << (RUN_BITS + 1));
+            for (int j = start; j < i; j += 1) {
+                result.add(words[j]);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(result.size());
+            for (long word : result) {
+                out.writeLong(word);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Internal error compressing a bitmap.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the bit set COMPRESSED holds. */
+    static BitSet decompress(byte[] compressed) {
+        List<Long> words = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(compressed))) {
+            for (int n = in.readInt(); n > 0; ) {
+                long marker = in.readLong();
+                n -= 1;
+                long fill = (marker & 1) == 0 ? 0L : -1L;
+                long run = (marker >>> 1) & ((1L << RUN_BITS) - 1);
+                long literals = marker >>> (RUN_BITS + 1);
+                for (long j = 0; j < run; j += 1) {
+                    words.add(fill);
+                }
+                for (long j = 0; j < literals; j += 1) {
+                    words.add(in.readLong());
+                    n -= 1;
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt bitmap.");
+        }
+        long[] result = new long[words.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = words.get(i);
+        }
+        return BitSet.valueOf(result);
+    }
+}
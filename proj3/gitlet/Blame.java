@@ -0,0 +1,225 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/** Attribution of the lines of one version of a file to the commits that
+ *  introduced them. Blame starts from the final version and is handed back
+ *  one version at a time along the file's history: lines that survive into
+ *  the older version are traced further back, and the rest are pinned on the
+ *  commit that made the newer version. Lines are interned to small integer
+ *  IDs once per version, versions are trimmed of their common prefix and
+ *  suffix before being handed to Diff, and the matching between any two
+ *  blobs is cached on disk, so repeated blames of a file are cheap. Each
+ *  version is held whole, so files with a version larger than MAX_SIZE
+ *  are refused.
+ *  @author Frank Jin
+ */
+class Blame {
+
+    /** Largest version of a file blamed, in bytes. */
+    static final long MAX_SIZE = 64 << 20;
+
+    /** Prepares to attribute the lines of CONTENTS, the contents of blob
+     *  BLOBID, caching diffs in CACHEDIR. */
+    Blame(File cacheDir, String blobId, String contents) {
+        _cacheDir = cacheDir;
+        _blobId = blobId;
+        _ids = intern(contents);
+        _lines = lines(contents);
+        _pos = new int[_ids.length];
+        _owner = new String[_ids.length];
+        for (int i = 0; i < _pos.length; i += 1) {
+            _pos[i] = i;
+        }
+        _remaining = _ids.length;
+    }
+
+    /** Returns true iff every line has been attributed. */
+    boolean done() {
+        return _remaining == 0;
+    }
+
+    /** Records that commit COMMITID turned blob PARENTBLOB, whose contents
+     *  are PARENTCONTENTS, into the version currently being traced. Lines of
+     *  that version missing from the parent are attributed to COMMITID. A
+     *  null PARENTBLOB means COMMITID created the file. */
+    void step(String commitId, String parentBlob, String parentContents) {
+        if (parentBlob == null) {
+            attributeRest(commitId);
+            return;
+        }
+        int[] parentIds = intern(parentContents);
+        int[] common = commonLines(parentBlob, parentIds);
+        int[] toParent = new int[_ids.length];
+        Arrays.fill(toParent, -1);
+        for (int k = 0; k < common.length; k += 3) {
+            for (int j = 0; j < common[k + 2]; j += 1) {
+                toParent[common[k + 1] + j] = common[k] + j;
+            }
+        }
+        for (int i = 0; i < _pos.length; i += 1) {
+            if (_pos[i] >= 0) {
+                _pos[i] = toParent[_pos[i]];
+                if (_pos[i] < 0) {
+                    _owner[i] = commitId;
+                    _remaining -= 1;
+                }
+            }
+        }
+        _blobId = parentBlob;
+        _ids = parentIds;
+    }
+
+    /** Attributes every line not yet attributed to COMMITID. */
+    void attributeRest(String commitId) {
+        for (int i = 0; i < _pos.length; i += 1) {
+            if (_pos[i] >= 0) {
+                _owner[i] = commitId;
+                _pos[i] = -1;
+            }
+        }
+        _remaining = 0;
+    }
+
+    /** Returns the lines of the final version. */
+    List<String> getLines() {
+        return _lines;
+    }
+
+    /** Returns the commit each line of the final version is attributed to. */
+    String[] getOwners() {
+        return _owner;
+    }
+
+    /** Returns the common subsequence of PARENTIDS, the lines of
+     *  PARENTBLOB, and the version being traced, in the form delivered by
+     *  Diff.commonSubsequence. */
+    private int[] commonLines(String parentBlob, int[] parentIds) {
+        File cached = new File(_cacheDir, Utils.sha1(parentBlob, _blobId));
+        if (cached.exists()) {
+            return Utils.readObject(cached, int[].class);
+        }
+        int pre, suf;
+        pre = 0;
+        while (pre < parentIds.length && pre < _ids.length
+                && parentIds[pre] == _ids[pre]) {
+            pre += 1;
+        }
+        suf = 0;
+        while (suf < parentIds.length - pre && suf < _ids.length - pre
+                && parentIds[parentIds.length - 1 - suf]
+                   == _ids[_ids.length - 1 - suf]) {
+            suf += 1;
+        }
+        ArrayList<Integer> result = new ArrayList<>();
+        if (pre > 0) {
+            result.addAll(List.of(0, 0, pre));
+        }
+        Diff diff = new Diff();
+        diff.setSequences(idStrings(parentIds, pre, suf),
+                idStrings(_ids, pre, suf));
+        int[] middle = diff.commonSubsequence();
+        for (int k = 0; k < middle.length; k += 3) {
+            result.addAll(List.of(middle[k] + pre, middle[k + 1] + pre,
+                    middle[k + 2]));
+        }
+        if (suf > 0) {
+            result.addAll(List.of(parentIds.length - suf,
+                    _ids.length - suf, suf));
+        }
+        int[] common = result.stream().mapToInt(Integer::intValue).toArray();
+        _cacheDir.mkdirs();
+        Utils.writeObjectAtomic(cached, Main.getGitletDir(), common);
+        return common;
+    }
+
+    /** Returns IDS, less its first PRE and last SUF elements, as strings
+     *  for Diff. Short decimal strings keep Diff's comparisons cheap. */
+    private static List<String> idStrings(int[] ids, int pre, int suf) {
+        List<String> result = new ArrayList<>();
+        for (int i = pre; i < ids.length - suf; i += 1) {
+            result.add(Integer.toString(ids[i]));
+        }
+        return result;
+    }
+
+    /** Returns the IDs of the lines of CONTENTS, allocating IDs for lines
+     *  not seen in any earlier version. */
+    private int[] intern(String contents) {
+        List<String> lines = lines(contents);
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = _interned.computeIfAbsent(lines.get(i),
+                    k -> _interned.size());
+        }
+        return result;
+    }
+
+    /** Passes each line read from IN, without its terminator, to ACTION,
+     *  as lines(String) would split the whole, holding one line at a time
+     *  in memory; then closes IN. */
+    static void lines(InputStream in, Consumer<String> action) {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        try (InputStream buffered = new BufferedInputStream(in, 1 << 16)) {
+            for (int c = buffered.read(); c >= 0; c = buffered.read()) {
+                if (c == '\n') {
+                    action.accept(line.toString(StandardCharsets.UTF_8));
+                    line.reset();
+                } else {
+                    line.write(c);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (line.size() > 0) {
+            action.accept(line.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Returns the lines of CONTENTS, without their terminators. */
+    static List<String> lines(String contents) {
+        List<String> result =
+                new ArrayList<>(Arrays.asList(contents.split("\n", -1)));
+        if (result.get(result.size() - 1).isEmpty()) {
+            result.remove(result.size() - 1);
+        }
+        return result;
+    }
+
+    /** Where matchings between pairs of blobs are cached. **/
+    private final File _cacheDir;
+
+    /** Line IDs, shared by all versions. **/
+    private final HashMap<String, Integer> _interned = new HashMap<>();
+
+    /** Lines of the final version. **/
+    private final List<String> _lines;
+
+    /** Blob of the version currently being traced. **/
+    private String _blobId;
+
+    /** Line IDs of the version currently being traced. **/
+    private int[] _ids;
+
+    /** For each line of the final version, its position in the version
+     *  currently being traced, or -1 once it has been attributed. **/
+    private final int[] _pos;
+
+    /** For each line of the final version, the commit it is attributed to,
+     *  or null. **/
+    private final String[] _owner;
+
+    /** Number of lines not yet attributed. **/
+    private int _remaining;
+}
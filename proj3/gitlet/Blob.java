@@ -1,34 +1,237 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Formatter;
+import java.util.Iterator;
+import java.util.List;
 
 public class Blob implements Serializable {
-    Blob(File file, String name) {
-        _blob = Utils.readContents(file);
-        _hash = Utils.sha1(_blob) + Utils.sha1(name);
-        _name = name;
+    /** Fixed so that blobs written before they stopped recording file
+     *  names can still be read, and migrated. **/
+    private static final long serialVersionUID = 2673531276052312015L;
+
+    /** Files at least this large are stored in chunks (see Chunker). */
+    static final long CHUNKED = 1 << 20;
+
+    /** A blob holding the contents of FILE. Large files are read a chunk at
+     *  a time and stored as chunks, which this blob lists; they never have
+     *  to fit in memory. */
+    Blob(File file) {
+        this(file, chunkDump());
     }
 
+    /** A blob holding the contents of FILE, whose chunks not stored yet, if
+     *  it is large, are written into CHUNKS instead of the folder of chunks.
+     *  Blobs being staged keep theirs in stagedChunks until they are
+     *  committed (see CommitPipeline), so that a version staged and then
+     *  replaced leaves nothing behind in the folder of chunks. */
+    Blob(File file, File chunks) {
+        if (file.length() < CHUNKED) {
+            _blob = Utils.readContents(file);
+            _hash = Utils.sha1(_blob);
+            return;
+        }
+        MessageDigest digest = digest();
+        try (InputStream in = new FileInputStream(file)) {
+            _chunks = new ArrayList<>(Chunker.store(in, digest,
+                    chunkDump(), chunks));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _size = file.length();
+        _hash = hex(digest);
+    }
+
+    /** A blob holding CONTENTS. Its hash depends on CONTENTS alone, so
+     *  every file with the same contents, under any name, shares it. */
+    Blob(byte[] contents) {
+        _blob = contents;
+        _hash = Utils.sha1(_blob);
+    }
+
+    /** Returns the hash the blob of FILE would have, reading the file a
+     *  piece at a time and storing nothing. */
+    static String hash(File file) {
+        MessageDigest digest = digest();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = new BufferedInputStream(
+                new FileInputStream(file))) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                digest.update(buffer, 0, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return hex(digest);
+    }
+
+    /** Returns the contents of this blob, which must be under 2 GB. Code
+     *  that may meet large files reads them with open instead. */
     public byte[] getBlob() {
-        return _blob;
+        if (_chunks == null) {
+            return _blob;
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        writeTo(result);
+        return result.toByteArray();
+    }
+
+    /** Returns a stream of the contents of this blob, which holds at most
+     *  one chunk in memory at a time. */
+    InputStream open() {
+        if (_chunks == null) {
+            return new ByteArrayInputStream(_blob);
+        }
+        Iterator<String> chunks = _chunks.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return chunks.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                return new ByteArrayInputStream(Utils.readContents(
+                        chunkFile(chunks.next())));
+            }
+        });
+    }
+
+    /** Returns the number of bytes in this blob. */
+    long size() {
+        return _chunks == null ? _blob.length : _size;
+    }
+
+    /** Writes the contents of this blob to OUT, a chunk at a time. */
+    void writeTo(OutputStream out) {
+        try {
+            if (_chunks == null) {
+                out.write(_blob);
+            } else {
+                for (String chunk : _chunks) {
+                    out.write(Utils.readContents(chunkFile(chunk)));
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the contents of this blob to FILE, replacing it. */
+    void writeTo(File file) {
+        try (OutputStream out = new FileOutputStream(file)) {
+            writeTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     public String getHash() {
         return _hash;
     }
 
-    public String getName() {
+    /** Returns the name of the file this blob was made from, as blobs of
+     *  layout 1 recorded it, or null. */
+    String getName() {
         return _name;
     }
 
-    /** Byte array for this blob.**/
+    /** Reads a blob from IN, including the file name layout 1 recorded in
+     *  it, for CommitTree.migrate. */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        _blob = (byte[]) fields.get("_blob", null);
+        _hash = (String) fields.get("_hash", null);
+        _chunks = (ArrayList<String>) fields.get("_chunks", null);
+        _size = fields.get("_size", 0L);
+        try {
+            _name = (String) fields.get("_name", null);
+        } catch (IllegalArgumentException excp) {
+            /* Written by layout 2, which names no file. */
+        }
+    }
+
+    /** Returns the hashes of the chunks holding this blob, in order, or
+     *  an empty list if it is not stored in chunks. */
+    List<String> chunks() {
+        return _chunks == null ? List.of() : _chunks;
+    }
+
+    /** Returns the folder where the chunks of the blobs staged in
+     *  ADDSTAGING wait to be committed. */
+    static File stagedChunks(File addStaging) {
+        return new File(addStaging, "chunks");
+    }
+
+    /** Returns the folder of chunks. */
+    private static File chunkDump() {
+        return Utils.join(Main.getGitletDir(), "chunkDump");
+    }
+
+    /** Returns the file holding chunk ID: the stored one, or else the one
+     *  staged in the current worktree, if the stored one is missing. */
+    private static File chunkFile(String id) {
+        File result = ObjectStore.find(chunkDump(), id);
+        if (!result.exists()) {
+            File staged = new File(stagedChunks(new File(Main.getStateDir(),
+                    "addStaging")), id);
+            if (staged.exists()) {
+                return staged;
+            }
+        }
+        return result;
+    }
+
+    /** Returns a new SHA-1 digest. */
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support "
+                    + "SHA-1");
+        }
+    }
+
+    /** Returns the hash DIGEST has computed, in hex, as Utils.sha1 does. */
+    private static String hex(MessageDigest digest) {
+        Formatter result = new Formatter();
+        for (byte b : digest.digest()) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
+    /** Byte array for this blob, or null if it is stored in chunks.**/
     private byte[] _blob;
 
     /** Hashcode for the blob.**/
     private String _hash;
 
-    /** Filename for the blob.**/
-    private String _name;
+    /** Hashes of the chunks holding this blob, in order, or null if it is
+     *  held in _blob. **/
+    private ArrayList<String> _chunks;
+
+    /** Number of bytes in this blob, if it is stored in chunks. **/
+    private long _size;
+
+    /** Name of the file this blob was made from, in layout 1 only. **/
+    private transient String _name;
 
 }
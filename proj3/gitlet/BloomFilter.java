@@ -0,0 +1,76 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+
+/** A Bloom filter over strings: a compact set that may report false
+ *  positives but never false negatives.
+ *  @author Frank Jin
+ */
+class BloomFilter {
+
+    /** Bits reserved per element. With NUM_HASHES probes this gives a false
+     *  positive rate of about 1%. */
+    static final int BITS_PER_ELEMENT = 10;
+
+    /** Number of bit positions probed per element. */
+    static final int NUM_HASHES = 7;
+
+    /** An empty filter sized for NUMELEMENTS elements. */
+    BloomFilter(int numElements) {
+        _bits = new byte[Math.max(8, (numElements * BITS_PER_ELEMENT + 7) / 8)];
+    }
+
+    /** A filter over the bits previously returned by toBytes(). */
+    BloomFilter(byte[] bits) {
+        _bits = bits;
+    }
+
+    /** Adds ELEMENT to this filter. */
+    void add(String element) {
+        long hash = hash64(element);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32);
+        int numBits = _bits.length * 8;
+        for (int i = 0; i < NUM_HASHES; i += 1) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            _bits[bit / 8] |= 1 << (bit % 8);
+        }
+    }
+
+    /** Returns false if ELEMENT was certainly never added to this filter,
+     *  and true if it probably was. */
+    boolean mightContain(String element) {
+        long hash = hash64(element);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32);
+        int numBits = _bits.length * 8;
+        for (int i = 0; i < NUM_HASHES; i += 1) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            if ((_bits[bit / 8] & (1 << (bit % 8))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the bits of this filter. */
+    byte[] toBytes() {
+        return _bits;
+    }
+
+    /** Returns a 64-bit hash of the UTF-8 bytes of S (FNV-1a, with a final
+     *  mixing step so that both halves are usable), from which the probe
+     *  positions are derived by double hashing. */
+    private static long hash64(String s) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /** The filter's bit array. **/
+    private final byte[] _bits;
+}
@@ -0,0 +1,222 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/** The changed-path sidecar .gitlet/changedPaths. For every commit it holds
+ *  one record with the commit's first parent and a Bloom filter of the paths
+ *  the commit changed relative to that parent, so that path-limited history
+ *  walks can step over most commits without deserializing them.
+ *
+ *  A record is the commit's id and its parent's (HEADER bytes with the
+ *  length of the filter, -1 for none), the filter, and a trailer of
+ *  TRAILER bytes: the length of what precedes it and its CRC-32. Records
+ *  are only ever appended, by writers holding the repository lock. A reader
+ *  stops at the first record that is incomplete or fails its checksum,
+ *  such as one a crash cut short, or one a writer is still appending.
+ *  Before appending, a writer checks that the sidecar ends with a whole
+ *  record, reading only that record, and otherwise cuts it off at the
+ *  first bad one.
+ *  @author Frank Jin
+ */
+class ChangedPaths {
+
+    /** Commits changing more paths than this get no filter, and match every
+     *  path. Keeps huge commits from bloating the sidecar. */
+    static final int MAX_PATHS = 512;
+
+    /** Stands for the missing parent of the initial commit. */
+    private static final String NO_PARENT = "-".repeat(Utils.UID_LENGTH);
+
+    /** Length of the part of a record before its filter. */
+    private static final int HEADER = 2 * Utils.UID_LENGTH + 4;
+
+    /** Length of the trailer of a record. */
+    private static final int TRAILER = 8;
+
+    /** Length of the largest filter, that of MAX_PATHS paths. */
+    private static final int MAX_FILTER =
+            new BloomFilter(MAX_PATHS).toBytes().length;
+
+    /** The record of one commit. */
+    static class Entry {
+        /** An entry for a commit with first parent PARENT (null if none)
+         *  whose changed paths are in FILTER (null if unfiltered). */
+        Entry(String parent, BloomFilter filter) {
+            _parent = parent;
+            _filter = filter;
+        }
+
+        /** Returns the id of the commit's first parent, or null. */
+        String getParent() {
+            return _parent;
+        }
+
+        /** Returns false if the commit certainly did not change PATH. */
+        boolean mightHaveChanged(String path) {
+            return _filter == null || _filter.mightContain(path);
+        }
+
+        /** First parent of the commit. **/
+        private final String _parent;
+
+        /** Paths the commit changed, or null if there were too many. **/
+        private final BloomFilter _filter;
+    }
+
+    /** The sidecar of the repository whose metadata lives in GITLETDIR. */
+    ChangedPaths(File gitletDir) {
+        _file = new File(gitletDir, "changedPaths");
+    }
+
+    /** Appends the record of commit ID, whose first parent is PARENT (null
+     *  for the initial commit) and which changed the paths in CHANGED. */
+    void record(String id, String parent, Collection<String> changed) {
+        append(entry(id, parent, changed));
+    }
+
+    /** Returns the record of commit ID, whose first parent is PARENT (null
+     *  for the initial commit) and which changed the paths in CHANGED, as
+     *  record would append it. */
+    static byte[] entry(String id, String parent, Collection<String> changed) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(id.getBytes(StandardCharsets.US_ASCII));
+            out.write((parent == null ? NO_PARENT : parent)
+                    .getBytes(StandardCharsets.US_ASCII));
+            if (changed.size() > MAX_PATHS) {
+                out.writeInt(-1);
+            } else {
+                BloomFilter filter = new BloomFilter(changed.size());
+                for (String path : changed) {
+                    filter.add(path);
+                }
+                out.writeInt(filter.toBytes().length);
+                out.write(filter.toBytes());
+            }
+            out.flush();
+            int length = bytes.size();
+            out.writeInt(length);
+            out.writeInt(crc(bytes.toByteArray(), 0, length));
+        } catch (IOException excp) {
+            throw Utils.error("Internal error recording changed paths.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Appends RECORDS, made by entry, to the sidecar, first cutting off
+     *  any damaged or incomplete record at its end. */
+    void append(byte[] records) {
+        try (FileChannel out = FileChannel.open(_file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long end = out.size();
+            if (!endsCleanly(out, end)) {
+                end = read(Utils.readContents(_file), null);
+                out.truncate(end);
+            }
+            out.position(end);
+            ByteBuffer buffer = ByteBuffer.wrap(records);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Unable to write %s.", _file);
+        }
+    }
+
+    /** Returns the records of all commits, keyed by commit id. Commits made
+     *  before the sidecar existed, or whose records were damaged, have no
+     *  record. */
+    HashMap<String, Entry> load() {
+        HashMap<String, Entry> result = new HashMap<>();
+        if (_file.exists()) {
+            read(Utils.readContents(_file), result);
+        }
+        return result;
+    }
+
+    /** Adds the records at the start of CONTENTS, up to the first that is
+     *  incomplete or damaged, to RESULT, unless it is null, and returns the
+     *  number of bytes they take. */
+    private static int read(byte[] contents, HashMap<String, Entry> result) {
+        ByteBuffer in = ByteBuffer.wrap(contents);
+        int end = 0;
+        while (in.remaining() >= HEADER + TRAILER) {
+            int length = in.getInt(end + 2 * Utils.UID_LENGTH);
+            int body = HEADER + Math.max(length, 0);
+            if (length < -1 || length > MAX_FILTER
+                    || in.remaining() < body + TRAILER
+                    || in.getInt(end + body) != body
+                    || in.getInt(end + body + 4) != crc(contents, end, body)) {
+                break;
+            }
+            if (result != null) {
+                String id = new String(contents, end, Utils.UID_LENGTH,
+                        StandardCharsets.US_ASCII);
+                String parent = new String(contents, end + Utils.UID_LENGTH,
+                        Utils.UID_LENGTH, StandardCharsets.US_ASCII);
+                BloomFilter filter = length < 0 ? null : new BloomFilter(
+                        Arrays.copyOfRange(contents, end + HEADER,
+                                end + body));
+                result.put(id, new Entry(parent.equals(NO_PARENT) ? null
+                        : parent, filter));
+            }
+            end += body + TRAILER;
+            in.position(end);
+        }
+        return end;
+    }
+
+    /** Returns true iff the sidecar, of SIZE bytes, read through IN, is
+     *  empty or ends with a whole record that passes its checksum. */
+    private static boolean endsCleanly(FileChannel in, long size)
+            throws IOException {
+        if (size == 0) {
+            return true;
+        } else if (size < HEADER + TRAILER) {
+            return false;
+        }
+        ByteBuffer trailer = readAt(in, size - TRAILER, TRAILER);
+        int body = trailer.getInt(0);
+        if (body < HEADER || body > HEADER + MAX_FILTER
+                || body + TRAILER > size) {
+            return false;
+        }
+        ByteBuffer record = readAt(in, size - TRAILER - body, body);
+        return trailer.getInt(4) == crc(record.array(), 0, body);
+    }
+
+    /** Returns the LENGTH bytes at offset POSITION of IN. */
+    private static ByteBuffer readAt(FileChannel in, long position,
+                                     int length) throws IOException {
+        ByteBuffer result = ByteBuffer.allocate(length);
+        while (result.hasRemaining()) {
+            if (in.read(result, position + result.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return result;
+    }
+
+    /** Returns the CRC-32 of the LENGTH bytes of BYTES at offset START. */
+    private static int crc(byte[] bytes, int start, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, start, length);
+        return (int) crc.getValue();
+    }
+
+    /** The sidecar file. **/
+    private final File _file;
+}
@@ -0,0 +1,116 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Content-defined chunking (FastCDC) of large files. A file is cut where a
+ *  rolling hash of the last bytes read meets a condition, so the cut points
+ *  depend only on nearby contents: an edit moves or adds cuts only around
+ *  itself, and every other chunk of the new version is one the old version
+ *  already stored. Chunks are stored in .gitlet/chunkDump, named by the
+ *  SHA-1 of their contents.
+ *
+ *  The hash is a Gear hash, one shift and one table lookup per byte. Cuts
+ *  are never made in the first MIN bytes of a chunk, are made with a
+ *  stricter condition until AVG bytes and a looser one after, and are
+ *  forced at MAX bytes, which keeps chunk sizes close to AVG.
+ *  @author Frank Jin
+ */
+class Chunker {
+
+    /** Smallest chunk, except for the last of a file. */
+    static final int MIN = 16 << 10;
+
+    /** Typical chunk size. */
+    static final int AVG = 64 << 10;
+
+    /** Largest chunk. */
+    static final int MAX = 256 << 10;
+
+    /** Condition for cuts before AVG bytes: 18 bits of the hash are 0. */
+    private static final long MASK_SMALL = 0x1a250e90227c0000L;
+
+    /** Condition for cuts after AVG bytes: 14 bits of the hash are 0. */
+    private static final long MASK_LARGE = 0x1a210e8022680000L;
+
+    /** Reads IN to its end, adding every byte to DIGEST, and returns the
+     *  hashes of its chunks, in order. Chunks not stored in CHUNKDUMP (or
+     *  its alternates) are written into TARGET, which may be CHUNKDUMP. */
+    static List<String> store(InputStream in, MessageDigest digest,
+                              File chunkDump, File target)
+            throws IOException {
+        List<String> result = new ArrayList<>();
+        byte[] buffer = new byte[MAX];
+        int length = 0;
+        boolean done = false;
+        while (true) {
+            while (!done && length < MAX) {
+                int read = in.read(buffer, length, MAX - length);
+                if (read < 0) {
+                    done = true;
+                } else {
+                    length += read;
+                }
+            }
+            if (length == 0) {
+                return result;
+            }
+            int cut = cut(buffer, length);
+            byte[] chunk = Arrays.copyOf(buffer, cut);
+            digest.update(chunk);
+            String id = Utils.sha1(chunk);
+            File file = new File(target, id);
+            if (!file.exists() && !ObjectStore.exists(chunkDump, id)) {
+                target.mkdirs();
+                Utils.writeContentsDurable(file, Main.getGitletDir(), chunk);
+            }
+            result.add(id);
+            System.arraycopy(buffer, cut, buffer, 0, length - cut);
+            length -= cut;
+        }
+    }
+
+    /** Returns the length of the chunk that starts BUFFER, whose first
+     *  LENGTH bytes are filled. */
+    static int cut(byte[] buffer, int length) {
+        if (length <= MIN) {
+            return length;
+        }
+        int end = Math.min(length, MAX);
+        int normal = Math.min(end, AVG);
+        long hash = 0;
+        int i = MIN;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i += 1) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /** Random values, one per byte value, mixed into the hash. **/
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long seed = 0;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            seed += 0x9e3779b97f4a7c15L;
+            long x = seed;
+            x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+            x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = x ^ (x >>> 31);
+        }
+    }
+}
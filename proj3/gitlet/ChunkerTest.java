@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of the storage of files of at least Blob.CHUNKED bytes in
+ *  chunks.
+ *  @author Frank Jin
+ */
+public class ChunkerTest {
+
+    /** A large file comes back whole from a commit, and an edit to it
+     *  stores only the chunks around the edit. */
+    @Test
+    public void largeFileRoundTrip() {
+        try (TestRepo repo = new TestRepo()) {
+            byte[] first = new byte[SIZE];
+            new Random(61).nextBytes(first);
+            Utils.writeContents(repo.file("big.bin"), first);
+            repo.run("add", "big.bin");
+            repo.run("commit", "first");
+            List<File> chunks = chunks(repo);
+            assertTrue(chunks.size() >= SIZE / Chunker.MAX);
+
+            byte[] second = first.clone();
+            for (int i = 0; i < EDIT; i += 1) {
+                second[SIZE / 2 + i] ^= 1;
+            }
+            Utils.writeContents(repo.file("big.bin"), second);
+            repo.run("add", "big.bin");
+            repo.run("commit", "second");
+            int added = chunks(repo).size() - chunks.size();
+            assertTrue("stored " + added + " chunks", added >= 1
+                    && added <= 2);
+
+            repo.run("checkout", commits(repo).get(1), "--", "big.bin");
+            assertArrayEquals(first, Utils.readContents(repo.file("big.bin")));
+            repo.run("checkout", "--", "big.bin");
+            assertArrayEquals(second,
+                    Utils.readContents(repo.file("big.bin")));
+        }
+    }
+
+    /** The chunks of a large file wait with its staged blob, and only
+     *  those of the version committed are stored. */
+    @Test
+    public void onlyCommittedChunksStored() {
+        try (TestRepo repo = new TestRepo()) {
+            byte[] contents = new byte[SIZE];
+            new Random(63).nextBytes(contents);
+            Utils.writeContents(repo.file("big.bin"), contents);
+            repo.run("add", "big.bin");
+            assertEquals(0, chunks(repo).size());
+            contents[SIZE / 2] ^= 1;
+            Utils.writeContents(repo.file("big.bin"), contents);
+            repo.run("add", "big.bin");
+            repo.run("commit", "big");
+            Blob blob = Utils.readObject(new File(new File(repo.gitletDir(),
+                    "blobDump"), Blob.hash(repo.file("big.bin"))),
+                    Blob.class);
+            Set<String> stored = new HashSet<>();
+            for (File chunk : chunks(repo)) {
+                stored.add(chunk.getName());
+            }
+            assertEquals(new HashSet<>(blob.chunks()), stored);
+            assertFalse(Blob.stagedChunks(new File(repo.gitletDir(),
+                    "addStaging")).exists());
+        }
+    }
+
+    /** A file just under Blob.CHUNKED is stored whole, and one of exactly
+     *  Blob.CHUNKED bytes in chunks. */
+    @Test
+    public void chunkedFromThreshold() {
+        try (TestRepo repo = new TestRepo()) {
+            byte[] small = new byte[(int) Blob.CHUNKED - 1];
+            new Random(62).nextBytes(small);
+            Utils.writeContents(repo.file("small.bin"), small);
+            repo.run("add", "small.bin");
+            repo.run("commit", "small");
+            assertEquals(0, chunks(repo).size());
+            Utils.writeContents(repo.file("edge.bin"), small, new byte[] {1});
+            repo.run("add", "edge.bin");
+            repo.run("commit", "edge");
+            assertTrue(chunks(repo).size() > 0);
+        }
+    }
+
+    /** Returns the chunks REPO stores. */
+    private static List<File> chunks(TestRepo repo) {
+        File chunkDump = new File(repo.gitletDir(), "chunkDump");
+        List<File> result = new ArrayList<>();
+        if (!chunkDump.exists()) {
+            return result;
+        }
+        try (Stream<File> files = Files.walk(chunkDump.toPath())
+                .map(p -> p.toFile())) {
+            files.filter(File::isFile).forEach(result::add);
+        } catch (IOException excp) {
+            throw new IllegalStateException(excp);
+        }
+        return result;
+    }
+
+    /** Returns the ids of the commits on REPO's current branch, newest
+     *  first. */
+    private static List<String> commits(TestRepo repo) {
+        List<String> result = new ArrayList<>();
+        Matcher commit = Pattern.compile("commit ([0-9a-f]{40})")
+                .matcher(repo.run("log"));
+        while (commit.find()) {
+            result.add(commit.group(1));
+        }
+        return result;
+    }
+
+    /** Size of the large file, in bytes. */
+    private static final int SIZE = 3 << 20;
+
+    /** Number of bytes changed by the edit. */
+    private static final int EDIT = 100;
+}
@@ -1,6 +1,8 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.time.ZonedDateTime;
 import java.time.LocalDateTime;
@@ -11,20 +13,25 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TreeMap;
 
 
 public class Commit implements Serializable {
+    /** Fixed at the value the first version of this class had, so that
+     *  commits written by it stay readable, and migratable. **/
+    private static final long serialVersionUID = -9108772660569262974L;
+
     /**
-     * Makes bloblist based on files in the current working directory.
+     * Makes bloblist from the previous commit and the staged changes.
      * @param prevCommitIDin
      * @param commitMessagein
      * @param currentBranchin
-     * @param branchesin
+     * @param stagedin
      * @param rmvListin
      */
     public Commit(String prevCommitIDin, String commitMessagein,
-                  String currentBranchin, TreeMap<String, String> branchesin,
+                  String currentBranchin, TreeMap<String, String> stagedin,
                   ArrayList<String> rmvListin) {
         this.prevCommitID = prevCommitIDin;
         ZonedDateTime commitDate = ZonedDateTime.now();
@@ -34,8 +41,7 @@ public class Commit implements Serializable {
         this.rmvList = rmvListin;
         this.commitMessage = commitMessagein;
         this.currentBranch = currentBranchin;
-        this.branches = branchesin;
-        createBlobList();
+        createBlobList(stagedin);
     }
 
     /**
@@ -43,12 +49,10 @@ public class Commit implements Serializable {
      * @param prevCommitIDin
      * @param commitMessagein
      * @param currentBranchin
-     * @param branchesin
      * @param initial
      */
     public Commit(String prevCommitIDin, String commitMessagein,
-                  String currentBranchin, TreeMap<String,
-            String> branchesin, Boolean initial) {
+                  String currentBranchin, Boolean initial) {
         if (initial) {
             this.prevCommitID = prevCommitIDin;
             long x = 0;
@@ -63,22 +67,41 @@ public class Commit implements Serializable {
             timeOfCommit = zdt.format(f);
             this.commitMessage = commitMessagein;
             this.currentBranch = currentBranchin;
-            this.branches = branchesin;
+            this.tree = Tree.empty();
         }
     }
 
+    /**
+     * Commit constructor for commits whose tree is already built, such as
+     * the ones rebase replays.
+     * @param prevCommitIDin
+     * @param commitMessagein
+     * @param currentBranchin
+     * @param treein
+     */
+    public Commit(String prevCommitIDin, String commitMessagein,
+                  String currentBranchin, String treein) {
+        this.prevCommitID = prevCommitIDin;
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(
+                "EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH);
+        timeOfCommit = formatter.format(ZonedDateTime.now());
+        this.commitMessage = commitMessagein;
+        this.currentBranch = currentBranchin;
+        this.tree = treein;
+        this.rmvList = null;
+    }
+
     /**
      * Commit constructor for merged commits.
      * @param prevCommitIDin
      * @param mergeParentin
      * @param currentBranchin
      * @param mergedBranchin
-     * @param branchesin
-     * @param blobMapin
+     * @param treein hash of the merged tree.
      */
     public Commit(String prevCommitIDin, String mergeParentin,
-                  String currentBranchin, String mergedBranchin, TreeMap<String,
-                  String> branchesin, TreeMap<String, String> blobMapin) {
+                  String currentBranchin, String mergedBranchin,
+                  String treein) {
         this.prevCommitID = prevCommitIDin;
         ZonedDateTime commitDate = ZonedDateTime.now();
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern(
@@ -87,53 +110,92 @@ public class Commit implements Serializable {
         this.commitMessage = String.format("Merged %s into %s.", mergedBranchin,
                 currentBranchin);
         this.currentBranch = currentBranchin;
-        this.branches = branchesin;
-        this.blobMap = blobMapin;
+        this.tree = treein;
         this.mergeParent = mergeParentin;
         this.rmvList = null;
     }
 
-    /** Looks through the current staged files (named with the SHA1 IDs), and
-     *  sees if some already exist in the blob directory. If some do, pointer to
-     *  them will be created. For new blobs, they will be created and added to
-     *  the blob directory. Then it will look at files in the current directory,
-     *  and if the SHA1 ID matches is in previous commit's blobList, then it
-     *  will save those as well. After, it removes all blobs from bloblist that
-     *  are in the rmvStaging directory.
+    /**
+     * Commit constructor for commits imported from another system (see
+     * FastImport), which keep their own dates.
+     * @param prevCommitIDin
+     * @param mergeParentin null unless this is a merge.
+     * @param commitMessagein
+     * @param currentBranchin
+     * @param treein hash of the commit's tree.
+     * @param date when the commit was made.
      */
-    void createBlobList() {
-        File addStaging = new File(Main.getRepositoryDir(),
-                "/.gitlet/addStaging");
-        if (!Utils.plainFilenamesIn(addStaging).isEmpty()) {
-            for (String name : Utils.plainFilenamesIn(addStaging)) {
-                File searchupLoc = new File(String.format(
-                        "%s/.gitlet/blobDump/%s",
-                        Main.getRepositoryDir(), name));
-                if (searchupLoc.exists()) {
-                    String blobFilename = Utils.readObject(searchupLoc,
-                            Blob.class).getName();
-
-                    blobMap.put(blobFilename, name);
-                } else {
-                    Blob newBlob = Utils.readObject(
-                            Utils.join(addStaging, name), Blob.class);
-                    Utils.writeObject(searchupLoc, newBlob);
-                    blobMap.put(newBlob.getName(), name);
-                }
-            }
+    public Commit(String prevCommitIDin, String mergeParentin,
+                  String commitMessagein, String currentBranchin,
+                  String treein, ZonedDateTime date) {
+        this.prevCommitID = prevCommitIDin;
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(
+                "EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH);
+        timeOfCommit = formatter.format(date);
+        this.commitMessage = commitMessagein;
+        this.currentBranch = currentBranchin;
+        this.tree = treein;
+        this.mergeParent = mergeParentin;
+        this.rmvList = null;
+    }
+
+    /** Builds this commit's tree from the previous commit's tree and the
+     *  staged changes alone: each staged blob is moved into the blob
+     *  directory (unless an identical one is already there, see
+     *  CommitPipeline) and replaces the file it was staged for, and every
+     *  file in the rmvList is dropped.
+     *  Neither the working directory nor the unchanged parts of the previous
+     *  tree are read.
+     *  @param staged names of the staged files, mapped to their blobs.
+     */
+    void createBlobList(TreeMap<String, String> staged) {
+        File addStaging = new File(Main.getStateDir(), "addStaging");
+        new CommitPipeline(addStaging, Utils.join(Main.getGitletDir(),
+                "blobDump"), Main.getGitletDir()).store(staged.values());
+        TreeMap<String, String> changes = new TreeMap<>(staged);
+        for (String i : rmvList) {
+            changes.put(i, null);
         }
-        Commit prevCommit = Utils.readObject(Utils.join(Main.getRepositoryDir(),
-                ".gitlet/commitDump", prevCommitID), Commit.class);
-        for (String name : Utils.plainFilenamesIn(Main.getRepositoryDir())) {
-            File temp = Utils.join(Main.getRepositoryDir(), name);
-            Blob thisBlob = new Blob(temp, name);
-            if (prevCommit.blobMap.containsValue(thisBlob.getHash())
-                && prevCommit.blobMap.containsKey(thisBlob.getName())) {
-                blobMap.put(name, thisBlob.getHash());
-            }
+        Commit prevCommit = ObjectStore.read(Utils.join(Main.getGitletDir(),
+                "commitDump"), prevCommitID, Commit.class);
+        tree = Tree.update(prevCommit.tree, changes);
+    }
+
+    /** Points this commit at the tree TREEIN and replaces each commit it
+     *  refers to (its parents) with its entry in COMMITIDS. Used by
+     *  migrations that rename every object.
+     *  @param treeIn the new root tree.
+     *  @param commitIds old commit hashes, mapped to new ones.
+     */
+    void relink(String treeIn, Map<String, String> commitIds) {
+        tree = treeIn;
+        blobMap = null;
+        if (prevCommitID != null) {
+            prevCommitID = commitIds.get(prevCommitID);
         }
-        for (String i : rmvList) {
-            blobMap.remove(i);
+        if (mergeParent != null) {
+            mergeParent = commitIds.get(mergeParent);
+        }
+    }
+
+    /** Reads a commit from IN, including the flat map of files to blobs
+     *  that layout 1 stored in place of a tree, for
+     *  CommitTree.migrate. */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        tree = (String) fields.get("tree", null);
+        prevCommitID = (String) fields.get("prevCommitID", null);
+        timeOfCommit = (String) fields.get("timeOfCommit", null);
+        commitMessage = (String) fields.get("commitMessage", null);
+        rmvList = (ArrayList<String>) fields.get("rmvList", null);
+        currentBranch = (String) fields.get("currentBranch", null);
+        mergeParent = (String) fields.get("mergeParent", null);
+        try {
+            blobMap = (TreeMap<String, String>) fields.get("blobMap", null);
+        } catch (IllegalArgumentException excp) {
+            /* Written by layout 2, which stores a tree. */
         }
     }
 
@@ -145,10 +207,30 @@ public class Commit implements Serializable {
         return this.timeOfCommit;
     }
 
+    /**
+     * Returns the time of commit.
+     * @return Commit time
+     */
+    public ZonedDateTime getDate() {
+        return ZonedDateTime.parse(timeOfCommit, DateTimeFormatter.ofPattern(
+                "EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH));
+    }
+
+    /** Returns every file in this commit, mapped to its blob. Reads the
+     *  whole tree on first use; prefer getTree and the Tree operations
+     *  when only part of it is needed. */
     public TreeMap<String, String> getBlobMap() {
+        if (blobMap == null) {
+            blobMap = Tree.flatten(tree);
+        }
         return blobMap;
     }
 
+    /** Returns the hash of this commit's root tree. */
+    public String getTree() {
+        return tree;
+    }
+
     public String getPrevCommitID() {
         return prevCommitID;
     }
@@ -165,17 +247,17 @@ public class Commit implements Serializable {
         return currentBranch;
     }
 
-    public TreeMap<String, String> getBranches() {
-        return branches;
-    }
-
     public String getMergeParent() {
         return mergeParent;
     }
 
+    /** Hash of the tree of all the files this commit references. **/
+    private String tree;
+
     /** Dictionary of filename:hashcodes of all blobs that this commit
-     * references.**/
-    private TreeMap<String, String> blobMap = new TreeMap<>();
+     * references, read from tree when first needed. Commits of layout 1
+     * have no tree, only this. **/
+    private transient TreeMap<String, String> blobMap;
 
     /** Hashcode of previous commit's ID. **/
     private String prevCommitID;
@@ -192,9 +274,6 @@ public class Commit implements Serializable {
     /** The branch this commit is on. **/
     private String currentBranch;
 
-    /** Snapshot of the heads of branches during BEFORE this commit. **/
-    private TreeMap<String, String> branches = new TreeMap<>();
-
     /** If commit comes from the merge two other commits, record the other
      * commit hash here.
      */
@@ -0,0 +1,137 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/** Moves the blobs staged for a commit into the blob directory, durably,
+ *  paying for the disk once per commit rather than once per blob. It runs
+ *  in three steps: every blob not stored yet is copied into a temporary
+ *  file, with nothing forced to the disk; the temporary files are then
+ *  forced to the disk together, on several threads, so the device can
+ *  write them as one batch; and last they are renamed into place, after
+ *  which each directory they went into is forced once. Blobs were hashed
+ *  when they were staged, and are copied as they are rather than hashed
+ *  again. The chunks of a large staged blob wait in Blob.stagedChunks,
+ *  and are moved into the folder of chunks, those not there yet, in the
+ *  same way and before the blob that lists them.
+ *
+ *  store returns only once every blob is durable, so the trees and the
+ *  commit written after it never refer to a blob a crash could lose. If
+ *  it fails, the temporary files are deleted, and the blobs already
+ *  renamed are complete, merely unreferenced.
+ *  @author Frank Jin
+ */
+class CommitPipeline {
+
+    /** A pipeline moving blobs from ADDSTAGING to BLOBDUMP, writing
+     *  temporary files in TMPDIR. */
+    CommitPipeline(File addStaging, File blobDump, File tmpDir) {
+        _addStaging = addStaging;
+        _blobDump = blobDump;
+        _chunkDump = new File(blobDump.getParentFile(), "chunkDump");
+        _tmpDir = tmpDir;
+    }
+
+    /** Stores the staged blobs with hashes HASHES that are not stored
+     *  yet, returning once they are all durable. */
+    void store(Collection<String> hashes) {
+        Map<File, File> moves = new LinkedHashMap<>();
+        try {
+            Set<String> chunks = new HashSet<>();
+            for (String hash : new LinkedHashSet<>(hashes)) {
+                if (ObjectStore.exists(_blobDump, hash)) {
+                    continue;
+                }
+                File staged = new File(_addStaging, hash);
+                for (String chunk
+                        : Utils.readObject(staged, Blob.class).chunks()) {
+                    if (chunks.add(chunk)
+                            && !ObjectStore.exists(_chunkDump, chunk)) {
+                        moves.put(copy(new File(Blob.stagedChunks(
+                                _addStaging), chunk)),
+                                new File(_chunkDump, chunk));
+                    }
+                }
+                moves.put(copy(staged), new File(_blobDump, hash));
+            }
+            if (moves.isEmpty()) {
+                return;
+            }
+            moves.keySet().parallelStream().forEach(CommitPipeline::sync);
+            Set<File> dirs = new LinkedHashSet<>();
+            for (Map.Entry<File, File> move : moves.entrySet()) {
+                File dir = move.getValue().getParentFile();
+                if (dirs.add(dir)) {
+                    dir.mkdirs();
+                }
+                Files.move(move.getKey().toPath(), move.getValue().toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            for (File dir : dirs) {
+                syncDirectory(dir);
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            for (File tmp : moves.keySet()) {
+                tmp.delete();
+            }
+            throw Utils.error("Unable to store staged files: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /** Returns a new temporary file holding a copy of FILE, which is not
+     *  forced to the disk yet. */
+    private File copy(File file) throws IOException {
+        File result = File.createTempFile("tmp", null, _tmpDir);
+        Files.copy(file.toPath(), result.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        return result;
+    }
+
+    /** Forces the contents of FILE to the storage device. Throws
+     *  IllegalArgumentException in case of problems. */
+    private static void sync(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forces the names in directory DIR to the storage device, so that
+     *  files renamed into it survive a crash. Does nothing where
+     *  directories cannot be opened, as on Windows, which does not need
+     *  it. */
+    private static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Where staged blobs are. **/
+    private final File _addStaging;
+
+    /** Where committed blobs go. **/
+    private final File _blobDump;
+
+    /** Where the chunks of committed blobs go. **/
+    private final File _chunkDump;
+
+    /** Where temporary files go. **/
+    private final File _tmpDir;
+}
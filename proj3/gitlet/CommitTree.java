@@ -1,16 +1,49 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.TreeMap;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class CommitTree implements Serializable {
+    /** Fixed at the value the first version of this class had, so that
+     * repositories written by it stay readable, and migratable. **/
+    private static final long serialVersionUID = 7038043022006807757L;
+
+    /** Version of the repository layout written by this code. Layout 1
+     * named blobs by the hashes of both their contents and their file
+     * names, and kept the refs and the files staged for removal in
+     * commitTreeFile; layout 2 names blobs by their contents alone, and
+     * keeps the refs and both staging lists in files of their own (see
+     * Refs). **/
+    static final int FORMAT = 2;
+
     /**
      * Initializes the repository, creates file structure and makes the first
      * commit.
@@ -37,24 +70,88 @@ public class CommitTree implements Serializable {
      * @param filename Name of the file being added.
      */
     public void add(String filename) {
-        if (!Utils.join(Main.getRepositoryDir(), filename).exists()) {
+        String path = workPath(filename);
+        if (path == null) {
+            System.out.println("File is outside the working tree.");
+            return;
+        }
+        filename = path;
+        if (!Utils.join(Main.getRepositoryDir(), filename).isFile()) {
             System.out.println("File does not exist.");
+        } else if (!sparse().includes(filename)) {
+            System.out.println("File is outside the sparse-checkout "
+                    + "patterns.");
+        } else if (knownUnchanged(filename)) {
+            unstage(filename);
+            _rmvList.remove(filename);
         } else {
             File temp = Utils.join(Main.getRepositoryDir(), filename);
-            Blob thisBlob = new Blob(temp, filename);
-            Commit thisCommit = Utils.readObject(new File(_commitDump,
-                    _head), Commit.class);
+            Blob thisBlob = new Blob(temp, Blob.stagedChunks(_addStaging));
+            Commit thisCommit = readCommit(_head);
+            unstage(filename);
             if (_rmvList.contains(filename)) {
                 _rmvList.remove(filename);
-            } else if (!thisCommit.getBlobMap().containsKey(filename)
-                    || !thisCommit.getBlobMap().containsValue(
-                            thisBlob.getHash())) {
+            } else if (!thisBlob.getHash().equals(
+                    Tree.lookup(thisCommit.getTree(), filename))) {
+                _staged.put(filename, thisBlob.getHash());
                 Utils.writeObject(new File(_addStaging, thisBlob.getHash()),
                         thisBlob);
             }
         }
     }
 
+    /**
+     * Turns a file name given on the command line into the path of a file
+     * in the working tree: relative to its root, with components separated
+     * by "/", and without "." or ".." components.
+     * @param filename the file, relative to the working directory or
+     *                 absolute.
+     * @return the path, or null if the file is outside the working tree:
+     *         above its root, inside .gitlet, or inside a directory with a
+     *         .gitlet of its own, such as a linked worktree.
+     */
+    static String workPath(String filename) {
+        Path root = Main.getRepositoryDir().toPath().toAbsolutePath()
+                .normalize();
+        Path path = root.resolve(filename).normalize();
+        if (!path.startsWith(root) || path.equals(root)) {
+            return null;
+        }
+        String result = root.relativize(path).toString()
+                .replace(File.separatorChar, '/');
+        return Tree.validPath(result) && !nested(result) ? result : null;
+    }
+
+    /**
+     * Returns true if a path is inside a subdirectory of the working tree
+     * that has a .gitlet of its own: a linked worktree, or another
+     * repository, whose files are not this one's.
+     * @param path the path, relative to the root of the working tree.
+     * @return whether it is in such a subdirectory.
+     */
+    static boolean nested(String path) {
+        for (int slash = path.indexOf('/'); slash >= 0;
+             slash = path.indexOf('/', slash + 1)) {
+            if (Utils.join(Main.getRepositoryDir(), path.substring(0, slash),
+                    ".gitlet").exists()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes a file from the staging area, deleting its staged blob unless
+     * another staged file has the same contents.
+     * @param filename the file.
+     */
+    private void unstage(String filename) {
+        String hash = _staged.remove(filename);
+        if (hash != null && !_staged.containsValue(hash)) {
+            Utils.join(_addStaging, hash).delete();
+        }
+    }
+
     /**
      * Blobify a file. Checks if it is in the addStaging directory, if it is,
      * then remove it. If its not, and it's tracked in the previous commit's
@@ -62,21 +159,26 @@ public class CommitTree implements Serializable {
      * @param filename file to be removed.
      */
     public void rm(String filename) {
+        String path = workPath(filename);
+        if (path == null) {
+            System.out.println("File is outside the working tree.");
+            return;
+        }
+        filename = path;
         File temp = Utils.join(Main.getRepositoryDir(), filename);
-        Commit thisCommit = Utils.readObject(new File(_commitDump,
-                _head), Commit.class);
+        Commit thisCommit = readCommit(_head);
+        boolean tracked = Tree.lookup(thisCommit.getTree(), filename) != null;
         if (temp.exists()) {
-            Blob thisBlob = new Blob(temp, filename);
-            if (Utils.join(_addStaging, thisBlob.getHash()).exists()) {
-                Utils.join(_addStaging, thisBlob.getHash()).delete();
-            } else if (thisCommit.getBlobMap().containsValue(
-                    thisBlob.getHash())) {
+            if (_staged.containsKey(filename)) {
+                unstage(filename);
+            } else if (tracked) {
                 _rmvList.add(filename);
                 temp.delete();
+                removeEmptyParents(temp);
             } else {
                 System.out.println("No reason to remove the file.");
             }
-        } else if (thisCommit.getBlobMap().containsKey(filename)) {
+        } else if (tracked) {
             _rmvList.add(filename);
         }
     }
@@ -89,23 +191,24 @@ public class CommitTree implements Serializable {
      *                hence removed
      * @param initialCommit true if this commit is the intializing commit.
      * @param givenBranch branch that is being merged into this one.
-     * @param mergeBlob the result of the merge
+     * @param mergeTree hash of the tree the merge produced.
      * @param merge if this commit is result of a merge.
      */
     public void commit(String commitMessage, ArrayList<String> rmvList,
-                       String givenBranch, TreeMap<String, String> mergeBlob,
+                       String givenBranch, String mergeTree,
                        Boolean initialCommit, Boolean merge) {
-        if (initialCommit) {
+        if (!initialCommit && bisecting()) {
+            return;
+        } else if (initialCommit) {
             Commit currentCommit = new Commit(_head, commitMessage,
-                    _currentBranch, _branches, initialCommit);
+                    _currentBranch, initialCommit);
             save(currentCommit);
             _branches.put("master", _head);
         } else if (merge) {
-            Commit currentCommit = Utils.readObject(Utils.join(_commitDump,
-                    _head), Commit.class);
+            Commit currentCommit = readCommit(_head);
             Commit mergedCommit = new Commit(_head,
                     _branches.get(givenBranch), _currentBranch, givenBranch,
-                    _branches, mergeBlob);
+                    mergeTree);
             if (Utils.sha1(Utils.serialize(currentCommit)).equals(
                     Utils.sha1(Utils.serialize(mergedCommit)))) {
                 System.out.println("No changes added to the commit.");
@@ -115,20 +218,29 @@ public class CommitTree implements Serializable {
         } else {
             if (commitMessage.equals("")) {
                 System.out.println("Please enter a commit message.");
-            } else if (Utils.plainFilenamesIn(_addStaging).isEmpty()
-                    && rmvList.isEmpty()) {
+            } else if (_staged.isEmpty() && rmvList.isEmpty()) {
                 System.out.println("No changes added to the commit.");
             } else {
                 Commit currentCommit = new Commit(_head, commitMessage,
-                        _currentBranch, _branches, rmvList);
+                        _currentBranch, _staged, rmvList);
                 save(currentCommit);
-                clearDir(_addStaging);
+                clearStaging();
                 _rmvList.clear();
                 _branches.put(_currentBranch, _head);
             }
         }
     }
 
+    /**
+     * Empties the staging area, both the published list of staged files and
+     * the staged blobs backing it.
+     */
+    private void clearStaging() {
+        _staged.clear();
+        clearDir(Blob.stagedChunks(_addStaging));
+        clearDir(_addStaging);
+    }
+
     /**
      * Clears a specified directory.
      * @param dir The directory to be cleared.
@@ -149,10 +261,40 @@ public class CommitTree implements Serializable {
      */
     public void save(Commit currentCommit) {
         String commitCode = Utils.sha1(Utils.serialize(currentCommit));
-        Utils.writeObject(Utils.join(_commitDump, commitCode), currentCommit);
+        if (!ObjectStore.exists(_commitDump, commitCode)) {
+            writeImmutable(new File(_commitDump, commitCode), currentCommit);
+            String parent = currentCommit.getPrevCommitID();
+            String parentTree = parent == null ? null
+                    : readCommit(parent).getTree();
+            new ChangedPaths(Main.getGitletDir()).record(commitCode, parent,
+                    Tree.diff(parentTree, currentCommit.getTree()).keySet());
+        }
         _head = commitCode;
     }
 
+    /**
+     * Writes a content-addressed object, which is never changed once it
+     * exists. The write is atomic, so that a reader that lists commitDump or
+     * follows a hash while a writer runs never sees a partial object, and
+     * durable, so that an object written before the ones referring to it
+     * is never lost by a crash that keeps them. During a batch (see
+     * ObjectStore.startBatch) the object goes into the batch's pack instead.
+     * @param file where the object lives, named by its hash.
+     * @param obj the object.
+     */
+    static void writeImmutable(File file, Serializable obj) {
+        if (file.exists()
+                || ObjectStore.exists(file.getParentFile(), file.getName())) {
+            return;
+        } else if (ObjectStore.batch() != null) {
+            ObjectStore.batch().add(file.getParentFile().getName() + "/"
+                    + file.getName(), Utils.serialize(obj));
+        } else {
+            Utils.writeContentsDurable(file, Main.getGitletDir(),
+                    Utils.serialize(obj));
+        }
+    }
+
     /**
      * Opens the latest commit on the current branch and opens the blob that
      * filename corresponds to. Then deletes the file in the working directory,
@@ -160,19 +302,7 @@ public class CommitTree implements Serializable {
      * @param filename the file to be replaced.
      */
     public void checkoutFile(String filename) {
-        Commit currentCommit = Utils.readObject(Utils.join(_commitDump, _head),
-                Commit.class);
-        if (!currentCommit.getBlobMap().containsKey(filename)) {
-            System.out.println("File does not exist in that commit.");
-        } else {
-            File storedFile = Utils.join(_blobDump,
-                    currentCommit.getBlobMap().get(
-                    filename));
-            Blob storedBlob = Utils.readObject(storedFile, Blob.class);
-            File targetFile = new File(Main.getRepositoryDir(), filename);
-            targetFile.delete();
-            Utils.writeContents(targetFile, storedBlob.getBlob());
-        }
+        checkoutFile(readCommit(_head), filename);
     }
 
     /**
@@ -183,24 +313,39 @@ public class CommitTree implements Serializable {
      */
     public void checkoutFile(String commitID, String filename) {
         Commit currentCommit = null;
-        if (Utils.join(_commitDump, commitID).exists()) {
-            currentCommit = Utils.readObject(
-                    Utils.join(_commitDump, commitID),
-                    Commit.class);
+        if (ObjectStore.exists(_commitDump, commitID)) {
+            currentCommit = readCommit(commitID);
         } else {
             currentCommit = abbrevHash(commitID);
         }
         if (currentCommit == null) {
             System.out.println("No commit with that id exists.");
-        } else if (!currentCommit.getBlobMap().containsKey(filename)) {
+        } else {
+            checkoutFile(currentCommit, filename);
+        }
+    }
+
+    /**
+     * Writes the version of a file in a commit into the working directory,
+     * replacing the one there. Only reads the trees along its path.
+     * @param commit the commit to take the file from.
+     * @param filename the file, as given on the command line.
+     */
+    private void checkoutFile(Commit commit, String filename) {
+        String path = workPath(filename);
+        if (path == null) {
+            System.out.println("File is outside the working tree.");
+            return;
+        }
+        String blobId = Tree.lookup(commit.getTree(), path);
+        if (blobId == null) {
             System.out.println("File does not exist in that commit.");
         } else {
-            File storedFile = Utils.join(_blobDump,
-                    currentCommit.getBlobMap().get(filename));
-            Blob storedBlob = Utils.readObject(storedFile, Blob.class);
-            File targetFile = new File(Main.getRepositoryDir(), filename);
+            Blob storedBlob = ObjectStore.read(_blobDump, blobId, Blob.class);
+            File targetFile = new File(Main.getRepositoryDir(), path);
             targetFile.delete();
-            Utils.writeContents(targetFile, storedBlob.getBlob());
+            targetFile.getParentFile().mkdirs();
+            storedBlob.writeTo(targetFile);
         }
     }
 
@@ -214,16 +359,14 @@ public class CommitTree implements Serializable {
         int matchCounter = 0;
         String matchID = "";
         Commit currentCommit;
-        for (String i : Utils.plainFilenamesIn(_commitDump)) {
+        for (String i : ObjectStore.list(_commitDump)) {
             if (i.substring(0, 8).equals(commitID)) {
                 matchCounter += 1;
                 matchID = i;
             }
         }
         if (matchCounter == 1) {
-            currentCommit = Utils.readObject(
-                    Utils.join(_commitDump, matchID),
-                    Commit.class);
+            currentCommit = readCommit(matchID);
             return currentCommit;
         }
         return null;
@@ -237,17 +380,22 @@ public class CommitTree implements Serializable {
      * @param branchName
      */
     public void checkoutBranch(String branchName) {
+        if (bisecting()) {
+            return;
+        }
         if (!_branches.containsKey(branchName)) {
             System.out.println("No such branch exists.");
         } else if (branchName.equals(_currentBranch)) {
             System.out.println("No need to checkout the current branch.");
+        } else if (checkedOutElsewhere(branchName) != null) {
+            System.out.println("That branch is already checked out at "
+                    + checkedOutElsewhere(branchName) + ".");
         } else {
-            Commit checkoutCom = Utils.readObject(Utils.join(_commitDump,
-                    _branches.get(branchName)), Commit.class);
+            Commit checkoutCom = readCommit(_branches.get(branchName));
             if (!checkUntracked(checkoutCom)) {
-                loadCommit(Utils.sha1(Utils.serialize(checkoutCom)),
-                        false);
-                clearDir(_addStaging);
+                loadCommit(_head,
+                        Utils.sha1(Utils.serialize(checkoutCom)));
+                clearStaging();
                 _rmvList.clear();
                 _currentBranch = branchName;
                 _head = _branches.get(_currentBranch);
@@ -262,6 +410,8 @@ public class CommitTree implements Serializable {
     public void branch(String branchName) {
         if (_branches.containsKey(branchName)) {
             System.out.println("A branch with that name already exists.");
+        } else if (!Refs.valid(branchName, _branches.keySet())) {
+            System.out.println("Invalid branch name.");
         } else {
             _branches.put(branchName, _head);
         }
@@ -274,6 +424,9 @@ public class CommitTree implements Serializable {
     public void rmbranch(String branchName) {
         if (branchName.equals(_currentBranch)) {
             System.out.println("Cannot remove the current branch.");
+        } else if (checkedOutElsewhere(branchName) != null) {
+            System.out.println("That branch is checked out at "
+                    + checkedOutElsewhere(branchName) + ".");
         } else if (!_branches.containsKey(branchName)) {
             System.out.println("A branch with that name does not exist.");
         } else {
@@ -284,491 +437,2322 @@ public class CommitTree implements Serializable {
     /**
      * Loads in a commit using hash, then removes all tracked (prev commit's and
      * staging area) files. Then loads in all files from specified commit, and
-     * sets the branch pointers and head to who it was when during this commit.
-     * @param commitID the commit id to reset to.
+     * sets the branch pointers and head to who it was when during this commit,
+     * as the reflogs recorded them (see branchesAt).
+     * @param commitID the commit id to reset to, or a reflog entry naming
+     *                 it (see reflogLookup).
      */
     public void reset(String commitID) {
-        if (!Utils.join(_commitDump, commitID).exists()) {
+        if (bisecting()) {
+            return;
+        }
+        if (commitID.contains("@{")) {
+            String found = reflogLookup(commitID);
+            commitID = found == null ? commitID : found;
+        }
+        if (!ObjectStore.exists(_commitDump, commitID)) {
             System.out.println("No commit with that id exists.");
             return;
         }
-        Commit newCommit = Utils.readObject(Utils.join(_commitDump, commitID),
-                Commit.class);
+        Commit newCommit = readCommit(commitID);
+        if (checkedOutElsewhere(newCommit.getCurrentBranch()) != null) {
+            System.out.println("That branch is already checked out at "
+                    + checkedOutElsewhere(newCommit.getCurrentBranch()) + ".");
+            return;
+        }
         if (!checkUntracked(newCommit)) {
-            newCommit = Utils.readObject(Utils.join(_commitDump, commitID),
-                    Commit.class);
-            loadCommit(commitID, false);
+            newCommit = readCommit(commitID);
+            loadCommit(_head, commitID);
             _head = commitID;
-            for (String i : newCommit.getBranches().keySet()) {
-                if (_branches.containsKey(i)) {
-                    _branches.put(i, newCommit.getBranches().get(i));
+            TreeMap<String, String> branches = branchesAt(commitID,
+                    newCommit);
+            for (String i : branches.keySet()) {
+                if (checkedOutElsewhere(i) == null) {
+                    _branches.put(i, branches.get(i));
                 }
             }
             _currentBranch = newCommit.getCurrentBranch();
             _branches.put(_currentBranch, _head);
-            clearDir(_addStaging);
+            clearStaging();
             _rmvList.clear();
         }
     }
 
     /**
-     * Prints a log of commits starting from the current commit.
+     * Returns where the branches pointed when a commit was made, as their
+     * reflogs recorded it: the value each had when the commit's branch (or,
+     * failing that, HEAD) first moved to the commit. Only existing branches
+     * that had a value then are included.
+     * @param commitID the commit.
+     * @param commit the commit itself.
+     * @return the branches, by name, or none if no reflog recorded the
+     *         commit being made.
      */
-    public void log() {
-        String hash = _head;
-        String message = "";
-        Commit thisCommit;
-        while (hash != null) {
-            thisCommit = Utils.readObject(new File(_commitDump, hash),
-                    Commit.class);
-            if (thisCommit.getMergeParent() != null) {
-                String temp = thisCommit.getPrevCommitID().substring(0, 7) + " "
-                        + thisCommit.getMergeParent().substring(0, 7);
-                message += String.format("===\ncommit %s\nMerge: %s\nDate:"
-                                + " %s\n%s\n\n",
-                        hash, temp, thisCommit.getTime(),
-                        thisCommit.getCommitMessage());
-            } else {
-                message += String.format("===\ncommit %s\nDate: %s\n%s\n\n",
-                        hash, thisCommit.getTime(),
-                        thisCommit.getCommitMessage());
+    private TreeMap<String, String> branchesAt(String commitID,
+                                               Commit commit) {
+        TreeMap<String, String> result = new TreeMap<>();
+        long time = commit.getDate().toInstant().toEpochMilli();
+        Reflog.Entry made = null;
+        if (commit.getCurrentBranch() != null
+                && _branches.containsKey(commit.getCurrentBranch())) {
+            made = reflogOf(commit.getCurrentBranch()).first(commitID, time);
+        }
+        if (made == null) {
+            made = reflogOf("HEAD").first(commitID, time);
+        }
+        if (made == null) {
+            return result;
+        }
+        for (String branch : _branches.keySet()) {
+            Reflog.Entry entry = reflogOf(branch).at(made.getTime());
+            if (entry != null && entry.getNow() != null) {
+                result.put(branch, entry.getNow());
             }
-            hash = thisCommit.getPrevCommitID();
         }
-        System.out.print(message);
+        return result;
     }
 
     /**
-     * Displays all commits every made. Not necessarily in order.
+     * Returns where every ref points: each branch, by name, and the current
+     * worktree's head, as "HEAD". Compared with the refs after a command by
+     * logRefs.
+     * @return the refs, by name.
      */
-    public void globalLog() {
-        Commit thisCommit;
-        for (String hash : Utils.plainFilenamesIn(_commitDump)) {
-            thisCommit = Utils.readObject(new File(_commitDump, hash),
-                    Commit.class);
-            System.out.println(String.format("===\ncommit %s\nDate: %s\n%s\n\n",
-                    hash, thisCommit.getTime(), thisCommit.getCommitMessage()));
-        }
+    public TreeMap<String, String> refs() {
+        TreeMap<String, String> result = new TreeMap<>(_branches);
+        result.put("HEAD", _head);
+        return result;
     }
 
-    public void find(String message) {
-        String result = "";
-        Commit thisCommit;
-        for (String i : Utils.plainFilenamesIn(_commitDump)) {
-            thisCommit = Utils.readObject(new File(_commitDump, i),
-                    Commit.class);
-            if (thisCommit.getCommitMessage().equals(message)) {
-                result += i + "\n";
+    /**
+     * Appends an entry to the reflog of every ref that moved since BEFORE
+     * was taken by refs, and deletes the reflogs of deleted branches.
+     * @param before the refs before the command.
+     * @param message the command that moved them.
+     */
+    public void logRefs(TreeMap<String, String> before, String message) {
+        TreeMap<String, String> after = refs();
+        TreeSet<String> names = new TreeSet<>(before.keySet());
+        names.addAll(after.keySet());
+        for (String name : names) {
+            if (!after.containsKey(name)) {
+                reflogOf(name).delete();
+            } else if (!Objects.equals(before.get(name), after.get(name))) {
+                reflogOf(name).append(before.get(name), after.get(name),
+                        message);
             }
         }
-        if (result.equals("")) {
-            System.out.println("Found no commit with that message.");
-        } else {
-            System.out.println(result);
-        }
     }
+
     /**
-     * Prints branches by iterating through _branches. Prints staged files by
-     * iterating through addStaging folder. Prints removed files by iterating
-     * through remove list. Prints the last two using helper function.
+     * Prints the reflog of a ref, newest first: for each entry, the commit
+     * the ref took and the command that moved it there.
+     * @param ref "HEAD" or a branch name.
      */
-    public void status() {
-        String msg = "";
-        msg += "=== Branches ===\n";
-        for (String branches : _branches.keySet()) {
-            if (branches.equals(_currentBranch)) {
-                msg += "*" + branches + "\n";
-            } else {
-                msg += branches + "\n";
-            }
+    public void reflog(String ref) {
+        if (!ref.equals("HEAD") && !_branches.containsKey(ref)) {
+            System.out.println("No such branch exists.");
+            return;
         }
-
-        msg += "\n=== Staged Files ===\n";
-        Blob thisBlob;
-        for (String fileSHA : Utils.plainFilenamesIn(_addStaging)) {
-            thisBlob = Utils.readObject(Utils.join(_addStaging, fileSHA),
-                    Blob.class);
-            msg += thisBlob.getName() + "\n";
+        Reflog reflog = reflogOf(ref);
+        PrintWriter out = Utils.output();
+        for (long n = 0; n < reflog.size(); n += 1) {
+            Reflog.Entry entry = reflog.get(n);
+            out.printf("%s %s@{%d}: %s%n", entry.getNow(), ref, n,
+                    entry.getMessage());
         }
+        out.flush();
+    }
 
-        msg += "\n=== Removed Files ===\n";
-        for (String name : _rmvList) {
-            msg += name + "\n";
+    /**
+     * Finds the commit a reflog entry names: REF@{N}, the value REF had N
+     * moves ago, or REF@{DATE}, the value it had at DATE (yyyy-MM-dd or
+     * "yyyy-MM-dd HH:mm:ss", local time). REF is "HEAD", a branch, or empty
+     * for HEAD. Takes O(log n) reads of a reflog of n entries.
+     * @param rev the reflog entry.
+     * @return the commit's id, or null if there is none.
+     */
+    private String reflogLookup(String rev) {
+        int at = rev.indexOf("@{");
+        if (!rev.endsWith("}")) {
+            return null;
         }
-
-        List<LinkedList<String>> mods = checkMod();
-        msg += "\n=== Modifications Not Staged For Commit ===\n";
-        for (String i : mods.get(0)) {
-            msg += i + "\n";
+        String ref = at == 0 ? "HEAD" : rev.substring(0, at);
+        String spec = rev.substring(at + 2, rev.length() - 1);
+        if (!ref.equals("HEAD") && !_branches.containsKey(ref)) {
+            return null;
         }
-        msg += "\n=== Untracked Files ===\n";
-        for (String i : mods.get(1)) {
-            msg += i + "\n";
+        Reflog.Entry entry;
+        if (spec.matches("\\d{1,18}")) {
+            entry = reflogOf(ref).get(Long.parseLong(spec));
+        } else {
+            try {
+                entry = reflogOf(ref).at(Main.parseDate(spec).toInstant()
+                        .toEpochMilli());
+            } catch (DateTimeParseException excp) {
+                return null;
+            }
         }
+        return entry == null ? null : entry.getNow();
+    }
 
-        System.out.println(msg);
+    /**
+     * Returns the reflog of a ref. HEAD's is private to the worktree; a
+     * branch's is shared.
+     * @param ref "HEAD" or a branch name.
+     * @return the reflog.
+     */
+    private Reflog reflogOf(String ref) {
+        if (ref.equals("HEAD")) {
+            return new Reflog(Utils.join(Main.getStateDir(), "logs", "HEAD"));
+        }
+        return new Reflog(Utils.join(Main.getGitletDir(), "logs", "refs",
+                "heads", ref));
     }
 
     /**
-     * Helper function for status, which finds modified and untracked files.
-     * @return A size 2 array of linkedLists, first one with modified files,
-     * second with untracked files.
+     * Prints a log of commits starting from the current commit.
      */
-    public List<LinkedList<String>> checkMod() {
-        Commit thisCommit = Utils.readObject(Utils.join(_commitDump, _head),
-                Commit.class);
-        TreeMap<String, String> prevblobMap = thisCommit.getBlobMap();
-        List<LinkedList<String>> mods = new ArrayList<LinkedList<String>>();
-        mods.add(new LinkedList<String>());
-        mods.add(new LinkedList<String>());
+    public void log() {
+        log(Integer.MAX_VALUE, null);
+    }
 
-        for (String blobFilename : prevblobMap.keySet()) {
-            if (!Utils.join(Main.getRepositoryDir(), blobFilename).exists()
-                    && !_rmvList.contains(blobFilename)) {
-                mods.get(0).add(blobFilename + " (deleted)");
-            } else if (Utils.join(Main.getRepositoryDir(),
-                    blobFilename).exists()) {
-                File thisFile = Utils.join(
-                        Main.getRepositoryDir(), blobFilename);
-                Blob temp = new Blob(thisFile, blobFilename);
-                if (!temp.getHash().equals(prevblobMap.get(blobFilename))) {
-                    mods.get(0).add(blobFilename + " (modified)");
-                }
+    /**
+     * Prints the history of the head commit, newest first, as it is read,
+     * stopping early at a limit.
+     * @param count most commits to print.
+     * @param since if not null, stop at the first commit made before it.
+     */
+    public void log(int count, ZonedDateTime since) {
+        PrintWriter out = Utils.output();
+        String hash = _head;
+        for (int i = 0; hash != null && i < count; i += 1) {
+            Commit thisCommit = readCommit(hash);
+            if (since != null && thisCommit.getDate().isBefore(since)) {
+                break;
             }
+            out.print(logEntry(hash, thisCommit));
+            hash = thisCommit.getPrevCommitID();
         }
-        for (String filename
-                : Utils.plainFilenamesIn(Main.getRepositoryDir())) {
-            Blob temp = new Blob(Utils.join(Main.getRepositoryDir(), filename),
-                    filename);
-            if (!prevblobMap.containsKey(filename)
-                    && !Utils.join(_addStaging, temp.getHash()).exists()) {
-                mods.get(1).add(filename);
-            }
+        out.flush();
+    }
+
+    /**
+     * Prints the log of the commits starting from the current commit that
+     * changed a file relative to their first parent. Uses the changed-path
+     * filters to step over commits that certainly did not touch the file
+     * without reading them, and only compares blob maps for the rest.
+     * @param filename the file whose history is printed.
+     */
+    public void log(String filename) {
+        HashMap<String, ChangedPaths.Entry> filters =
+                new ChangedPaths(Main.getGitletDir()).load();
+        PrintWriter out = Utils.output();
+        String hash = nextChange(_head, filename, filters);
+        while (hash != null) {
+            Commit thisCommit = readCommit(hash);
+            out.print(logEntry(hash, thisCommit));
+            hash = nextChange(thisCommit.getPrevCommitID(), filename, filters);
         }
-        return mods;
+        out.flush();
     }
 
-    public void merge(String givenBranch) throws IOException {
-        if (!Utils.plainFilenamesIn(_addStaging).isEmpty()
-                || !_rmvList.isEmpty()) {
-            System.out.println("You have uncommitted changes.");
-            return;
-        } else if (!_branches.containsKey(givenBranch)) {
-            System.out.println("A branch with that name does not exist.");
-            return;
-        } else if (givenBranch.equals(_currentBranch)) {
-            System.out.println("Cannot merge a branch with itself.");
+    /**
+     * Prints each line of a file as of the current commit, prefixed with the
+     * commit that last changed it. Walks back through the commits that
+     * changed the file, passing blame for the lines that an older version
+     * also has on to that version, and stops as soon as every line has an
+     * owner.
+     * @param filename the file to annotate.
+     */
+    public void blame(String filename) {
+        String blobId = Tree.lookup(readCommit(_head).getTree(), filename);
+        if (blobId == null) {
+            System.out.println("File does not exist in that commit.");
             return;
         }
-        Commit currentCommit = Utils.readObject(Utils.join(_commitDump,
-                _head), Commit.class);
-        Commit mergeWith = Utils.readObject(Utils.join(_commitDump,
-                _branches.get(givenBranch)), Commit.class);
-        Commit split = commonCommit(currentCommit, mergeWith);
-        if (checkUntracked(mergeWith)) {
+        HashMap<String, ChangedPaths.Entry> filters =
+                new ChangedPaths(Main.getGitletDir()).load();
+        String contents = blobContents(blobId);
+        if (contents == null) {
+            System.out.println("File is too large to blame.");
             return;
         }
-        assert split != null;
-        if (Utils.sha1(Utils.serialize(split)).equals(_head)) {
-            checkoutBranch(givenBranch);
-            System.out.println("Current branch fast-forwarded.");
-        } else if (Utils.sha1(Utils.serialize(split)).equals(
-                Utils.sha1(Utils.serialize(mergeWith)))) {
-            System.out.println("Given branch is an ancestor of the"
-                    + " current branch.");
-        } else {
-            Set<String> fileNameSet = new TreeSet<>();
-            fileNameSet.addAll(currentCommit.getBlobMap().keySet());
-            fileNameSet.addAll(mergeWith.getBlobMap().keySet());
-            fileNameSet.addAll(split.getBlobMap().keySet());
-            TreeMap<String, String> mergeBlob = mergeRes(fileNameSet,
-                    currentCommit, mergeWith, split);
-            commit("", new ArrayList<String>(), givenBranch,
-                    mergeBlob, false, true);
-            loadCommit(_head, true);
+        Blame blame = new Blame(Utils.join(Main.getGitletDir(), "diffCache"),
+                blobId, contents);
+        String hash = nextChange(_head, filename, filters);
+        while (hash != null && !blame.done()) {
+            String parent = readCommit(hash).getPrevCommitID();
+            String parentBlob = parent == null ? null
+                    : Tree.lookup(readCommit(parent).getTree(), filename);
+            String parentContents = parentBlob == null ? null
+                    : blobContents(parentBlob);
+            if (parentBlob != null && parentContents == null) {
+                System.out.println("File is too large to blame.");
+                return;
+            }
+            blame.step(hash, parentBlob, parentContents);
+            hash = nextChange(parent, filename, filters);
+        }
+        List<String> lines = blame.getLines();
+        String[] owners = blame.getOwners();
+        PrintWriter out = Utils.output();
+        for (int i = 0; i < lines.size(); i += 1) {
+            out.printf("%s %d) %s\n", owners[i], i + 1, lines.get(i));
         }
+        out.flush();
     }
 
-    private TreeMap<String, String> mergeRes(Set<String> fileNameSet,
-                                             Commit thisCommit,
-                                             Commit mergeWith, Commit split)
-            throws IOException {
-        TreeMap<String, String> mergedBlob = new TreeMap<>();
-        for (String i : fileNameSet) {
-            if (thisCommit.getBlobMap().containsKey(i)
-                    && mergeWith.getBlobMap().containsKey(i)
-                    && split.getBlobMap().containsKey(i)) {
-                if (thisCommit.getBlobMap().get(i).equals(
-                        mergeWith.getBlobMap().get(i))) {
-                    mergedBlob.put(i, split.getBlobMap().get(i));
-                } else if (split.getBlobMap().get(i).equals(
-                        thisCommit.getBlobMap().get(i))) {
-                    mergedBlob.put(i, mergeWith.getBlobMap().get(i));
-                } else if (split.getBlobMap().get(i).equals(
-                        mergeWith.getBlobMap().get(i))) {
-                    mergedBlob.put(i, thisCommit.getBlobMap().get(i));
-                } else {
-                    mergedBlob.put(i, mergeConflictAction(split, thisCommit,
-                            mergeWith, i, "general"));
-                }
-                continue;
+    /**
+     * Prints the lines matching a regular expression in the files of some
+     * commits, each as "COMMIT:FILE:LINE", or "FILE:LINE" when searching the
+     * current commit only. Every distinct blob is searched once, however
+     * many files and commits share it.
+     * @param regex the regular expression.
+     * @param revs the branches or commit ids to search, or none for the
+     *             current commit.
+     */
+    public void grep(String regex, List<String> revs) {
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex);
+        } catch (PatternSyntaxException excp) {
+            System.out.println("Invalid regular expression.");
+            return;
+        }
+        List<Commit> commits = new ArrayList<>();
+        for (String rev : revs.isEmpty() ? List.of(_head) : revs) {
+            Commit commit = resolve(rev);
+            if (commit == null) {
+                System.out.println("No commit with that id exists.");
+                return;
             }
-            String conflict = mergeConflictCheck(split, thisCommit,
-                    mergeWith, i);
-            if (!conflict.equals("")) {
-                mergedBlob.put(i, conflict);
-            } else if (!split.getBlobMap().containsKey(i)
-                    && mergeWith.getBlobMap().containsKey(i)
-                    && !thisCommit.getBlobMap().containsKey(i)) {
-                mergedBlob.put(i, mergeWith.getBlobMap().get(i));
-            } else if (!split.getBlobMap().containsKey(i)
-                    && !mergeWith.getBlobMap().containsKey(i)
-                    && thisCommit.getBlobMap().containsKey(i)) {
-                mergedBlob.put(i, thisCommit.getBlobMap().get(i));
+            commits.add(commit);
+        }
+        List<String> names = new ArrayList<>();
+        List<String> blobs = new ArrayList<>();
+        for (int i = 0; i < commits.size(); i += 1) {
+            String prefix = revs.isEmpty() ? "" : revs.get(i) + ":";
+            for (Map.Entry<String, String> file
+                    : commits.get(i).getBlobMap().entrySet()) {
+                names.add(prefix + file.getKey());
+                blobs.add(file.getValue());
             }
         }
-        return mergedBlob;
+        Grep grep = new Grep(Main.getGitletDir(), pattern);
+        PrintWriter out = Utils.output();
+        grep.search(names, blobs, out);
+        out.flush();
+        if (grep.indexChanged()) {
+            Main.saveDerived(grep::saveIndex);
+        }
     }
 
-    private String mergeConflictCheck(Commit split, Commit thisCommit,
-                                      Commit mergeWith, String key)
+    /**
+     * Writes the files of a commit to an archive, straight from the blob
+     * store and without touching the working directory.
+     * @param rev the branch or commit id to archive.
+     * @param format the archive format, "tar" or "zip".
+     * @param output the archive file.
+     */
+    public void archive(String rev, String format, String output)
             throws IOException {
-        TreeMap<String, String> splitMap = split.getBlobMap();
-        TreeMap<String, String> currentMap = thisCommit.getBlobMap();
-        TreeMap<String, String> mergeMap = mergeWith.getBlobMap();
-        if (splitMap.containsKey(key)) {
-            if (mergeMap.containsKey(key)
-                    && thisCommit.getRmvList().contains(key)
-                    && !splitMap.get(key).equals(mergeMap.get(key))) {
-                return mergeConflictAction(split, thisCommit, mergeWith, key,
-                        "first missing");
-            } else if (currentMap.containsKey(key)
-                    && mergeWith.getRmvList().contains(key)
-                    && !splitMap.get(key).equals(currentMap.get(key))) {
-                return mergeConflictAction(split, thisCommit, mergeWith, key,
-                        "second missing");
-            }
-        }
-        if (currentMap.containsKey(key) && mergeMap.containsKey(key)
-                && !currentMap.get(key).equals(mergeMap.get(key))) {
-            return mergeConflictAction(split, thisCommit, mergeWith, key,
-                    "general");
-        }
-        if (!mergeMap.containsKey(key) && currentMap.containsKey(key)
-                && splitMap.containsKey(key) && !splitMap.get(key).equals(
-                        currentMap.get(key))) {
-            return mergeConflictAction(split, thisCommit, mergeWith, key,
-                    "second missing");
-        }
-        if (!currentMap.containsKey(key) && mergeMap.containsKey(key)
-                && splitMap.containsKey(key) && !splitMap.get(key).
-                equals(mergeMap.get(key))) {
-            return mergeConflictAction(split, thisCommit, mergeWith,
-                    key, "first missing");
-        }
-        return "";
-    }
-
-    private String mergeConflictAction(Commit split, Commit thisCommit,
-                                        Commit mergeWith, String key,
-                                        String type) throws IOException {
-        File temp = new File(Main.getRepositoryDir(), ".gitlet/temp.txt");
-        File temp2 = new File(Main.getRepositoryDir(),
-                ".gitlet/temp2.txt");
-        temp.createNewFile();
-        String conflict = "";
-        if (type.equals("general")) {
-            Blob givenBlob = Utils.readObject(Utils.join(_blobDump,
-                    mergeWith.getBlobMap().get(key)), Blob.class);
-            Utils.writeContents(temp2, givenBlob.getBlob());
-            conflict = "<<<<<<< HEAD\n"
-                    + Utils.readContentsAsString(Utils.join(
-                            Main.getRepositoryDir(), key))
-                    + "=======\n"
-                    + Utils.readContentsAsString(temp2)
-                    + ">>>>>>>\n";
-        } else if (type.equals("first missing")) {
-            Blob givenBlob = Utils.readObject(Utils.join(_blobDump,
-                    mergeWith.getBlobMap().get(key)), Blob.class);
-            Utils.writeContents(temp, givenBlob.getBlob());
-            conflict = "<<<<<<< HEAD\n"
-                    + "=======\n"
-                    + Utils.readContentsAsString(temp)
-                    + ">>>>>>>\n";
-        } else if (type.equals("second missing")) {
-            conflict = "<<<<<<< HEAD\n"
-                    + Utils.readContentsAsString(Utils.join(
-                            Main.getRepositoryDir(), key))
-                    + "=======\n"
-                    + ">>>>>>>\n";
-        }
-        Utils.writeContents(temp, conflict);
-        Blob conflictBlob = new Blob(temp, key);
-        Utils.writeObject(Utils.join(_blobDump, conflictBlob.getHash()),
-                conflictBlob);
-        System.out.println("Encountered a merge conflict.");
-        temp.delete();
-        temp2.delete();
-        return conflictBlob.getHash();
-    }
-
-    /**
-     * Checks if one branch has a removed file, and the other one has a
-     * changed file.
-     * @param split splitting point
-     * @param thisCommit main branch
-     * @param mergeWith merging branch
-     * @param key file hash
-     * @return true if merge conflict, false if not.
-     */
-    private Boolean mergeRemoveCheck(Commit split, Commit thisCommit,
-                                     Commit mergeWith, String key) {
-        if (split.getBlobMap().containsKey(key)) {
-            if (mergeWith.getBlobMap().containsKey(key)
-                    && thisCommit.getRmvList().contains(key)
-                    && !split.getBlobMap().get(key).equals(
-                            mergeWith.getBlobMap().get(key))) {
-                return true;
-            } else if ((thisCommit.getBlobMap().containsKey(key)
-                    && mergeWith.getRmvList().contains(key)
-                    && !split.getBlobMap().get(key).equals(
-                            thisCommit.getBlobMap().get(key)))) {
-                return true;
+        Commit commit = resolve(rev);
+        if (commit == null) {
+            System.out.println("No commit with that id exists.");
+        } else if (!Archive.FORMATS.contains(format)) {
+            System.out.println("Unknown archive format.");
+        } else {
+            long time = commit.getDate().toEpochSecond();
+            try (OutputStream out = new BufferedOutputStream(
+                    new FileOutputStream(output))) {
+                new Archive(_blobDump, time).write(commit.getBlobMap(),
+                        format, out);
             }
         }
-        return false;
     }
+
     /**
-     * Helper function that finds the first common commit between two commits.
-     * @param com1 commit 1 that you want to compare
-     * @param com2 commit 2 that you want to compare
-     * @return common commit. Null if there is no common commit.
+     * Writes the history of every branch to the standard output as a git
+     * fast-import stream (see FastExport).
      */
-    public Commit commonCommit(Commit com1, Commit com2) {
-        ArrayList<String> commitCodes1 = new ArrayList<>();
-        LinkedList<String> searchQ = new LinkedList<>();
-        String hash;
-        commitCodes1.add(Utils.sha1(Utils.serialize(com1)));
-        searchQ.add(com1.getPrevCommitID());
-        if (com1.getMergeParent() != null) {
-            searchQ.add(com1.getMergeParent());
+    public void fastExport() throws IOException {
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        new FastExport(Main.getGitletDir(), out).write(_branches);
+    }
+
+    /**
+     * Reads a git fast-import stream (see FastImport), storing all its
+     * objects in one pack, then moves the branches it names. If the current
+     * branch moves, its new head is checked out, as by checkout of a
+     * branch. Nothing changes if the stream is bad, or if it would move a
+     * branch checked out in another worktree or overwrite an untracked file.
+     * @param input the file holding the stream, or null for the standard
+     *              input.
+     */
+    public void fastImport(String input) throws IOException {
+        if (bisecting()) {
+            return;
         }
-        while (!searchQ.isEmpty()) {
-            hash = searchQ.poll();
-            com1 = Utils.readObject(new File(_commitDump, hash),
-                    Commit.class);
-            if (com1.getPrevCommitID() != null) {
-                searchQ.add(com1.getPrevCommitID());
-            }
-            if (com1.getMergeParent() != null) {
-                searchQ.add(com1.getMergeParent());
-            }
-            commitCodes1.add(hash);
+        if (input != null && !new File(input).isFile()) {
+            System.out.println("File does not exist.");
+            return;
         }
-
-        searchQ.add(Utils.sha1(Utils.serialize(com2)));
-        if (com2.getMergeParent() != null) {
-            searchQ.add(com2.getMergeParent());
+        String initial = _head;
+        while (readCommit(initial).getPrevCommitID() != null) {
+            initial = readCommit(initial).getPrevCommitID();
         }
-        while (!searchQ.isEmpty()) {
-            hash = searchQ.poll();
-            if (commitCodes1.contains(hash)) {
-                String secondHash = searchQ.poll();
-                if (commitCodes1.contains(secondHash)
-                        && commitCodes1.indexOf(hash) > commitCodes1.indexOf(
-                            secondHash)) {
-                    return Utils.readObject(Utils.join(_commitDump,
-                                secondHash), Commit.class);
+        Pack.Writer batch = new Pack.Writer(Main.getGitletDir());
+        TreeMap<String, String> heads;
+        FastImport importer = null;
+        ObjectStore.startBatch(batch);
+        try (InputStream in = input == null ? System.in
+                : new FileInputStream(input)) {
+            importer = new FastImport(Main.getGitletDir(), in, initial,
+                    _branches);
+            heads = importer.read();
+            String head = heads.getOrDefault(_currentBranch, _head);
+            for (String branch : heads.keySet()) {
+                if (checkedOutElsewhere(branch) != null) {
+                    System.out.println("That branch is already checked out at "
+                            + checkedOutElsewhere(branch) + ".");
+                    heads = null;
+                    break;
                 }
-                return Utils.readObject(Utils.join(_commitDump, hash),
-                        Commit.class);
-            }
-            com2 = Utils.readObject(new File(_commitDump, hash),
-                    Commit.class);
-            if (com2.getPrevCommitID() != null) {
-                searchQ.add(com2.getPrevCommitID());
             }
-            if (com2.getMergeParent() != null) {
-                searchQ.add(com2.getMergeParent());
+            if (heads != null && !head.equals(_head)
+                    && checkUntracked(readCommit(head))) {
+                heads = null;
             }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            heads = null;
+        } finally {
+            ObjectStore.endBatch();
         }
-        return null;
-    }
-
-    /** Loads in a previous commit from it's commit ID. Clears tracked files,
-     * overwrites new files. Clears staging area.
-     * @param loadIn the commit that is loaded in.
-     * @param merge if this load is a merge or not.
-     * @return returns the commit loadIn refers to.
-     **/
-    private Commit loadCommit(String loadIn, Boolean merge) {
-        Commit newCommit = null;
-        if (Utils.join(_commitDump, loadIn).exists()) {
-            newCommit = Utils.readObject(Utils.join(_commitDump, loadIn),
-                    Commit.class);
-        } else {
-            newCommit = abbrevHash(loadIn);
+        if (heads == null) {
+            batch.abort();
+            return;
         }
-        if (newCommit != null) {
-            Commit thisCommit = Utils.readObject(Utils.join(_commitDump, _head),
-                    Commit.class);
-            if (merge) {
-                clearDir(Main.getRepositoryDir());
-            } else {
-                for (String i : thisCommit.getBlobMap().keySet()) {
-                    Utils.join(Main.getRepositoryDir(), i).delete();
-                }
-            }
-
-            for (String i : newCommit.getBlobMap().keySet()) {
-                Blob thisBlob = Utils.readObject(Utils.join(_blobDump,
-                        newCommit.getBlobMap().get(i)), Blob.class);
-                Utils.writeContents(Utils.join(Main.getRepositoryDir(), i),
-                        thisBlob.getBlob());
-            }
+        batch.finish();
+        importer.recordChangedPaths();
+        _branches.putAll(heads);
+        String head = _branches.get(_currentBranch);
+        if (!head.equals(_head)) {
+            loadCommit(_head, head);
+            _head = head;
+            clearStaging();
+            _rmvList.clear();
         }
-        return newCommit;
     }
 
     /**
-     * Checks if there are any untracked files that will be overwritten.
-     * @param com1 commit that is being loaded in
-     * @return false if there is, true if there isn't
+     * Runs the repository's housekeeping: packs loose objects, merges packs,
+     * stores reachability bitmaps of the branch heads, and prunes leftover
+     * temporary and staged files (see Maintenance).
+     * @param auto whether this is an automatic run, which only does what is
+     *             past its thresholds, within a short time budget, and
+     *             whose failures are ignored, leaving the repository as the
+     *             tasks that finished left it.
      */
-    private Boolean checkUntracked(Commit com1) {
-        for (String i : Utils.plainFilenamesIn(Main.getRepositoryDir())) {
-            Blob thisBlob = new Blob(Utils.join(Main.getRepositoryDir(), i),
-                    i);
-            Commit currentCommit = Utils.readObject(Utils.join(_commitDump,
-                    _head), Commit.class);
-            if (!currentCommit.getBlobMap().containsValue(thisBlob.getHash())
-                    && !Utils.join(_addStaging, thisBlob.getHash()).exists()
-                    && com1.getBlobMap().containsKey(i)) {
-                System.out.println("There is an untracked file in the way; "
-                        + "delete it, or add and commit it first.");
-                return true;
+    public void maintenance(boolean auto) {
+        try {
+            new Maintenance(Main.getGitletDir(), auto).run(
+                    _branches.values(), _addStaging, _staged.values());
+        } catch (RuntimeException excp) {
+            if (!auto) {
+                throw excp;
             }
         }
-        return false;
     }
 
-    public ArrayList<String> getRmvList() {
-        return _rmvList;
+    /**
+     * Turns on the trigram index that lets grep skip blobs without reading
+     * them, and indexes every file of the branch heads (see Grep).
+     */
+    public void grepIndex() {
+        Set<String> blobs = new HashSet<>();
+        Set<String> trees = new HashSet<>();
+        for (String tip : new HashSet<>(_branches.values())) {
+            Tree.blobs(readCommit(tip).getTree(), trees, blobs);
+        }
+        Grep.build(Main.getGitletDir(), blobs);
     }
 
-    /** Hash of the current head of the repository. **/
-    private String _head = null;
-
-    /** A treemap of all the branches that were created, and the commit hash
-     * that they point to currently.
+    /**
+     * Prints the commits reachable from one commit but not from another,
+     * newest first, or only how many there are. Answered from reachability
+     * bitmaps (see Reachability), by set difference.
+     * @param range "A..B" for the commits reachable from B but not from A,
+     *              or "B" for all the commits reachable from B.
+     * @param count whether to print only the number of commits.
      */
-    private TreeMap<String, String> _branches = new TreeMap<>();
-
-    /** The name of the current branch. **/
-    private String _currentBranch;
-
-    /** File location for the commitDump. **/
-    private File _commitDump;
+    public void revList(String range, boolean count) {
+        int dots = range.indexOf("..");
+        Commit from = resolve(dots < 0 ? range : range.substring(dots + 2));
+        Commit exclude = dots < 0 ? null : resolve(range.substring(0, dots));
+        if (from == null || dots >= 0 && exclude == null) {
+            System.out.println("No commit with that id exists.");
+            return;
+        }
+        Reachability bitmaps = new Reachability(Main.getGitletDir());
+        BitSet result = bitmaps.reachable(Utils.sha1(Utils.serialize(from)));
+        if (exclude != null) {
+            result.andNot(bitmaps.reachable(
+                    Utils.sha1(Utils.serialize(exclude))));
+        }
+        if (count) {
+            System.out.println(result.cardinality());
+            return;
+        }
+        for (int i = result.previousSetBit(result.length()); i >= 0;
+             i = result.previousSetBit(i - 1)) {
+            System.out.println(bitmaps.id(i));
+        }
+    }
+
+    /**
+     * Runs a bisect subcommand: "start", "good", "bad" or "skip" (each
+     * optionally naming a commit, the current one by default), or "reset".
+     * After each mark, checks out the next commit to test, rewriting only
+     * the files that differ from the current one. "reset" checks out the
+     * current head of the branch the bisection started on. Until then,
+     * commands that would move that branch are refused (see bisecting).
+     * "run" is a sequence of commands of its own (see Main.bisectRun).
+     * @param command the subcommand.
+     * @param arg its operand, or null.
+     */
+    public void bisect(String command, String arg) throws IOException {
+        Bisect bisect = Bisect.load(Main.getStateDir());
+        if (command.equals("start") && arg == null) {
+            if (bisect != null) {
+                System.out.println("A bisection is already in progress.");
+            } else if (!_staged.isEmpty() || !_rmvList.isEmpty()) {
+                System.out.println("You have uncommitted changes.");
+            } else {
+                new Bisect(_head, _currentBranch).save(Main.getStateDir());
+            }
+        } else if (bisect == null) {
+            System.out.println("Not bisecting.");
+        } else if (command.equals("reset") && arg == null) {
+            String tip = _branches.get(bisect.getStartBranch());
+            if (!checkUntracked(readCommit(tip))) {
+                loadCommit(_head, tip);
+                _head = tip;
+                _currentBranch = bisect.getStartBranch();
+                Bisect.clear(Main.getStateDir());
+            }
+        } else if (Set.of("good", "bad", "skip").contains(command)) {
+            Commit commit = resolve(arg == null ? _head : arg);
+            if (commit == null) {
+                System.out.println("No commit with that id exists.");
+                return;
+            }
+            bisectMark(bisect, command,
+                    Utils.sha1(Utils.serialize(commit)));
+            bisectStep(bisect);
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Refuses a command that would move the current branch, or check out
+     * a commit other than the one being tested, while a bisection is in
+     * progress: the head is then detached at that commit, and the branch
+     * is only checked out again by "bisect reset".
+     * @return true if a bisection is in progress.
+     */
+    private boolean bisecting() {
+        if (Bisect.load(Main.getStateDir()) == null) {
+            return false;
+        }
+        System.out.println("A bisection is in progress; run bisect reset "
+                + "first.");
+        return true;
+    }
+
+    /**
+     * Checks that "bisect run" can test the commit checked out: that a
+     * bisection is in progress with both a good and a bad commit.
+     * @return true iff it can.
+     */
+    public boolean bisectReady() {
+        Bisect bisect = Bisect.load(Main.getStateDir());
+        if (bisect == null) {
+            System.out.println("Not bisecting.");
+            return false;
+        } else if (!bisect.ready()) {
+            System.out.println("Waiting for both good and bad commits.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Marks the commit checked out by the exit status of a "bisect run"
+     * script, 0 being good, 125 untestable and anything else bad, then
+     * checks out the next commit to test.
+     * @param status the exit status, below 128.
+     * @return true iff there is another commit to test.
+     */
+    public boolean bisectResult(int status) {
+        Bisect bisect = Bisect.load(Main.getStateDir());
+        if (bisect == null) {
+            System.out.println("Not bisecting.");
+            return false;
+        }
+        bisectMark(bisect, status == 0 ? "good"
+                : status == 125 ? "skip" : "bad", _head);
+        return !bisectStep(bisect);
+    }
+
+    /**
+     * Marks a commit in a bisection.
+     * @param bisect the bisection.
+     * @param mark "good", "bad" or "skip".
+     * @param id the commit.
+     */
+    private void bisectMark(Bisect bisect, String mark, String id) {
+        if (mark.equals("good")) {
+            bisect.markGood(id);
+        } else if (mark.equals("bad")) {
+            bisect.markBad(id);
+        } else {
+            bisect.markSkipped(id);
+        }
+    }
+
+    /**
+     * Saves a bisection, then reports the first bad commit if it is known,
+     * or else checks out the next commit to test.
+     * @param bisect the bisection.
+     * @return true if there is nothing more to test.
+     */
+    private boolean bisectStep(Bisect bisect) {
+        if (!bisect.ready()) {
+            bisect.save(Main.getStateDir());
+            System.out.println("Waiting for both good and bad commits.");
+            return true;
+        }
+        String next = bisect.next();
+        bisect.save(Main.getStateDir());
+        String first = bisect.firstBad();
+        if (first != null) {
+            System.out.println(first + " is the first bad commit");
+            System.out.print(logEntry(first, readCommit(first)));
+            return true;
+        } else if (next == null) {
+            System.out.println("There are only 'skip'ped commits left to "
+                    + "test.\nThe first bad commit could be any of:");
+            for (String id : bisect.onlySkipped()) {
+                System.out.println(id);
+            }
+            return true;
+        }
+        Commit commit = readCommit(next);
+        if (checkUntracked(commit)) {
+            return true;
+        }
+        loadCommit(_head, next);
+        _head = next;
+        int left = bisect.remaining() / 2;
+        System.out.printf("Bisecting: %d revisions left to test after this "
+                + "(roughly %d steps)%n[%s] %s%n", left,
+                32 - Integer.numberOfLeadingZeros(left), next,
+                commit.getCommitMessage());
+        return false;
+    }
+
+    /**
+     * Finds the commit named by a branch, a (possibly abbreviated) commit
+     * id, or a reflog entry (see reflogLookup).
+     * @param rev the branch, commit id or reflog entry.
+     * @return the commit, or null if there is none.
+     */
+    private Commit resolve(String rev) {
+        if (rev.contains("@{")) {
+            rev = reflogLookup(rev);
+            if (rev == null) {
+                return null;
+            }
+        }
+        if (_branches.containsKey(rev)) {
+            rev = _branches.get(rev);
+        }
+        if (rev.length() == Utils.UID_LENGTH
+                && ObjectStore.exists(_commitDump, rev)) {
+            return readCommit(rev);
+        }
+        if (rev.length() < 8) {
+            return null;
+        }
+        Commit commit = abbrevHash(rev.substring(0, 8));
+        if (commit == null
+                || !Utils.sha1(Utils.serialize(commit)).startsWith(rev)) {
+            return null;
+        }
+        return commit;
+    }
+
+    /**
+     * Returns the contents of a stored blob as a string, unless it is too
+     * large to hold whole (see Blame.MAX_SIZE).
+     * @param blobId the blob's hash.
+     * @return the blob's contents, or null if it is too large.
+     */
+    private String blobContents(String blobId) {
+        Blob blob = ObjectStore.read(_blobDump, blobId, Blob.class);
+        return blob.size() > Blame.MAX_SIZE ? null
+                : new String(blob.getBlob(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Finds the first commit, following first parents from a given one, that
+     * changed a file relative to its own first parent. Commits whose
+     * changed-path filter rules the file out are passed over unread, unless
+     * the parent their record names is not a stored commit.
+     * @param hash the commit to start from (null for none).
+     * @param filename the file.
+     * @param filters the changed-path filters of the repository.
+     * @return the commit found, or null if there is none.
+     */
+    private String nextChange(String hash, String filename,
+                              HashMap<String, ChangedPaths.Entry> filters) {
+        while (hash != null) {
+            ChangedPaths.Entry entry = filters.get(hash);
+            if (entry != null && !entry.mightHaveChanged(filename)
+                    && (entry.getParent() == null || ObjectStore.exists(
+                            _commitDump, entry.getParent()))) {
+                hash = entry.getParent();
+                continue;
+            }
+            Commit thisCommit = readCommit(hash);
+            String parent = thisCommit.getPrevCommitID();
+            String before = parent == null ? null : Tree.lookup(
+                    readCommit(parent).getTree(), filename);
+            String after = Tree.lookup(thisCommit.getTree(), filename);
+            if (before == null ? after != null : !before.equals(after)) {
+                return hash;
+            }
+            hash = parent;
+        }
+        return null;
+    }
+
+    /**
+     * Formats one commit for log.
+     * @param hash the commit's hash.
+     * @param thisCommit the commit.
+     * @return the log entry.
+     */
+    private String logEntry(String hash, Commit thisCommit) {
+        if (thisCommit.getMergeParent() != null) {
+            String temp = thisCommit.getPrevCommitID().substring(0, 7) + " "
+                    + thisCommit.getMergeParent().substring(0, 7);
+            return String.format("===\ncommit %s\nMerge: %s\nDate:"
+                            + " %s\n%s\n\n",
+                    hash, temp, thisCommit.getTime(),
+                    thisCommit.getCommitMessage());
+        }
+        return String.format("===\ncommit %s\nDate: %s\n%s\n\n",
+                hash, thisCommit.getTime(), thisCommit.getCommitMessage());
+    }
+
+    /**
+     * Displays all commits every made. Not necessarily in order.
+     */
+    public void globalLog() {
+        globalLog(Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Prints every commit, in the order they are stored, as it is read,
+     * stopping early at a limit.
+     * @param count most commits to print.
+     * @param since if not null, skip commits made before it.
+     */
+    public void globalLog(int count, ZonedDateTime since) {
+        PrintWriter out = Utils.output();
+        Iterator<String> hashes = ObjectStore.list(_commitDump).iterator();
+        for (int i = 0; hashes.hasNext() && i < count; ) {
+            String hash = hashes.next();
+            Commit thisCommit = readCommit(hash);
+            if (since == null || !thisCommit.getDate().isBefore(since)) {
+                out.printf("===\ncommit %s\nDate: %s\n%s\n\n\n", hash,
+                        thisCommit.getTime(), thisCommit.getCommitMessage());
+                i += 1;
+            }
+        }
+        out.flush();
+    }
+
+    public void find(String message) {
+        PrintWriter out = Utils.output();
+        boolean found = false;
+        Commit thisCommit;
+        for (String i : ObjectStore.list(_commitDump)) {
+            thisCommit = readCommit(i);
+            if (thisCommit.getCommitMessage().equals(message)) {
+                out.println(i);
+                found = true;
+            }
+        }
+        if (!found) {
+            out.println("Found no commit with that message.");
+        } else {
+            out.println();
+        }
+        out.flush();
+    }
+    /**
+     * Prints branches by iterating through _branches. Prints staged files by
+     * iterating through addStaging folder. Prints removed files by iterating
+     * through remove list. Prints the last two using helper function.
+     */
+    public void status() {
+        PrintWriter out = Utils.output();
+        out.print("=== Branches ===\n");
+        for (String branches : _branches.keySet()) {
+            if (branches.equals(_currentBranch)) {
+                out.print("*" + branches + "\n");
+            } else {
+                out.print(branches + "\n");
+            }
+        }
+
+        out.print("\n=== Staged Files ===\n");
+        TreeMap<String, String> renamedFrom = stagedRenames();
+        for (String name : _staged.keySet()) {
+            out.print(name);
+            if (renamedFrom.containsKey(name)) {
+                out.print(" (renamed from " + renamedFrom.get(name) + ")");
+            }
+            out.print("\n");
+        }
+
+        out.print("\n=== Removed Files ===\n");
+        for (String name : _rmvList) {
+            out.print(name + "\n");
+        }
+
+        List<LinkedList<String>> mods = checkMod();
+        out.print("\n=== Modifications Not Staged For Commit ===\n");
+        for (String i : mods.get(0)) {
+            out.print(i + "\n");
+        }
+        out.print("\n=== Untracked Files ===\n");
+        for (String i : mods.get(1)) {
+            out.print(i + "\n");
+        }
+
+        out.print("\n");
+        out.flush();
+    }
+
+    /**
+     * Finds the files staged for addition that are renames of files staged
+     * for removal.
+     * @return each such staged file, mapped to the file it was renamed from.
+     */
+    private TreeMap<String, String> stagedRenames() {
+        TreeMap<String, String> result = new TreeMap<>();
+        if (_staged.isEmpty() || _rmvList.isEmpty()) {
+            return result;
+        }
+        Commit thisCommit = readCommit(_head);
+        TreeMap<String, String> deleted = new TreeMap<>();
+        for (String name : _rmvList) {
+            String blob = Tree.lookup(thisCommit.getTree(), name);
+            if (blob != null) {
+                deleted.put(name, blob);
+            }
+        }
+        TreeMap<String, String> added = new TreeMap<>();
+        for (String name : _staged.keySet()) {
+            if (Tree.lookup(thisCommit.getTree(), name) == null) {
+                added.put(name, _staged.get(name));
+            }
+        }
+        TreeMap<String, String> renames = new Renames(Main.getGitletDir(),
+                _addStaging).detect(deleted, added);
+        for (String from : renames.keySet()) {
+            result.put(renames.get(from), from);
+        }
+        return result;
+    }
+
+    /**
+     * Helper function for status, which finds modified and untracked files.
+     * @return A size 2 array of linkedLists, first one with modified files,
+     * second with untracked files.
+     */
+    public List<LinkedList<String>> checkMod() {
+        Commit thisCommit = readCommit(_head);
+        List<LinkedList<String>> mods = new ArrayList<LinkedList<String>>();
+        mods.add(new LinkedList<String>());
+        mods.add(new LinkedList<String>());
+        WatchJournal journal = WatchJournal.open(Main.getStateDir());
+        Set<String> candidates = journal == null ? null
+                : journal.candidates();
+        TreeMap<String, String> prevblobMap = new TreeMap<>();
+        for (String path : candidates == null ? sparse().roots()
+                : candidates) {
+            prevblobMap.putAll(Tree.list(thisCommit.getTree(), path));
+        }
+        prevblobMap.keySet().removeIf(name -> !sparse().includes(name));
+        Set<String> dirty = new TreeSet<>();
+
+        for (String blobFilename : prevblobMap.keySet()) {
+            if (!Utils.join(Main.getRepositoryDir(), blobFilename).exists()) {
+                dirty.add(blobFilename);
+                if (!_rmvList.contains(blobFilename)) {
+                    mods.get(0).add(blobFilename + " (deleted)");
+                }
+            } else {
+                File thisFile = Utils.join(
+                        Main.getRepositoryDir(), blobFilename);
+                if (!Blob.hash(thisFile).equals(
+                        prevblobMap.get(blobFilename))) {
+                    dirty.add(blobFilename);
+                    mods.get(0).add(blobFilename + " (modified)");
+                }
+            }
+        }
+        for (String filename : workingFiles(candidates, sparse())) {
+            if (prevblobMap.containsKey(filename)
+                    || candidates != null
+                    && Tree.lookup(thisCommit.getTree(), filename) != null) {
+                continue;
+            }
+            dirty.add(filename);
+            if (!_staged.containsKey(filename)
+                    || !Blob.hash(Utils.join(Main.getRepositoryDir(),
+                            filename)).equals(_staged.get(filename))) {
+                mods.get(1).add(filename);
+            }
+        }
+        if (journal != null) {
+            dirty.addAll(_staged.keySet());
+            dirty.addAll(_rmvList);
+            Main.saveDerived(() -> journal.save(dirty));
+        }
+        return mods;
+    }
+
+    /**
+     * Returns the files and directories in the working directory that may
+     * differ from the current commit, as reported by the watcher, or null if
+     * no watcher is running and every file must be examined.
+     * @return the paths, or null.
+     */
+    private Set<String> watchedCandidates() {
+        WatchJournal journal = WatchJournal.open(Main.getStateDir());
+        return journal == null ? null : journal.candidates();
+    }
+
+    /**
+     * Returns true if the watcher guarantees that a file is the same as in
+     * the current commit, so that it need not be read.
+     * @param filename the file.
+     * @return true if the file is known to be unchanged.
+     */
+    private boolean knownUnchanged(String filename) {
+        Set<String> candidates = watchedCandidates();
+        if (candidates == null) {
+            return false;
+        }
+        for (String path = filename; path != null;
+             path = path.contains("/")
+                     ? path.substring(0, path.lastIndexOf('/')) : null) {
+            if (candidates.contains(path)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the paths of the plain files in the working directory and its
+     * subdirectories, other than .gitlet, that are included in the sparse
+     * checkout, in order. Directories with no included files are not read,
+     * nor are those with a .gitlet of their own (see nested).
+     * @param sparse the sparse-checkout patterns.
+     * @return the file paths.
+     */
+    static List<String> workingFiles(Sparse sparse) {
+        List<String> result = new ArrayList<>();
+        listFiles(Main.getRepositoryDir(), "", sparse, result);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns the paths of the plain files in the working directory that are
+     * among a set of candidates or inside one of the candidate directories,
+     * and are included in the sparse checkout, in order.
+     * @param candidates the paths to consider, or null for all files.
+     * @param sparse the sparse-checkout patterns.
+     * @return the file paths.
+     */
+    private static List<String> workingFiles(Set<String> candidates,
+                                             Sparse sparse) {
+        if (candidates == null) {
+            return workingFiles(sparse);
+        }
+        List<String> result = new ArrayList<>();
+        for (String path : candidates) {
+            File file = Utils.join(Main.getRepositoryDir(), path);
+            if (nested(path) || new File(file, ".gitlet").exists()) {
+                continue;
+            } else if (file.isFile() && sparse.includes(path)) {
+                result.add(path);
+            } else if (file.isDirectory() && sparse.mayContain(path)) {
+                listFiles(file, path + "/", sparse, result);
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Adds the paths of the included plain files under a directory to a
+     * list.
+     * @param dir the directory.
+     * @param prefix the path of the directory, ending in "/", or "" for the
+     *               working directory itself.
+     * @param sparse the sparse-checkout patterns.
+     * @param result the list.
+     */
+    private static void listFiles(File dir, String prefix, Sparse sparse,
+                                  List<String> result) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            File file = new File(dir, name);
+            if (prefix.isEmpty() && name.equals(".gitlet")) {
+                continue;
+            } else if (file.isFile()) {
+                if (sparse.includes(prefix + name)) {
+                    result.add(prefix + name);
+                }
+            } else if (file.isDirectory() && sparse.mayContain(prefix + name)
+                    && !new File(file, ".gitlet").exists()) {
+                listFiles(file, prefix + name + "/", sparse, result);
+            }
+        }
+    }
+
+    public void merge(String givenBranch) throws IOException {
+        if (bisecting()) {
+            return;
+        }
+        if (!_staged.isEmpty() || !_rmvList.isEmpty()) {
+            System.out.println("You have uncommitted changes.");
+            return;
+        } else if (!_branches.containsKey(givenBranch)) {
+            System.out.println("A branch with that name does not exist.");
+            return;
+        } else if (givenBranch.equals(_currentBranch)) {
+            System.out.println("Cannot merge a branch with itself.");
+            return;
+        }
+        Commit currentCommit = readCommit(_head);
+        Commit mergeWith = readCommit(_branches.get(givenBranch));
+        Commit split = commonCommit(currentCommit, mergeWith);
+        if (checkUntracked(mergeWith)) {
+            return;
+        }
+        assert split != null;
+        if (Utils.sha1(Utils.serialize(split)).equals(_head)) {
+            checkoutBranch(givenBranch);
+            System.out.println("Current branch fast-forwarded.");
+        } else if (Utils.sha1(Utils.serialize(split)).equals(
+                Utils.sha1(Utils.serialize(mergeWith)))) {
+            System.out.println("Given branch is an ancestor of the"
+                    + " current branch.");
+        } else {
+            TreeMerge engine = new TreeMerge(Main.getGitletDir(),
+                    _addStaging);
+            String merged = engine.merge(split.getTree(),
+                    currentCommit.getTree(), mergeWith.getTree());
+            if (checkUntracked(currentCommit.getTree(), merged)) {
+                return;
+            }
+            if (!engine.conflicts().isEmpty()) {
+                System.out.println("Encountered a merge conflict.");
+            }
+            commit("", new ArrayList<String>(), givenBranch, merged, false,
+                    true);
+            loadTree(currentCommit.getTree(), merged);
+        }
+    }
+
+    /**
+     * Replays the commits of the current branch that the given branch does
+     * not have on top of it, then moves the current branch to the last one.
+     * Each commit is replayed in memory, as a three-way merge of the files
+     * it changed, from the trees in the object store; the working directory
+     * is only written once, at the end, or at the first conflict. A
+     * conflict stops the rebase with the conflicted files staged, until
+     * "rebase --continue" commits them and goes on, or "rebase --abort"
+     * puts everything back. "rebase --continue" is refused while a
+     * conflicted file is staged with its conflict markers, that is, until
+     * it is resolved and added again, or removed.
+     * @param upstream the given branch, or "--continue" or "--abort".
+     */
+    public void rebase(String upstream) throws IOException {
+        if (bisecting()) {
+            return;
+        }
+        Rebase state = Rebase.load(Main.getStateDir());
+        if (upstream.equals("--continue") || upstream.equals("--abort")) {
+            if (state == null) {
+                System.out.println("No rebase in progress.");
+            } else if (upstream.equals("--abort")) {
+                rebaseAbort(state);
+            } else if (!unresolved(state).isEmpty()) {
+                for (String i : unresolved(state)) {
+                    System.out.println("Resolve the conflict in " + i
+                            + " and add it first.");
+                }
+            } else {
+                if (!_staged.isEmpty() || !_rmvList.isEmpty()) {
+                    commit(readCommit(state.getStopped()).getCommitMessage(),
+                            _rmvList, null, null, false, false);
+                }
+                replay(state, state.getTodo(), _head);
+            }
+        } else if (state != null) {
+            System.out.println("A rebase is already in progress.");
+        } else if (!_staged.isEmpty() || !_rmvList.isEmpty()) {
+            System.out.println("You have uncommitted changes.");
+        } else if (!_branches.containsKey(upstream)) {
+            System.out.println("A branch with that name does not exist.");
+        } else if (upstream.equals(_currentBranch)) {
+            System.out.println("Cannot rebase a branch onto itself.");
+        } else {
+            String onto = _branches.get(upstream);
+            Set<String> based = ancestors(onto);
+            LinkedList<String> todo = toReplay(_head, based);
+            if (based.contains(_head)) {
+                if (!checkUntracked(readCommit(onto))) {
+                    loadCommit(_head, onto);
+                    _head = onto;
+                    _branches.put(_currentBranch, _head);
+                    System.out.println("Current branch fast-forwarded.");
+                }
+            } else if (linearOn(onto, todo)) {
+                System.out.println("Current branch is up to date.");
+            } else {
+                String start = _head;
+                _head = onto;
+                replay(new Rebase(start), todo, start);
+            }
+        }
+    }
+
+    /**
+     * Replays commits, in memory, on top of the head commit, then loads the
+     * result into the working directory and moves the current branch to
+     * it. Stops at the first conflict instead, loading and staging the
+     * conflicted result and saving the rebase.
+     * @param state the rebase.
+     * @param todo the commits to replay, in order.
+     * @param shown the commit whose files are in the working directory.
+     */
+    private void replay(Rebase state, LinkedList<String> todo, String shown)
+            throws IOException {
+        while (!todo.isEmpty()) {
+            String id = todo.poll();
+            Commit commit = readCommit(id);
+            String base = readCommit(commit.getPrevCommitID()).getTree();
+            String ours = readCommit(_head).getTree();
+            TreeMerge engine = new TreeMerge(Main.getGitletDir(),
+                    _addStaging);
+            String tree = engine.merge(base, ours, commit.getTree());
+            boolean conflict = !engine.conflicts().isEmpty();
+            if (conflict) {
+                System.out.println("Encountered a merge conflict.");
+                if (materialize(state, shown, tree)) {
+                    stageChanges(ours, Tree.diff(ours, tree));
+                    state.stop(id, engine.conflicts(), todo);
+                    state.save(Main.getStateDir());
+                }
+                return;
+            } else if (!tree.equals(ours)) {
+                save(new Commit(_head, commit.getCommitMessage(),
+                        _currentBranch, tree));
+            }
+        }
+        if (materialize(state, shown, readCommit(_head).getTree())) {
+            Rebase.clear(Main.getStateDir());
+        }
+    }
+
+    /**
+     * Returns the files of a stopped rebase whose staged versions still
+     * hold the conflict markers the replay wrote.
+     * @param state the rebase.
+     * @return the files, in order.
+     */
+    private List<String> unresolved(Rebase state) {
+        List<String> result = new ArrayList<>();
+        for (String i : state.getConflicts()) {
+            String blob = _staged.get(i);
+            if (blob != null && hasConflictMarkers(Utils.readObject(
+                    new File(_addStaging, blob), Blob.class))) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true iff some line of a blob opens a conflict, as TreeMerge
+     * writes them, and a later one closes it. The blob is read a line at a
+     * time.
+     * @param blob the blob of a file.
+     * @return whether it holds a conflict.
+     */
+    private static boolean hasConflictMarkers(Blob blob) {
+        boolean[] found = {false, false};
+        Blame.lines(blob.open(), line -> {
+            if (line.startsWith("<<<<<<< ")) {
+                found[0] = true;
+            } else if (found[0] && line.startsWith(">>>>>>>")) {
+                found[1] = true;
+            }
+        });
+        return found[1];
+    }
+
+    /**
+     * Loads a tree reached by a rebase into the working directory and moves
+     * the current branch to the head commit. If an untracked file is in the
+     * way, ends the rebase instead, leaving the branch at the commit whose
+     * files are in the working directory.
+     * @param state the rebase.
+     * @param shown the commit whose files are in the working directory.
+     * @param tree the tree to load.
+     * @return true if the tree was loaded.
+     */
+    private boolean materialize(Rebase state, String shown, String tree) {
+        if (checkUntracked(readCommit(shown).getTree(), tree)) {
+            _head = shown;
+            _branches.put(_currentBranch, _head);
+            Rebase.clear(Main.getStateDir());
+            return false;
+        }
+        loadTree(readCommit(shown).getTree(), tree);
+        _branches.put(_currentBranch, _head);
+        return true;
+    }
+
+    /**
+     * Stages the changes a conflicted replay made to a tree, as if each
+     * changed file had been added or removed.
+     * @param tree the tree the changes apply to.
+     * @param changes the files changed, mapped to their new blobs, or to
+     *                null if removed.
+     */
+    private void stageChanges(String tree, TreeMap<String, String> changes) {
+        for (String i : changes.keySet()) {
+            String blob = changes.get(i);
+            if (blob == null && Tree.lookup(tree, i) != null) {
+                _rmvList.add(i);
+            } else if (blob != null && !blob.equals(Tree.lookup(tree, i))) {
+                _staged.put(i, blob);
+                Utils.writeObject(new File(_addStaging, blob),
+                        ObjectStore.read(_blobDump, blob, Blob.class));
+            }
+        }
+    }
+
+    /**
+     * Ends a stopped rebase, putting the branch, the working directory and
+     * the staging area back as they were before it started.
+     * @param state the rebase.
+     */
+    private void rebaseAbort(Rebase state) {
+        TreeMap<String, String> staged = new TreeMap<>(_staged);
+        for (String i : _rmvList) {
+            staged.put(i, null);
+        }
+        loadTree(Tree.update(readCommit(_head).getTree(), staged),
+                readCommit(state.getOrigHead()).getTree());
+        clearStaging();
+        _rmvList.clear();
+        _head = state.getOrigHead();
+        _branches.put(_currentBranch, _head);
+        Rebase.clear(Main.getStateDir());
+    }
+
+    /**
+     * Applies the changes a commit made to its parent on top of the head
+     * commit, as a new commit with the same message.
+     * @param rev the commit, by id or branch name.
+     */
+    public void cherryPick(String rev) {
+        if (bisecting()) {
+            return;
+        }
+        Commit commit = resolve(rev);
+        if (commit == null) {
+            System.out.println("No commit with that id exists.");
+            return;
+        }
+        String parent = commit.getPrevCommitID() == null ? null
+                : readCommit(commit.getPrevCommitID()).getTree();
+        pick(parent, commit.getTree(), commit.getCommitMessage());
+    }
+
+    /**
+     * Undoes the changes a commit made to its parent on top of the head
+     * commit, as a new commit.
+     * @param rev the commit, by id or branch name.
+     */
+    public void revert(String rev) {
+        if (bisecting()) {
+            return;
+        }
+        Commit commit = resolve(rev);
+        if (commit == null) {
+            System.out.println("No commit with that id exists.");
+            return;
+        }
+        String parent = commit.getPrevCommitID() == null ? Tree.empty()
+                : readCommit(commit.getPrevCommitID()).getTree();
+        pick(commit.getTree(), parent, "Revert \""
+                + commit.getCommitMessage() + "\"");
+    }
+
+    /**
+     * Merges the changes from one tree to another into the head commit, in
+     * memory, then loads the result into the working directory and commits
+     * it. On a conflict, stages the conflicted result instead, to be
+     * committed once it is resolved.
+     * @param from the tree the changes start from, or null if empty.
+     * @param to the tree the changes lead to.
+     * @param message message for the new commit.
+     */
+    private void pick(String from, String to, String message) {
+        if (!_staged.isEmpty() || !_rmvList.isEmpty()) {
+            System.out.println("You have uncommitted changes.");
+            return;
+        }
+        String ours = readCommit(_head).getTree();
+        TreeMerge engine = new TreeMerge(Main.getGitletDir(), _addStaging);
+        String tree = engine.merge(from, ours, to);
+        if (tree.equals(ours)) {
+            System.out.println("No changes added to the commit.");
+        } else if (!checkUntracked(ours, tree)) {
+            loadTree(ours, tree);
+            if (engine.conflicts().isEmpty()) {
+                save(new Commit(_head, message, _currentBranch, tree));
+                _branches.put(_currentBranch, _head);
+            } else {
+                stageChanges(ours, Tree.diff(ours, tree));
+                System.out.println("Encountered a merge conflict.");
+            }
+        }
+    }
+
+    /**
+     * Sets aside the uncommitted changes to tracked files (push), brings
+     * them back (pop), lists (list) or forgets (drop) what was set aside.
+     * See Stash.
+     * @param command push, pop, list or drop.
+     * @param index for pop and drop, which entry, 0 being the newest, or
+     *              null for 0.
+     */
+    public void stash(String command, String index) {
+        LinkedList<String> entries = Stash.load(Main.getGitletDir());
+        int n = 0;
+        if (index != null) {
+            try {
+                n = Integer.parseInt(index);
+            } catch (NumberFormatException excp) {
+                n = -1;
+            }
+        }
+        switch (command) {
+        case "push":
+            stashPush(entries);
+            return;
+        case "list":
+            for (int i = 0; i < entries.size(); i += 1) {
+                System.out.println("stash@{" + i + "}: "
+                        + readCommit(entries.get(i)).getCommitMessage());
+            }
+            return;
+        case "pop":
+        case "drop":
+            break;
+        default:
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        if (entries.isEmpty()) {
+            System.out.println("No stash entries found.");
+        } else if (n < 0 || n >= entries.size()) {
+            System.out.println("No stash entry with that index exists.");
+        } else if (command.equals("drop") || stashPop(entries.get(n))) {
+            entries.remove(n);
+            Stash.save(Main.getGitletDir(), entries);
+        }
+    }
+
+    /**
+     * Stores the uncommitted changes to tracked files as a commit on top of
+     * the head commit, adds it to the stash, and puts the working directory
+     * and the staging area back as they are in the head commit. The staging
+     * area is stored too, as a commit on top of the head commit that is the
+     * stashed commit's second parent, so that pop can tell staged changes
+     * from unstaged ones.
+     * @param entries the stash.
+     */
+    private void stashPush(LinkedList<String> entries) {
+        Commit head = readCommit(_head);
+        TreeMap<String, String> changes = localChanges(true);
+        if (changes.isEmpty() && _staged.isEmpty() && _rmvList.isEmpty()) {
+            System.out.println("No local changes to save.");
+            return;
+        }
+        TreeMap<String, String> staged = new TreeMap<>(_staged);
+        for (String i : _rmvList) {
+            staged.put(i, null);
+        }
+        new CommitPipeline(_addStaging, _blobDump, Main.getGitletDir())
+                .store(_staged.values());
+        Commit index = new Commit(_head, null, "index on " + _currentBranch
+                + ": " + head.getCommitMessage(), _currentBranch,
+                Tree.update(head.getTree(), staged), ZonedDateTime.now());
+        String indexId = Utils.sha1(Utils.serialize(index));
+        writeImmutable(ObjectStore.find(_commitDump, indexId), index);
+        String tree = Tree.update(head.getTree(), changes);
+        Commit stashed = new Commit(_head, indexId, "WIP on "
+                + _currentBranch + ": " + head.getCommitMessage(),
+                _currentBranch, tree, ZonedDateTime.now());
+        String id = Utils.sha1(Utils.serialize(stashed));
+        writeImmutable(ObjectStore.find(_commitDump, id), stashed);
+        entries.addFirst(id);
+        Stash.save(Main.getGitletDir(), entries);
+        loadTree(tree, head.getTree());
+        clearStaging();
+        _rmvList.clear();
+    }
+
+    /**
+     * Merges a stashed commit's changes into the working directory, which
+     * must have none of its own, and stages again the changes that were
+     * staged when it was pushed, unless the head commit has since changed
+     * the same files.
+     * @param id the stashed commit.
+     * @return true if the changes applied without a conflict, so that the
+     *         entry can be dropped.
+     */
+    private boolean stashPop(String id) {
+        if (!_staged.isEmpty() || !_rmvList.isEmpty()
+                || !localChanges(false).isEmpty()) {
+            System.out.println("You have uncommitted changes.");
+            return false;
+        }
+        Commit stashed = readCommit(id);
+        String ours = readCommit(_head).getTree();
+        TreeMerge engine = new TreeMerge(Main.getGitletDir(), _addStaging);
+        String base = readCommit(stashed.getPrevCommitID()).getTree();
+        String tree = engine.merge(base, ours, stashed.getTree());
+        if (checkUntracked(ours, tree)) {
+            return false;
+        }
+        loadTree(ours, tree);
+        TreeMap<String, String> changes = Tree.diff(base,
+                readCommit(stashed.getMergeParent()).getTree());
+        changes.keySet().removeIf(i -> !Objects.equals(
+                Tree.lookup(base, i), Tree.lookup(ours, i)));
+        stageChanges(ours, changes);
+        if (!engine.conflicts().isEmpty()) {
+            System.out.println("Encountered a merge conflict.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the changes made in the working directory to the files the
+     * head commit or the staging area tracks, in the form taken by
+     * Tree.update. Only files whose size or modification time changed since
+     * they were last seen are read (see StatCache).
+     * @param store whether to store blobs for the changed files.
+     * @return the files changed, mapped to their blobs, or to null if
+     *         removed.
+     */
+    private TreeMap<String, String> localChanges(boolean store) {
+        String headTree = readCommit(_head).getTree();
+        TreeMap<String, String> tracked = new TreeMap<>();
+        for (String root : sparse().roots()) {
+            tracked.putAll(Tree.list(headTree, root));
+        }
+        tracked.keySet().removeIf(name -> !sparse().includes(name));
+        for (String name : _staged.keySet()) {
+            tracked.putIfAbsent(name, null);
+        }
+        StatCache cache = StatCache.load(Main.getStateDir());
+        TreeMap<String, String> changes = new TreeMap<>();
+        for (String name : tracked.keySet()) {
+            File file = Utils.join(Main.getRepositoryDir(), name);
+            String blob = _rmvList.contains(name) || !file.isFile() ? null
+                    : cache.hash(name, file);
+            if (Objects.equals(blob, tracked.get(name))) {
+                continue;
+            }
+            changes.put(name, blob);
+            if (store && blob != null
+                    && !ObjectStore.exists(_blobDump, blob)) {
+                writeImmutable(ObjectStore.find(_blobDump, blob),
+                        new Blob(file));
+            }
+        }
+        changes.keySet().removeIf(name -> changes.get(name) == null
+                && tracked.get(name) == null);
+        cache.save(Main.getStateDir());
+        return changes;
+    }
+
+    /**
+     * Returns every commit reachable from a commit, itself included.
+     * @param id the commit.
+     * @return the commits.
+     */
+    private Set<String> ancestors(String id) {
+        Set<String> result = new HashSet<>();
+        LinkedList<String> queue = new LinkedList<>();
+        queue.add(id);
+        while (!queue.isEmpty()) {
+            String next = queue.poll();
+            if (next != null && result.add(next)) {
+                Commit commit = readCommit(next);
+                queue.add(commit.getPrevCommitID());
+                queue.add(commit.getMergeParent());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the commits a rebase replays: those reachable from a commit
+     * but not among some others, merge commits left out, each after its
+     * parents.
+     * @param head the commit.
+     * @param based the commits not replayed.
+     * @return the commits, in order.
+     */
+    private LinkedList<String> toReplay(String head, Set<String> based) {
+        LinkedList<String> result = new LinkedList<>();
+        Set<String> seen = new HashSet<>();
+        LinkedList<String> stack = new LinkedList<>();
+        stack.push(head);
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            if (based.contains(id) || seen.contains(id)) {
+                stack.pop();
+                continue;
+            }
+            Commit commit = readCommit(id);
+            boolean ready = true;
+            for (String parent : new String[] {commit.getMergeParent(),
+                commit.getPrevCommitID()}) {
+                if (parent != null && !based.contains(parent)
+                        && !seen.contains(parent)) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                seen.add(id);
+                if (commit.getMergeParent() == null) {
+                    result.add(id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if a list of commits is a chain of single-parent commits
+     * starting on top of a commit and ending at the head, so that replaying
+     * them would change nothing.
+     * @param onto the commit.
+     * @param todo the commits.
+     * @return true if rebasing on onto changes nothing.
+     */
+    private boolean linearOn(String onto, List<String> todo) {
+        String prev = onto;
+        for (String id : todo) {
+            Commit commit = readCommit(id);
+            if (!prev.equals(commit.getPrevCommitID())) {
+                return false;
+            }
+            prev = id;
+        }
+        return prev.equals(_head);
+    }
+
+    /**
+     * Helper function that finds the first common commit between two commits.
+     * @param com1 commit 1 that you want to compare
+     * @param com2 commit 2 that you want to compare
+     * @return common commit. Null if there is no common commit.
+     */
+    public Commit commonCommit(Commit com1, Commit com2) {
+        ArrayList<String> commitCodes1 = new ArrayList<>();
+        LinkedList<String> searchQ = new LinkedList<>();
+        String hash;
+        commitCodes1.add(Utils.sha1(Utils.serialize(com1)));
+        searchQ.add(com1.getPrevCommitID());
+        if (com1.getMergeParent() != null) {
+            searchQ.add(com1.getMergeParent());
+        }
+        while (!searchQ.isEmpty()) {
+            hash = searchQ.poll();
+            com1 = readCommit(hash);
+            if (com1.getPrevCommitID() != null) {
+                searchQ.add(com1.getPrevCommitID());
+            }
+            if (com1.getMergeParent() != null) {
+                searchQ.add(com1.getMergeParent());
+            }
+            commitCodes1.add(hash);
+        }
+
+        searchQ.add(Utils.sha1(Utils.serialize(com2)));
+        if (com2.getMergeParent() != null) {
+            searchQ.add(com2.getMergeParent());
+        }
+        while (!searchQ.isEmpty()) {
+            hash = searchQ.poll();
+            if (commitCodes1.contains(hash)) {
+                String secondHash = searchQ.poll();
+                if (commitCodes1.contains(secondHash)
+                        && commitCodes1.indexOf(hash) > commitCodes1.indexOf(
+                            secondHash)) {
+                    return readCommit(secondHash);
+                }
+                return readCommit(hash);
+            }
+            com2 = readCommit(hash);
+            if (com2.getPrevCommitID() != null) {
+                searchQ.add(com2.getPrevCommitID());
+            }
+            if (com2.getMergeParent() != null) {
+                searchQ.add(com2.getMergeParent());
+            }
+        }
+        return null;
+    }
+
+    /** Loads in a previous commit from it's commit ID, in place of the
+     * commit whose files are in the working directory. Only the files that
+     * differ between the two commits are written or deleted; subdirectories
+     * with the same tree in both are skipped without being read.
+     * @param fromID the commit whose files are in the working directory, or
+     *               null if it is empty.
+     * @param loadIn the commit that is loaded in.
+     * @return returns the commit loadIn refers to.
+     **/
+    private Commit loadCommit(String fromID, String loadIn) {
+        Commit newCommit = null;
+        if (ObjectStore.exists(_commitDump, loadIn)) {
+            newCommit = readCommit(loadIn);
+        } else {
+            newCommit = abbrevHash(loadIn);
+        }
+        if (newCommit != null) {
+            loadTree(fromID == null ? null : readCommit(fromID).getTree(),
+                    newCommit.getTree());
+        }
+        return newCommit;
+    }
+
+    /**
+     * Replaces the files of one tree in the working directory with those of
+     * another, writing and deleting only the files that differ. Files are
+     * deleted before any is written, so that a file may take the place of
+     * a directory the other tree had, or the reverse.
+     * @param fromTree the tree whose files are in the working directory, or
+     *                 null if it is empty.
+     * @param toTree the tree that is loaded in.
+     */
+    private void loadTree(String fromTree, String toTree) {
+        TreeMap<String, String> changes = Tree.diff(fromTree, toTree);
+        changes.keySet().removeIf(i -> !sparse().includes(i));
+        for (String i : changes.keySet()) {
+            File target = Utils.join(Main.getRepositoryDir(), i);
+            if (changes.get(i) == null) {
+                target.delete();
+                removeEmptyParents(target);
+            }
+        }
+        for (String i : changes.keySet()) {
+            File target = Utils.join(Main.getRepositoryDir(), i);
+            if (changes.get(i) != null) {
+                Blob thisBlob = ObjectStore.read(_blobDump, changes.get(i),
+                        Blob.class);
+                target.getParentFile().mkdirs();
+                if (target.isDirectory()) {
+                    target.delete();
+                }
+                thisBlob.writeTo(target);
+            }
+        }
+    }
+
+    /**
+     * Deletes the directories containing a deleted file that are left empty,
+     * up to the working directory.
+     * @param file the deleted file.
+     */
+    private void removeEmptyParents(File file) {
+        File dir = file.getParentFile();
+        while (!dir.equals(Main.getRepositoryDir()) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+
+    /**
+     * Checks if there are any untracked files that will be overwritten. Only
+     * the files that differ between the current commit and com1 are looked
+     * at, since no others are touched.
+     * @param com1 commit that is being loaded in
+     * @return false if there is, true if there isn't
+     */
+    private Boolean checkUntracked(Commit com1) {
+        return checkUntracked(readCommit(_head).getTree(), com1.getTree());
+    }
+
+    /**
+     * Checks if there are any untracked files that loading one tree in
+     * place of another would overwrite, tracked files with changes that are
+     * not staged counting as untracked.
+     * @param fromTree the tree whose files are in the working directory.
+     * @param toTree the tree that would be loaded in.
+     * @return false if there is, true if there isn't
+     */
+    private Boolean checkUntracked(String fromTree, String toTree) {
+        TreeMap<String, String> changes = Tree.diff(fromTree, toTree);
+        for (String i : changes.keySet()) {
+            if (changes.get(i) != null && sparse().includes(i)
+                    && inTheWay(fromTree, i)) {
+                System.out.println("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if writing a file would overwrite an untracked file:
+     * the file itself, a file under it if it is a directory in the working
+     * directory, or a file in place of one of its parent directories.
+     * @param fromTree the tree whose files are in the working directory.
+     * @param path the file.
+     * @return whether an untracked file is in the way.
+     */
+    private boolean inTheWay(String fromTree, String path) {
+        for (int slash = path.indexOf('/'); slash >= 0;
+             slash = path.indexOf('/', slash + 1)) {
+            String parent = path.substring(0, slash);
+            if (Utils.join(Main.getRepositoryDir(), parent).isFile()) {
+                return untracked(fromTree, parent);
+            }
+        }
+        File file = Utils.join(Main.getRepositoryDir(), path);
+        if (file.isDirectory()) {
+            List<String> inside = new ArrayList<>();
+            listFiles(file, path + "/", sparse(), inside);
+            for (String i : inside) {
+                if (untracked(fromTree, i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return file.isFile() && untracked(fromTree, path);
+    }
+
+    /**
+     * Returns true if a file in the working directory is neither as a tree
+     * has it nor as it is staged.
+     * @param tree the tree.
+     * @param path the file.
+     * @return whether the file is untracked.
+     */
+    private boolean untracked(String tree, String path) {
+        String hash = Blob.hash(Utils.join(Main.getRepositoryDir(), path));
+        return !hash.equals(Tree.lookup(tree, path))
+                && !hash.equals(_staged.get(path));
+    }
+
+    /**
+     * Converts a repository from layout 1 to layout 2 (see FORMAT). Every
+     * blob is renamed to the hash of its contents, so files that only
+     * differed by name now share one blob. Since trees name blobs and
+     * commits name trees and each other, all of them are rewritten too, in
+     * an order that converts every commit after the ones it refers to.
+     * Commits that only hold a flat map of files to blobs, as the first
+     * version of Gitlet wrote them, get a tree built from it. Finally the
+     * old objects are deleted, the caches keyed by object hashes are
+     * rebuilt or dropped, and the refs and staging lists, read from
+     * commitTreeFile, are written to their own files. The object folders
+     * are taken to be those of the repository being converted, wherever it
+     * was made.
+     */
+    void migrate() {
+        File gitletFiles = Main.getGitletDir();
+        _blobDump = new File(gitletFiles, "blobDump");
+        _commitDump = new File(gitletFiles, "commitDump");
+        _addStaging = new File(gitletFiles, "addStaging");
+        HashMap<String, String> blobIds = new HashMap<>();
+        for (String name : Utils.plainFilenamesIn(_blobDump)) {
+            Blob blob = new Blob(Utils.readObject(Utils.join(_blobDump, name),
+                    Blob.class).getBlob());
+            blobIds.put(name, blob.getHash());
+            writeImmutable(Utils.join(_blobDump, blob.getHash()), blob);
+        }
+        _staged = new TreeMap<>();
+        for (String name : Utils.plainFilenamesIn(_addStaging)) {
+            _staged.put(Utils.readObject(Utils.join(_addStaging, name),
+                    Blob.class).getName(), name);
+        }
+        TreeMap<String, String> staged = new TreeMap<>();
+        for (String name : _staged.keySet()) {
+            Blob blob = new Blob(Utils.readObject(Utils.join(_addStaging,
+                    _staged.get(name)), Blob.class).getBlob());
+            Utils.writeObject(Utils.join(_addStaging, blob.getHash()), blob);
+            staged.put(name, blob.getHash());
+        }
+        for (String name : _staged.values()) {
+            if (!staged.containsValue(name)) {
+                Utils.join(_addStaging, name).delete();
+            }
+        }
+        _staged = staged;
+
+        HashMap<String, String> treeIds = new HashMap<>();
+        HashMap<String, String> commitIds = new HashMap<>();
+        File changedPaths = Utils.join(Main.getGitletDir(), "changedPaths");
+        changedPaths.delete();
+        ChangedPaths sidecar = new ChangedPaths(Main.getGitletDir());
+        for (String start : Utils.plainFilenamesIn(_commitDump)) {
+            LinkedList<String> stack = new LinkedList<>();
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                String id = stack.peek();
+                if (commitIds.containsKey(id)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit commit = Utils.readObject(Utils.join(_commitDump, id),
+                        Commit.class);
+                List<String> refs = Arrays.asList(commit.getPrevCommitID(),
+                        commit.getMergeParent());
+                boolean ready = true;
+                for (String ref : refs) {
+                    if (ref != null && !commitIds.containsKey(ref)) {
+                        stack.push(ref);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    commit.relink(commit.getTree() != null
+                            ? Tree.rename(commit.getTree(), blobIds, treeIds)
+                            : buildTree(commit.getBlobMap(), blobIds),
+                            commitIds);
+                    String newId = Utils.sha1(Utils.serialize(commit));
+                    writeImmutable(Utils.join(_commitDump, newId), commit);
+                    commitIds.put(id, newId);
+                    String parent = commit.getPrevCommitID();
+                    sidecar.record(newId, parent, Tree.diff(parent == null
+                            ? null : Utils.readObject(Utils.join(_commitDump,
+                                    parent), Commit.class).getTree(),
+                            commit.getTree()).keySet());
+                    stack.pop();
+                }
+            }
+        }
+        _head = commitIds.get(_head);
+        for (String branch : _branches.keySet()) {
+            if (_branches.get(branch) != null) {
+                _branches.put(branch, commitIds.get(_branches.get(branch)));
+            }
+        }
+
+        deleteStale(_blobDump, blobIds);
+        deleteStale(_commitDump, commitIds);
+        deleteStale(Utils.join(Main.getGitletDir(), "treeDump"), treeIds);
+        File diffCache = Utils.join(Main.getGitletDir(), "diffCache");
+        if (diffCache.isDirectory()) {
+            clearDir(diffCache);
+        }
+
+        new Refs(gitletFiles).update(new TreeMap<>(), _branches);
+        Refs.writeHead(gitletFiles, _currentBranch,
+                _head.equals(_branches.get(_currentBranch)) ? null : _head);
+        Refs.writeRemoved(gitletFiles, _rmvList);
+        Refs.writeStaged(gitletFiles, _staged);
+    }
+
+    /**
+     * Builds the tree of a commit of the first version of Gitlet, which
+     * only held a flat map of files to blobs.
+     * @param files the files, mapped to their old blob hashes.
+     * @param blobIds old blob hashes, mapped to new ones.
+     * @return the hash of the tree.
+     */
+    private String buildTree(TreeMap<String, String> files,
+                             HashMap<String, String> blobIds) {
+        TreeMap<String, String> renamed = new TreeMap<>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            renamed.put(file.getKey(), blobIds.get(file.getValue()));
+        }
+        return Tree.update(Tree.empty(), renamed);
+    }
+
+    /**
+     * Deletes the objects in a directory that a migration replaced.
+     * @param dir the directory.
+     * @param renamed old object hashes, mapped to new ones.
+     */
+    private void deleteStale(File dir, HashMap<String, String> renamed) {
+        Set<String> kept = new TreeSet<>(renamed.values());
+        for (String old : renamed.keySet()) {
+            if (!kept.contains(old)) {
+                Utils.join(dir, old).delete();
+            }
+        }
+    }
+
+    /**
+     * Makes this CommitTree, read from another repository, that of a new
+     * repository in the current directory that shares the other's objects
+     * through its alternates: its own object directories start out empty,
+     * nothing is staged, and the files of the head commit are checked out.
+     */
+    void cloneInto() {
+        File gitletFiles = Main.getGitletDir();
+        _blobDump = new File(gitletFiles, "blobDump");
+        _blobDump.mkdirs();
+        _commitDump = new File(gitletFiles, "commitDump");
+        _commitDump.mkdir();
+        _addStaging = new File(gitletFiles, "addStaging");
+        _addStaging.mkdir();
+        _staged.clear();
+        _rmvList.clear();
+        _worktrees = null;
+        _savedBranches = new TreeMap<>();
+        _savedBranch = null;
+        _savedDetached = null;
+        _savedRmvList = null;
+        _savedStaged = null;
+        loadCommit(null, _head);
+    }
+
+    /**
+     * Reads the refs, and the files staged for addition and removal, of one
+     * worktree (see Refs). The head is the detached commit HEAD records, if
+     * any, or else the head of the branch it names. A reader running
+     * without the lock reads them while a writer may be replacing them one
+     * file at a time, so they are read again after, and the whole read
+     * retried until the two agree.
+     * @param gitletDir the repository's metadata folder.
+     * @param stateDir the worktree's private metadata folder.
+     */
+    void loadRefs(File gitletDir, File stateDir) {
+        do {
+            _branches = new Refs(gitletDir).branches();
+            _currentBranch = Refs.branch(stateDir);
+            String detached = Refs.detached(stateDir);
+            _head = detached != null ? detached
+                    : _branches.get(_currentBranch);
+            _rmvList = Refs.removed(stateDir);
+            _staged = Refs.staged(stateDir);
+            _savedBranches = new TreeMap<>(_branches);
+            _savedBranch = _currentBranch;
+            _savedDetached = detached;
+            _savedRmvList = new ArrayList<>(_rmvList);
+            _savedStaged = new TreeMap<>(_staged);
+        } while (!refsCurrent(gitletDir, stateDir));
+    }
+
+    /**
+     * Writes the refs, and the files staged for addition and removal, of
+     * the current worktree that changed since loadRefs or the last
+     * saveRefs, in this order: a file per branch moved, created or
+     * deleted, HEAD if the current branch or the detached head changed,
+     * and the staged and removal lists if they changed. The head moves
+     * before the staging area it replaces is cleared, so a crash between
+     * the two leaves files staged that the new head already holds, rather
+     * than losing changes that were staged.
+     */
+    void saveRefs() {
+        File stateDir = Main.getStateDir();
+        String detached = Objects.equals(_head,
+                _branches.get(_currentBranch)) ? null : _head;
+        new Refs(Main.getGitletDir()).update(_savedBranches, _branches);
+        if (!Objects.equals(_currentBranch, _savedBranch)
+                || !Objects.equals(detached, _savedDetached)) {
+            Refs.writeHead(stateDir, _currentBranch, detached);
+        }
+        if (!_staged.equals(_savedStaged)) {
+            Refs.writeStaged(stateDir, _staged);
+        }
+        if (!_rmvList.equals(_savedRmvList)) {
+            Refs.writeRemoved(stateDir, _rmvList);
+        }
+        _savedBranches = new TreeMap<>(_branches);
+        _savedBranch = _currentBranch;
+        _savedDetached = detached;
+        _savedRmvList = new ArrayList<>(_rmvList);
+        _savedStaged = new TreeMap<>(_staged);
+    }
+
+    /**
+     * Returns true iff the refs and staging lists on disk are still those
+     * loadRefs or saveRefs last read or wrote.
+     * @return whether no writer has moved them since.
+     */
+    boolean refsCurrent() {
+        return refsCurrent(Main.getGitletDir(), Main.getStateDir());
+    }
+
+    /**
+     * Returns true iff the refs and staging lists of one worktree are still
+     * those loadRefs or saveRefs last read or wrote.
+     * @param gitletDir the repository's metadata folder.
+     * @param stateDir the worktree's private metadata folder.
+     * @return whether no writer has moved them since.
+     */
+    private boolean refsCurrent(File gitletDir, File stateDir) {
+        return Objects.equals(Refs.branch(stateDir), _savedBranch)
+                && Objects.equals(Refs.detached(stateDir), _savedDetached)
+                && new Refs(gitletDir).branches().equals(_savedBranches)
+                && Refs.removed(stateDir).equals(_savedRmvList)
+                && Refs.staged(stateDir).equals(_savedStaged);
+    }
+
+    /**
+     * Reads a CommitTree written by this or the first layout. Besides the
+     * fields still kept in commitTreeFile, reads the refs and removal list
+     * layout 1 kept there too, for migrate; loadRefs reads them from their
+     * own files otherwise.
+     * @param in the stream.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        _commitDump = (File) fields.get("_commitDump", null);
+        _blobDump = (File) fields.get("_blobDump", null);
+        _addStaging = (File) fields.get("_addStaging", null);
+        _worktrees = (TreeMap<String, Worktree>) fields.get("_worktrees",
+                null);
+        _branches = new TreeMap<>();
+        _rmvList = new ArrayList<>();
+        try {
+            _head = (String) fields.get("_head", null);
+            _branches = (TreeMap<String, String>) fields.get("_branches",
+                    null);
+            _currentBranch = (String) fields.get("_currentBranch", null);
+            _rmvList = (ArrayList<String>) fields.get("_rmvList", null);
+        } catch (IllegalArgumentException excp) {
+            /* Written by layout 2, which keeps these elsewhere. */
+        }
+    }
+
+    /**
+     * Lists, sets or clears the sparse-checkout patterns of the current
+     * worktree. Setting them deletes the files that leave the checkout and
+     * writes the ones that enter it; files outside it stay in commits
+     * unchanged.
+     * @param command "list", "set" or "disable".
+     * @param patterns the new patterns, for "set".
+     */
+    public void sparseCheckout(String command, List<String> patterns) {
+        if (command.equals("list") && patterns.isEmpty()) {
+            for (String pattern : sparse().patterns()) {
+                System.out.println(pattern);
+            }
+        } else if (command.equals("set") && !patterns.isEmpty()) {
+            Sparse next;
+            try {
+                next = new Sparse(patterns);
+            } catch (PatternSyntaxException excp) {
+                System.out.println("Invalid sparse-checkout pattern.");
+                return;
+            }
+            setSparse(next);
+        } else if (command.equals("disable") && patterns.isEmpty()) {
+            setSparse(new Sparse(List.of()));
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Replaces the sparse-checkout patterns, updating the working directory
+     * to match, unless a file leaving the checkout has changes that would
+     * be lost or an untracked file is in the way of one entering it. Only
+     * the parts of the head's tree under the roots of the old or new
+     * patterns are read, since no other file can enter or leave.
+     * @param next the new patterns.
+     */
+    private void setSparse(Sparse next) {
+        Sparse current = sparse();
+        if (!_staged.isEmpty() || !_rmvList.isEmpty()) {
+            System.out.println("You have uncommitted changes.");
+            return;
+        }
+        String root = readCommit(_head).getTree();
+        TreeMap<String, String> files = new TreeMap<>();
+        for (String prefix : current.roots()) {
+            files.putAll(Tree.list(root, prefix));
+        }
+        for (String prefix : next.roots()) {
+            files.putAll(Tree.list(root, prefix));
+        }
+        for (String i : files.keySet()) {
+            File file = Utils.join(Main.getRepositoryDir(), i);
+            boolean before = current.includes(i), after = next.includes(i);
+            if (before != after && file.isFile()
+                    && !Blob.hash(file).equals(files.get(i))) {
+                System.out.println(before ? "You have uncommitted changes."
+                        : "There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+                return;
+            }
+        }
+        for (String i : files.keySet()) {
+            File file = Utils.join(Main.getRepositoryDir(), i);
+            if (current.includes(i) && !next.includes(i)) {
+                file.delete();
+                removeEmptyParents(file);
+            } else if (!current.includes(i) && next.includes(i)) {
+                file.getParentFile().mkdirs();
+                ObjectStore.read(_blobDump, files.get(i), Blob.class)
+                        .writeTo(file);
+            }
+        }
+        next.save(Main.getStateDir());
+        _sparse = next;
+    }
+
+    /**
+     * Returns the sparse-checkout patterns of the current worktree.
+     * @return the patterns.
+     */
+    private Sparse sparse() {
+        if (_sparse == null) {
+            _sparse = Sparse.load(Main.getStateDir());
+        }
+        return _sparse;
+    }
+
+    /**
+     * Exchanges the folder of staged blobs of the main worktree with that
+     * of a linked worktree, so that commands run on the fields of this
+     * CommitTree act on the linked one. Swapping again restores them. The
+     * head, branch and staging lists of each worktree are read by
+     * loadRefs.
+     * @param name the linked worktree.
+     */
+    void swapWorktree(String name) {
+        Worktree other = worktrees().get(name);
+        worktrees().put(name, new Worktree(other.getDir(), _addStaging));
+        _addStaging = other.getAddStaging();
+        _active = _active == null ? name : null;
+    }
+
+    /**
+     * Checks out a branch in a new linked worktree, in a directory that
+     * must be empty or missing. The worktree shares this repository's
+     * objects and branches but has its own head and staging area.
+     * @param dir the directory.
+     * @param branchName the branch.
+     */
+    public void addWorktree(File dir, String branchName) {
+        String[] names = dir.list();
+        if (!_branches.containsKey(branchName)) {
+            System.out.println("A branch with that name does not exist.");
+        } else if (checkedOut(branchName) != null) {
+            System.out.println("That branch is already checked out at "
+                    + checkedOut(branchName) + ".");
+        } else if (dir.exists() && (names == null || names.length > 0)) {
+            System.out.println("That directory is not empty.");
+        } else {
+            pruneWorktrees();
+            String name = dir.getName();
+            File worktrees = Utils.join(Main.getGitletDir(), "worktrees");
+            for (int i = 1; worktrees().containsKey(name)
+                    || new File(worktrees, name).exists(); i += 1) {
+                name = dir.getName() + i;
+            }
+            File state = new File(worktrees, name);
+            File addStaging = new File(state, "addStaging");
+            addStaging.mkdirs();
+            dir.mkdirs();
+            String head = _branches.get(branchName);
+            Refs.writeHead(state, branchName, null);
+            worktrees().put(name, new Worktree(dir, addStaging));
+            Utils.writeContents(new File(dir, ".gitlet"),
+                    state.getAbsolutePath() + "\n");
+            TreeMap<String, String> files =
+                    Tree.flatten(readCommit(head).getTree());
+            for (String i : files.keySet()) {
+                File target = Utils.join(dir, i);
+                target.getParentFile().mkdirs();
+                ObjectStore.read(_blobDump, files.get(i), Blob.class)
+                        .writeTo(target);
+            }
+        }
+    }
+
+    /**
+     * Prints the directory, head commit and branch of every worktree, the
+     * main one first.
+     */
+    public void listWorktrees() {
+        File mainDir = Main.getGitletDir().getParentFile();
+        if (_active == null) {
+            printWorktree(mainDir, _head, _currentBranch);
+        } else {
+            printWorktree(mainDir, Main.getGitletDir());
+        }
+        for (String name : worktrees().keySet()) {
+            Worktree state = worktrees().get(name);
+            if (name.equals(_active)) {
+                printWorktree(state.getDir(), _head, _currentBranch);
+            } else {
+                printWorktree(state.getDir(), state.stateDir());
+            }
+        }
+    }
+
+    /**
+     * Prints one line of the list of worktrees for a worktree other than
+     * the current one, whose head and branch are read from its HEAD.
+     * @param dir the worktree's directory.
+     * @param stateDir its private metadata folder.
+     */
+    private void printWorktree(File dir, File stateDir) {
+        String branch = Refs.branch(stateDir);
+        String detached = Refs.detached(stateDir);
+        printWorktree(dir, detached != null ? detached
+                : _branches.get(branch), branch);
+    }
+
+    /**
+     * Prints one line of the list of worktrees.
+     * @param dir the worktree's directory.
+     * @param head its head commit.
+     * @param branch its branch.
+     */
+    private void printWorktree(File dir, String head, String branch) {
+        System.out.println(dir.getAbsolutePath() + " " + head + " ["
+                + branch + "]");
+    }
+
+    /**
+     * Finds the worktree, other than this one, that has a branch checked
+     * out. Worktrees whose directories were deleted do not count.
+     * @param branchName the branch.
+     * @return the worktree's directory, or null if there is none.
+     */
+    private File checkedOutElsewhere(String branchName) {
+        if (_active != null
+                && branchName.equals(Refs.branch(Main.getGitletDir()))) {
+            return Main.getGitletDir().getParentFile();
+        }
+        for (String name : worktrees().keySet()) {
+            Worktree state = worktrees().get(name);
+            if (!name.equals(_active) && state.exists()
+                    && branchName.equals(Refs.branch(state.stateDir()))) {
+                return state.getDir();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the worktree, this one included, that has a branch checked out.
+     * @param branchName the branch.
+     * @return the worktree's directory, or null if there is none.
+     */
+    private File checkedOut(String branchName) {
+        return branchName.equals(_currentBranch) ? Main.getRepositoryDir()
+                : checkedOutElsewhere(branchName);
+    }
+
+    /**
+     * Forgets the linked worktrees whose directories were deleted, and
+     * deletes their private metadata.
+     */
+    private void pruneWorktrees() {
+        for (String name : new ArrayList<>(worktrees().keySet())) {
+            Worktree state = worktrees().get(name);
+            if (!name.equals(_active) && !state.exists()) {
+                worktrees().remove(name);
+                File dir = state.stateDir();
+                clearDir(Blob.stagedChunks(state.getAddStaging()));
+                clearDir(state.getAddStaging());
+                clearDir(Utils.join(dir, "logs"));
+                clearDir(dir);
+                dir.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the states of the linked worktrees, by name.
+     * @return the states.
+     */
+    private TreeMap<String, Worktree> worktrees() {
+        if (_worktrees == null) {
+            _worktrees = new TreeMap<>();
+        }
+        return _worktrees;
+    }
+
+    /**
+     * Reads a commit from this repository or one of its alternates.
+     * @param id the commit's hash.
+     * @return the commit.
+     */
+    private Commit readCommit(String id) {
+        return ObjectStore.read(_commitDump, id, Commit.class);
+    }
+
+    public ArrayList<String> getRmvList() {
+        return _rmvList;
+    }
+
+    /** Hash of the current head of the repository. **/
+    private transient String _head = null;
+
+    /** A treemap of all the branches that were created, and the commit hash
+     * that they point to currently.
+     */
+    private transient TreeMap<String, String> _branches = new TreeMap<>();
+
+    /** The name of the current branch. **/
+    private transient String _currentBranch;
+
+    /** File location for the commitDump. **/
+    private File _commitDump;
 
     /** File location for the blobDump. **/
     private  File _blobDump;
@@ -776,7 +2760,40 @@ public class CommitTree implements Serializable {
     /** File location for adding files to commits. **/
     private  File _addStaging;
 
+    /** Names of the files staged for addition, mapped to the hashes of their
+     * staged blobs in _addStaging. Readers use this rather than listing
+     * _addStaging, which a concurrent commit may be emptying.
+     */
+    private transient TreeMap<String, String> _staged = new TreeMap<>();
+
     /** File location for removing files from commits. **/
-    private ArrayList<String> _rmvList = new ArrayList<>();
+    private transient ArrayList<String> _rmvList = new ArrayList<>();
+
+    /** States of the linked worktrees, by name. Null in repositories
+     * written before worktrees existed. **/
+    private TreeMap<String, Worktree> _worktrees;
+
+    /** Sparse-checkout patterns of the current worktree, once read. **/
+    private transient Sparse _sparse;
+
+    /** Name of the linked worktree whose state is in the fields above while
+     * commands run in it (see swapWorktree), or null. **/
+    private transient String _active;
+
+    /** The branches as last read or written by loadRefs or saveRefs. **/
+    private transient TreeMap<String, String> _savedBranches =
+            new TreeMap<>();
+
+    /** The current branch as last read or written, or null. **/
+    private transient String _savedBranch;
+
+    /** The detached head as last read or written, or null. **/
+    private transient String _savedDetached;
+
+    /** The files staged for removal as last read or written, or null. **/
+    private transient ArrayList<String> _savedRmvList;
+
+    /** The files staged for addition as last read or written, or null. **/
+    private transient TreeMap<String, String> _savedStaged;
 
 }
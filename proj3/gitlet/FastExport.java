@@ -0,0 +1,183 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** Writes the history of every branch as a git fast-import stream, for
+ *  mirroring a repository into another version-control system.
+ *
+ *  Commits are written parents first, in the order of the reachability
+ *  numbering (see Reachability), which already numbers every commit after
+ *  its parents; a commit's mark is its number plus one, so no table of
+ *  commit marks is kept. Each commit is preceded by the blobs it introduces
+ *  that were not written before, each once, with its own mark, and streamed
+ *  from the blob store a chunk at a time. Each commit lists only the files
+ *  it changed relative to its first parent, found by diffing the two trees.
+ *  Finally every branch is reset to its head. Dates before 1970 (the
+ *  initial commit's) are written as 1970, the earliest git accepts.
+ *  Besides the stream buffer, memory holds one bit per commit per branch
+ *  and one mark per blob.
+ *  @author Frank Jin
+ */
+class FastExport {
+
+    /** Identity recorded as every commit's committer: gitlet records none. */
+    static final String COMMITTER = "gitlet <gitlet>";
+
+    /** Mode of every file written: gitlet only stores regular files. */
+    private static final String MODE = "100644";
+
+    /** An exporter of the repository whose metadata is in GITLETDIR, writing
+     *  to OUT. */
+    FastExport(File gitletDir, OutputStream out) {
+        _gitletDir = gitletDir;
+        _commitDump = new File(gitletDir, "commitDump");
+        _blobDump = new File(gitletDir, "blobDump");
+        _out = out;
+    }
+
+    /** Writes the commits reachable from BRANCHES, which maps branch names
+     *  to their heads, followed by a reset of each branch to its head. */
+    void write(SortedMap<String, String> branches) throws IOException {
+        Reachability numbering = new Reachability(_gitletDir);
+        TreeMap<String, BitSet> reachable = new TreeMap<>();
+        BitSet all = new BitSet();
+        for (Map.Entry<String, String> branch : branches.entrySet()) {
+            if (branch.getValue() != null) {
+                BitSet commits = numbering.reachable(branch.getValue());
+                reachable.put(branch.getKey(), commits);
+                all.or(commits);
+            }
+        }
+        _nextMark = numbering.size() + 1;
+        for (int n = all.nextSetBit(0); n >= 0; n = all.nextSetBit(n + 1)) {
+            String ref = null;
+            for (Map.Entry<String, BitSet> branch : reachable.entrySet()) {
+                if (branch.getValue().get(n)) {
+                    ref = branch.getKey();
+                    break;
+                }
+            }
+            writeCommit(numbering, n, ref);
+        }
+        for (String branch : reachable.keySet()) {
+            print("reset refs/heads/" + branch + "\n");
+            print("from :" + (numbering.number(branches.get(branch)) + 1)
+                    + "\n\n");
+        }
+        _out.flush();
+    }
+
+    /** Writes the commit numbered N in NUMBERING, on branch REF, preceded
+     *  by the blobs it introduces. */
+    private void writeCommit(Reachability numbering, int n, String ref)
+            throws IOException {
+        Commit commit = ObjectStore.read(_commitDump, numbering.id(n),
+                Commit.class);
+        String parent = commit.getPrevCommitID();
+        String parentTree = parent == null ? null
+                : ObjectStore.read(_commitDump, parent, Commit.class)
+                        .getTree();
+        TreeMap<String, String> changes = Tree.diff(parentTree,
+                commit.getTree());
+        for (String blob : changes.values()) {
+            if (blob != null && !_blobMarks.containsKey(blob)) {
+                writeBlob(blob);
+            }
+        }
+        ZonedDateTime date = commit.getDate();
+        print("commit refs/heads/" + ref + "\n");
+        print("mark :" + (n + 1) + "\n");
+        print("committer " + COMMITTER + " "
+                + Math.max(0, date.toEpochSecond()) + " "
+                + date.format(DateTimeFormatter.ofPattern("xx")) + "\n");
+        data(commit.getCommitMessage().getBytes(StandardCharsets.UTF_8));
+        if (parent != null) {
+            print("from :" + (numbering.number(parent) + 1) + "\n");
+        }
+        if (commit.getMergeParent() != null) {
+            print("merge :" + (numbering.number(commit.getMergeParent()) + 1)
+                    + "\n");
+        }
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                print("D " + quote(change.getKey()) + "\n");
+            } else {
+                print("M " + MODE + " :" + _blobMarks.get(change.getValue())
+                        + " " + quote(change.getKey()) + "\n");
+            }
+        }
+        print("\n");
+    }
+
+    /** Writes the blob with hash HASH under the next mark. */
+    private void writeBlob(String hash) throws IOException {
+        Blob blob = ObjectStore.read(_blobDump, hash, Blob.class);
+        _blobMarks.put(hash, _nextMark);
+        print("blob\nmark :" + _nextMark + "\n");
+        print("data " + blob.size() + "\n");
+        blob.writeTo(_out);
+        print("\n");
+        _nextMark += 1;
+    }
+
+    /** Writes CONTENTS as a data block. */
+    private void data(byte[] contents) throws IOException {
+        print("data " + contents.length + "\n");
+        _out.write(contents);
+        print("\n");
+    }
+
+    /** Writes TEXT in UTF-8. */
+    private void print(String text) throws IOException {
+        _out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns PATH as a fast-import path: unchanged, unless it starts
+     *  with a quote or holds a quote, backslash or newline, in which case
+     *  it is quoted C-style. */
+    static String quote(String path) {
+        if (!path.startsWith("\"") && path.indexOf('"') < 0
+                && path.indexOf('\\') < 0 && path.indexOf('\n') < 0) {
+            return path;
+        }
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : path.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c == '\n') {
+                result.append("\\n");
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /** Metadata folder of the repository. **/
+    private final File _gitletDir;
+
+    /** Folder holding commits. **/
+    private final File _commitDump;
+
+    /** Folder holding blobs. **/
+    private final File _blobDump;
+
+    /** Where the stream goes. **/
+    private final OutputStream _out;
+
+    /** Mark of each blob written, by hash. **/
+    private final HashMap<String, Integer> _blobMarks = new HashMap<>();
+
+    /** Mark the next blob written gets; blob marks follow commit marks. **/
+    private int _nextMark;
+}
@@ -0,0 +1,459 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.DateTimeException;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** Reads a git fast-import stream, such as FastExport writes, into the
+ *  repository: its blobs, and its commits with their trees, dates and
+ *  messages. Commits on refs/heads/NAME move branch NAME; commits on other
+ *  refs are refused, and resets of them ignored.
+ *
+ *  Every object is written into one pack (see Pack.Writer and
+ *  ObjectStore.startBatch) rather than one durable file each, and the
+ *  caller publishes the branch heads read only after the pack is finished,
+ *  so an import that fails partway leaves the repository as it was.
+ *
+ *  Gitlet histories have a single root, the initial commit. An imported
+ *  commit with no parent is given the initial commit as its parent, except
+ *  that an empty commit named "initial commit", with no parent other than
+ *  the initial commit (as FastExport writes it), stands for the initial
+ *  commit itself.
+ *
+ *  Messages lose the trailing newlines git adds, as gitlet messages have
+ *  none.
+ *
+ *  Supported: blob, commit (with mark, author, committer, data, from, one
+ *  merge, M, D and deleteall), reset, and tag, feature, option, progress,
+ *  checkpoint and done, which are ignored. Data must be given with a byte
+ *  count. Files keep their contents only: every mode reads as a regular
+ *  file, and symbolic links and submodules are refused, as are paths that
+ *  would leave the work tree or enter .gitlet.
+ *  @author Frank Jin
+ */
+class FastImport {
+
+    /** File modes read as regular files. */
+    private static final Set<String> MODES =
+        Set.of("100644", "644", "100755", "755");
+
+    /** Characters that follow a backslash in a quoted path, other than
+     *  octal digits. */
+    private static final String ESCAPES = "abfnrtv\\\"";
+
+    /** The character each of ESCAPES stands for. */
+    private static final String UNESCAPED = "\007\b\f\n\r\t\013\\\"";
+
+    /** An importer into the repository whose metadata is in GITLETDIR,
+     *  reading IN. INITIAL is the id of the repository's initial commit,
+     *  and BRANCHES maps the names of its branches to their heads. */
+    FastImport(File gitletDir, InputStream in, String initial,
+               TreeMap<String, String> branches) {
+        _gitletDir = gitletDir;
+        _commitDump = new File(gitletDir, "commitDump");
+        _blobDump = new File(gitletDir, "blobDump");
+        _in = new BufferedInputStream(in, 1 << 16);
+        _initial = initial;
+        _branches = new TreeMap<>(branches);
+    }
+
+    /** Reads the whole stream, storing what it holds, and returns the
+     *  branch heads it leaves, by branch name. Objects go wherever
+     *  CommitTree.writeImmutable sends them. Throws a GitletException if
+     *  the stream is malformed or unsupported. */
+    TreeMap<String, String> read() throws IOException {
+        TreeMap<String, String> result = new TreeMap<>();
+        for (String line = next(); line != null; line = next()) {
+            if (line.equals("done")) {
+                break;
+            } else if (line.equals("blob")) {
+                readBlob();
+            } else if (line.startsWith("commit ")) {
+                readCommit(line.substring("commit ".length()), result);
+            } else if (line.startsWith("reset ")) {
+                readReset(line.substring("reset ".length()), result);
+            } else if (line.startsWith("tag ")) {
+                skipTag();
+            } else if (!line.isEmpty() && !line.startsWith("#")
+                    && !line.startsWith("feature ")
+                    && !line.startsWith("option ")
+                    && !line.startsWith("progress ")
+                    && !line.equals("checkpoint")) {
+                throw Utils.error("Unsupported command: %s", line);
+            }
+        }
+        return result;
+    }
+
+    /** Appends the changed-path records (see ChangedPaths) of the commits
+     *  read to the sidecar. Only once the pack holding them is published,
+     *  so that no record names a commit that was never stored. */
+    void recordChangedPaths() {
+        if (_changedPaths.size() > 0) {
+            new ChangedPaths(_gitletDir).append(
+                    _changedPaths.toByteArray());
+        }
+    }
+
+    /** Reads the rest of a blob command and stores the blob. */
+    private void readBlob() throws IOException {
+        String mark = optional("mark ");
+        optional("original-oid ");
+        String hash = storeBlob(expect("data "));
+        if (mark != null) {
+            _marks.put(mark, hash);
+        }
+    }
+
+    /** Reads the rest of a commit command on REF and stores the commit,
+     *  recording the branch head it sets in HEADS. */
+    private void readCommit(String ref, TreeMap<String, String> heads)
+            throws IOException {
+        if (branch(ref) == null) {
+            throw Utils.error("Commits on %s are not supported.", ref);
+        }
+        String mark = optional("mark ");
+        optional("original-oid ");
+        optional("author ");
+        ZonedDateTime date = date(expect("committer "));
+        optional("encoding ");
+        String message = new String(data(expect("data ")),
+                StandardCharsets.UTF_8).replaceAll("\n+$", "");
+        String from = optional("from ");
+        String parent = from != null ? commit(from)
+                : _branches.get(branch(ref));
+        String merge = optional("merge ");
+        if (merge != null) {
+            merge = commit(merge);
+            if (optional("merge ") != null) {
+                throw Utils.error("Merges of more than two parents are not "
+                        + "supported.");
+            }
+        }
+        String base = parent == null ? null : ObjectStore.read(_commitDump,
+                parent, Commit.class).getTree();
+        TreeMap<String, String> changes = new TreeMap<>();
+        for (String line = next(); line != null; line = next()) {
+            if (line.equals("deleteall")) {
+                base = null;
+                changes.clear();
+            } else if (line.startsWith("M ")) {
+                String[] fields = line.split(" ", 4);
+                if (fields.length < 4 || !MODES.contains(fields[1])) {
+                    throw Utils.error("Unsupported file: %s", line);
+                }
+                changes.put(path(fields[3]), fields[2].equals("inline")
+                        ? storeBlob(expect("data ")) : blob(fields[2]));
+            } else if (line.startsWith("D ")) {
+                changes.put(path(line.substring(2)), null);
+            } else {
+                if (!line.isEmpty()) {
+                    _pending = line;
+                }
+                break;
+            }
+        }
+        String tree = Tree.update(base, changes);
+        String id;
+        if (from == null && (parent == null || parent.equals(_initial))
+                && message.equals("initial commit")
+                && tree.equals(Tree.empty())) {
+            id = _initial;
+        } else {
+            Commit commit = new Commit(parent == null ? _initial : parent,
+                    merge, message, branch(ref), tree, date);
+            id = Utils.sha1(Utils.serialize(commit));
+            if (!ObjectStore.exists(_commitDump, id)) {
+                CommitTree.writeImmutable(new File(_commitDump, id), commit);
+                String parentTree = ObjectStore.read(_commitDump,
+                        commit.getPrevCommitID(), Commit.class).getTree();
+                _changedPaths.writeBytes(ChangedPaths.entry(id,
+                        commit.getPrevCommitID(),
+                        Tree.diff(parentTree, tree).keySet()));
+            }
+        }
+        if (mark != null) {
+            _marks.put(mark, id);
+        }
+        setHead(ref, id, heads);
+    }
+
+    /** Reads the rest of a reset command on REF, recording the branch head
+     *  it sets, if any, in HEADS. */
+    private void readReset(String ref, TreeMap<String, String> heads)
+            throws IOException {
+        String from = optional("from ");
+        if (from != null) {
+            setHead(ref, commit(from), heads);
+        } else if (branch(ref) != null) {
+            _branches.remove(branch(ref));
+        }
+    }
+
+    /** Skips the rest of a tag command: gitlet has no tags. */
+    private void skipTag() throws IOException {
+        optional("mark ");
+        expect("from ");
+        optional("original-oid ");
+        optional("tagger ");
+        data(expect("data "));
+    }
+
+    /** Points REF at commit ID, recording it in HEADS if REF is a branch. */
+    private void setHead(String ref, String id,
+                         TreeMap<String, String> heads) {
+        String branch = branch(ref);
+        if (branch != null && !_branches.containsKey(branch)
+                && !Refs.valid(branch, _branches.keySet())) {
+            throw Utils.error("Invalid branch name: %s", branch);
+        } else if (branch != null) {
+            _branches.put(branch, id);
+            heads.put(branch, id);
+        }
+    }
+
+    /** Returns the name of the branch REF names (refs/heads/NAME), or null
+     *  if it names none. */
+    private static String branch(String ref) {
+        return ref.startsWith("refs/heads/")
+                ? ref.substring("refs/heads/".length()) : null;
+    }
+
+    /** Returns the id of the commit REF names: a mark, a branch, or the id
+     *  of a stored commit. */
+    private String commit(String ref) {
+        String result = ref.startsWith(":") ? _marks.get(ref)
+                : _branches.get(ref.startsWith("refs/heads/") ? branch(ref)
+                        : ref);
+        if (result == null && ObjectStore.exists(_commitDump, ref)) {
+            result = ref;
+        }
+        if (result == null || !ObjectStore.exists(_commitDump, result)) {
+            throw Utils.error("Unknown commit: %s", ref);
+        }
+        return result;
+    }
+
+    /** Returns the hash of the blob REF names: a mark or the hash of a
+     *  stored blob. */
+    private String blob(String ref) {
+        String result = ref.startsWith(":") ? _marks.get(ref) : ref;
+        if (result == null || !ObjectStore.exists(_blobDump, result)) {
+            throw Utils.error("Unknown blob: %s", ref);
+        }
+        return result;
+    }
+
+    /** Returns the date at the end of IDENTITY, "NAME <EMAIL> SECONDS
+     *  OFFSET". */
+    private static ZonedDateTime date(String identity) {
+        String[] fields = identity.split(" ");
+        try {
+            return Instant.ofEpochSecond(Long.parseLong(
+                    fields[fields.length - 2])).atZone(
+                            ZoneOffset.of(fields[fields.length - 1]));
+        } catch (NumberFormatException | DateTimeException
+                 | ArrayIndexOutOfBoundsException excp) {
+            throw Utils.error("Bad date: %s", identity);
+        }
+    }
+
+    /** Stores the blob whose data follows, with byte count COUNT, and
+     *  returns its hash. Contents of Blob.CHUNKED bytes or more go through
+     *  a temporary file, to be stored in chunks without being held in
+     *  memory. */
+    private String storeBlob(String count) throws IOException {
+        Blob blob;
+        if (size(count) < Blob.CHUNKED) {
+            blob = new Blob(data(count));
+        } else {
+            File tmp = File.createTempFile("tmp", null, _gitletDir);
+            try {
+                try (OutputStream out = new FileOutputStream(tmp)) {
+                    copy(size(count), out);
+                }
+                endData();
+                blob = new Blob(tmp);
+            } finally {
+                tmp.delete();
+            }
+        }
+        CommitTree.writeImmutable(new File(_blobDump, blob.getHash()), blob);
+        return blob.getHash();
+    }
+
+    /** Returns the data, with byte count COUNT, that follows. */
+    private byte[] data(String count) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        copy(size(count), result);
+        endData();
+        return result.toByteArray();
+    }
+
+    /** Returns the byte count COUNT of a data command. */
+    private static long size(String count) {
+        try {
+            long result = Long.parseLong(count);
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Handled below, along with negative counts. */
+        }
+        throw Utils.error("Unsupported data: %s", count);
+    }
+
+    /** Copies the next N bytes of the stream to OUT. */
+    private void copy(long n, OutputStream out) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        while (n > 0) {
+            int read = _in.read(buffer, 0, (int) Math.min(n, buffer.length));
+            if (read < 0) {
+                throw Utils.error("Unexpected end of stream.");
+            }
+            out.write(buffer, 0, read);
+            n -= read;
+        }
+    }
+
+    /** Skips the newline that may end a data command. */
+    private void endData() throws IOException {
+        String line = next();
+        if (line != null && !line.isEmpty()) {
+            _pending = line;
+        }
+    }
+
+    /** Returns the rest of the next line if it starts with PREFIX, having
+     *  read it, or null, leaving it unread. */
+    private String optional(String prefix) throws IOException {
+        String line = next();
+        if (line != null && line.startsWith(prefix)) {
+            return line.substring(prefix.length());
+        }
+        _pending = line;
+        return null;
+    }
+
+    /** Returns the rest of the next line, which must start with PREFIX. */
+    private String expect(String prefix) throws IOException {
+        String result = optional(prefix);
+        if (result == null) {
+            throw Utils.error("Expected %s: %s", prefix.trim(), _pending);
+        }
+        return result;
+    }
+
+    /** Returns the next line of the stream, without its newline, or null
+     *  at its end. */
+    private String next() throws IOException {
+        if (_pending != null) {
+            String result = _pending;
+            _pending = null;
+            return result;
+        }
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c = _in.read();
+        if (c < 0) {
+            return null;
+        }
+        for (; c >= 0 && c != '\n'; c = _in.read()) {
+            line.write(c);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Returns the path of a file, given as PATH in an M or D command,
+     *  unquoted. Throws a GitletException unless it names a file inside
+     *  the work tree (see Tree.validPath), so that no commit imported can
+     *  make checkout write outside it, or into .gitlet. */
+    private static String path(String path) {
+        String result = unquote(path);
+        if (!Tree.validPath(result)) {
+            throw Utils.error("Bad path: %s", path);
+        }
+        return result;
+    }
+
+    /** Returns PATH with git's C-style quoting undone, if it is quoted:
+     *  the escapes \a, \b, \f, \n, \r, \t, \v, \\ and \", and three
+     *  octal digits for a byte, the bytes of the path being read as UTF-8.
+     *  FastExport.quote uses only some of them. Throws a GitletException
+     *  if PATH is quoted badly. */
+    static String unquote(String path) {
+        if (!path.startsWith("\"")) {
+            return path;
+        }
+        if (path.length() < 2 || !path.endsWith("\"")) {
+            throw Utils.error("Bad path: %s", path);
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        for (int i = 1; i < path.length() - 1; i += 1) {
+            char c = path.charAt(i);
+            if (c != '\\') {
+                result.writeBytes(String.valueOf(c)
+                        .getBytes(StandardCharsets.UTF_8));
+                continue;
+            }
+            i += 1;
+            c = path.charAt(i);
+            int escape = ESCAPES.indexOf(c);
+            if (escape >= 0) {
+                result.write(UNESCAPED.charAt(escape));
+            } else if (c >= '0' && c <= '3' && i + 2 < path.length() - 1
+                    && isOctal(path.charAt(i + 1))
+                    && isOctal(path.charAt(i + 2))) {
+                result.write(Integer.parseInt(path.substring(i, i + 3), 8));
+                i += 2;
+            } else {
+                throw Utils.error("Bad path: %s", path);
+            }
+        }
+        return result.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Returns true iff C is an octal digit. */
+    private static boolean isOctal(char c) {
+        return c >= '0' && c <= '7';
+    }
+
+    /** Metadata folder of the repository. **/
+    private final File _gitletDir;
+
+    /** Folder holding commits. **/
+    private final File _commitDump;
+
+    /** Folder holding blobs. **/
+    private final File _blobDump;
+
+    /** The stream. **/
+    private final InputStream _in;
+
+    /** Id of the repository's initial commit. **/
+    private final String _initial;
+
+    /** Head of each branch, as of the part of the stream read so far. **/
+    private final TreeMap<String, String> _branches;
+
+    /** Blob hash or commit id of each mark (":N"). **/
+    private final HashMap<String, String> _marks = new HashMap<>();
+
+    /** Changed-path records of the commits stored, not yet written. **/
+    private final ByteArrayOutputStream _changedPaths =
+            new ByteArrayOutputStream();
+
+    /** Line read ahead and not yet used, or null. **/
+    private String _pending;
+}
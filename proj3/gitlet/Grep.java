@@ -0,0 +1,319 @@
+package gitlet;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** A search for the lines matching a regular expression in a set of blobs.
+ *  Each blob is scanned once however many files and commits share it, and
+ *  blobs are scanned in parallel, a batch at a time, each batch's matches
+ *  written before the next is scanned.
+ *
+ *  The trigram index is optional, and off until "maintenance grep-index"
+ *  turns it on by creating .gitlet/ngrams and filling it, under the writer
+ *  lock, with a Bloom filter of the trigrams (three-character substrings)
+ *  of each blob of the branch heads, named by the blob's hash. Searches
+ *  work out which trigrams any match of their expression must contain,
+ *  and skip every blob whose filter lacks one of them without reading it.
+ *  While the index is on, a search also computes the filters of the blobs
+ *  it scanned that had none, and saveIndex stores them; grep runs without
+ *  the lock, so it does that through Main.saveDerived. Blobs never change,
+ *  so filters never go stale; blobs with more than MAX_NGRAMS distinct
+ *  trigrams get no filter, and are always scanned.
+ *
+ *  Blobs are read as streams, a line at a time (see Blob.open), so files
+ *  of any size can be searched and indexed.
+ *  @author Frank Jin
+ */
+class Grep {
+
+    /** Blobs with more distinct trigrams than this are not indexed. */
+    static final int MAX_NGRAMS = 1 << 16;
+
+    /** Most files searched at once before their matches are written. */
+    static final int BATCH = 64;
+
+    /** Length of the substrings indexed. */
+    static final int N = 3;
+
+    /** A search for PATTERN in the repository whose metadata lives in
+     *  GITLETDIR. */
+    Grep(File gitletDir, Pattern pattern) {
+        _gitletDir = gitletDir;
+        _blobDump = new File(gitletDir, "blobDump");
+        _enabled = enabled(gitletDir);
+        _indexDir = new File(gitletDir, "ngrams");
+        _pattern = pattern;
+        _required = requiredNgrams(pattern.pattern());
+    }
+
+    /** Returns true iff the repository whose metadata lives in GITLETDIR
+     *  keeps a trigram index. */
+    static boolean enabled(File gitletDir) {
+        return new File(gitletDir, "ngrams").isDirectory();
+    }
+
+    /** Turns on the trigram index of the repository whose metadata lives
+     *  in GITLETDIR, and stores the filters of those of BLOBS that have
+     *  none. Only for writers holding the lock. */
+    static void build(File gitletDir, Collection<String> blobs) {
+        File indexDir = new File(gitletDir, "ngrams");
+        indexDir.mkdirs();
+        File blobDump = new File(gitletDir, "blobDump");
+        new HashSet<>(blobs).parallelStream().forEach(blob -> {
+            File index = new File(indexDir, blob);
+            if (!index.exists()) {
+                Utils.writeContentsAtomic(index, gitletDir,
+                        index(ObjectStore.read(blobDump, blob, Blob.class)));
+            }
+        });
+    }
+
+    /** Writes "NAME:LINE" to OUT for each line matching in the files whose
+     *  labels are NAMES and whose blobs are BLOBS, in order, as soon as the
+     *  files are searched. Files are searched BATCH at a time, in
+     *  parallel, and each blob is scanned once: its matches are kept only
+     *  while a later file still has it. */
+    void search(List<String> names, List<String> blobs, PrintWriter out) {
+        Map<String, Integer> remaining = new HashMap<>();
+        for (String blob : blobs) {
+            remaining.merge(blob, 1, Integer::sum);
+        }
+        Map<String, List<String>> matches = new ConcurrentHashMap<>();
+        for (int start = 0; start < blobs.size(); start += BATCH) {
+            int end = Math.min(blobs.size(), start + BATCH);
+            Set<String> batch = new HashSet<>(blobs.subList(start, end));
+            batch.removeAll(matches.keySet());
+            batch.parallelStream().forEach(blob ->
+                    matches.put(blob, search(blob)));
+            for (int i = start; i < end; i += 1) {
+                String blob = blobs.get(i);
+                for (String line : matches.get(blob)) {
+                    out.append(names.get(i)).append(':').append(line)
+                            .append('\n');
+                }
+                if (remaining.merge(blob, -1, Integer::sum) == 0) {
+                    matches.remove(blob);
+                }
+            }
+        }
+    }
+
+    /** Returns the matching lines of BLOB. */
+    private List<String> search(String blob) {
+        List<String> result = new ArrayList<>();
+        File index = new File(_indexDir, blob);
+        if (index.exists()) {
+            byte[] bits = Utils.readContents(index);
+            if (bits.length > 0) {
+                BloomFilter filter = new BloomFilter(bits);
+                for (String ngram : _required) {
+                    if (!filter.mightContain(ngram)) {
+                        return result;
+                    }
+                }
+            }
+        }
+        Set<String> ngrams = _enabled && !index.exists()
+                ? new HashSet<>() : null;
+        Matcher matcher = _pattern.matcher("");
+        Blame.lines(ObjectStore.read(_blobDump, blob, Blob.class).open(),
+            line -> {
+                if (matcher.reset(line).find()) {
+                    result.add(line);
+                }
+                if (ngrams != null) {
+                    addNgrams(line, ngrams);
+                }
+            });
+        if (ngrams != null) {
+            _fresh.put(blob, filter(ngrams));
+        }
+        return result;
+    }
+
+    /** Returns true iff the last search computed filters that the index
+     *  lacks. */
+    boolean indexChanged() {
+        return !_fresh.isEmpty();
+    }
+
+    /** Stores the filters the last search computed. Only for writers
+     *  holding the lock. */
+    void saveIndex() {
+        for (Map.Entry<String, byte[]> entry : _fresh.entrySet()) {
+            File index = new File(_indexDir, entry.getKey());
+            if (_indexDir.isDirectory() && !index.exists()) {
+                Utils.writeContentsAtomic(index, _gitletDir,
+                        entry.getValue());
+            }
+        }
+        _fresh.clear();
+    }
+
+    /** Returns the bits of the trigram filter of BLOB, or no bits if it
+     *  has too many trigrams to index. */
+    static byte[] index(Blob blob) {
+        Set<String> ngrams = new HashSet<>();
+        Blame.lines(blob.open(), line -> addNgrams(line, ngrams));
+        return filter(ngrams);
+    }
+
+    /** Adds the trigrams of LINE to NGRAMS, unless it already holds more
+     *  than MAX_NGRAMS. */
+    private static void addNgrams(String line, Set<String> ngrams) {
+        for (int i = 0; i + N <= line.length()
+                 && ngrams.size() <= MAX_NGRAMS; i += 1) {
+            ngrams.add(line.substring(i, i + N));
+        }
+    }
+
+    /** Returns the bits of the trigram filter of NGRAMS, or no bits if
+     *  there are too many to index. */
+    private static byte[] filter(Set<String> ngrams) {
+        if (ngrams.size() > MAX_NGRAMS) {
+            return new byte[0];
+        }
+        BloomFilter filter = new BloomFilter(ngrams.size());
+        for (String ngram : ngrams) {
+            filter.add(ngram);
+        }
+        return filter.toBytes();
+    }
+
+    /** Returns trigrams that every line matching REGEX must contain. The
+     *  answer is conservative: it is built only from runs of literal
+     *  characters outside groups and classes that any match must include,
+     *  and is empty for expressions with alternatives or flags. */
+    static Set<String> requiredNgrams(String regex) {
+        Set<String> result = new HashSet<>();
+        if (regex.contains("|") || regex.contains("(?")
+                || regex.contains("\\Q") || regex.contains("\\E")) {
+            return result;
+        }
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i += 1) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()) {
+                char next = regex.charAt(i + 1);
+                if (Character.isLetterOrDigit(next)) {
+                    addNgrams(run, result);
+                    i = escapeEnd(regex, i + 1);
+                } else {
+                    i += 1;
+                    if (depth == 0) {
+                        run.append(next);
+                    }
+                }
+            } else if (c == '*' || c == '?' || c == '{') {
+                if (run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                addNgrams(run, result);
+                if (c == '{') {
+                    i = skipPast(regex, i, '}');
+                }
+            } else if (c == '[') {
+                addNgrams(run, result);
+                i = skipPast(regex, i, ']');
+            } else if (c == '(' || c == ')') {
+                addNgrams(run, result);
+                depth += c == '(' ? 1 : -1;
+            } else if ("+.^$".indexOf(c) >= 0) {
+                addNgrams(run, result);
+            } else if (depth == 0) {
+                run.append(c);
+            }
+        }
+        addNgrams(run, result);
+        return result;
+    }
+
+    /** Returns the position of the last character of the escape sequence
+     *  of REGEX whose letter or digit, after the backslash, is at START:
+     *  the digits of an octal escape or back reference, the hex digits of
+     *  an x or u escape, the character of a c escape, and the braces or
+     *  name of a p, P, N, k or b escape. */
+    private static int escapeEnd(String regex, int start) {
+        char c = regex.charAt(start);
+        int last = regex.length() - 1;
+        int end = start;
+        if (c == '0') {
+            while (end < last && end - start < 3
+                    && regex.charAt(end + 1) >= '0'
+                    && regex.charAt(end + 1) <= '7') {
+                end += 1;
+            }
+        } else if (Character.isDigit(c)) {
+            while (end < last && Character.isDigit(regex.charAt(end + 1))) {
+                end += 1;
+            }
+        } else if (c == 'x' && end < last && regex.charAt(end + 1) == '{') {
+            end = skipPast(regex, end + 1, '}');
+        } else if (c == 'x' || c == 'u') {
+            end = Math.min(last, start + (c == 'x' ? 2 : 4));
+        } else if (c == 'c') {
+            end = Math.min(last, start + 1);
+        } else if ("pPNb".indexOf(c) >= 0 && end < last
+                && regex.charAt(end + 1) == '{') {
+            end = skipPast(regex, end + 1, '}');
+        } else if (c == 'k' && end < last && regex.charAt(end + 1) == '<') {
+            end = skipPast(regex, end + 1, '>');
+        } else if ((c == 'p' || c == 'P') && end < last) {
+            end += 1;
+        }
+        return end;
+    }
+
+    /** Returns the position of the first unescaped END in REGEX after
+     *  position START, or the end of REGEX. */
+    private static int skipPast(String regex, int start, char end) {
+        for (int i = start + 1; i < regex.length(); i += 1) {
+            if (regex.charAt(i) == '\\') {
+                i += 1;
+            } else if (regex.charAt(i) == end) {
+                return i;
+            }
+        }
+        return regex.length();
+    }
+
+    /** Adds the trigrams of RUN to RESULT, and empties RUN. */
+    private static void addNgrams(StringBuilder run, Set<String> result) {
+        for (int i = 0; i + N <= run.length(); i += 1) {
+            result.add(run.substring(i, i + N));
+        }
+        run.setLength(0);
+    }
+
+    /** Metadata folder of the repository. **/
+    private final File _gitletDir;
+
+    /** Where committed blobs live. **/
+    private final File _blobDump;
+
+    /** Where trigram filters live. **/
+    private final File _indexDir;
+
+    /** Whether the repository keeps a trigram index. **/
+    private final boolean _enabled;
+
+    /** Filters computed by the last search for blobs the index lacks. **/
+    private final Map<String, byte[]> _fresh = new ConcurrentHashMap<>();
+
+    /** The expression searched for. **/
+    private final Pattern _pattern;
+
+    /** Trigrams every matching line contains. **/
+    private final Set<String> _required;
+}
@@ -2,6 +2,16 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Frank Jin
@@ -16,24 +26,274 @@ public class Main {
         } else if (args.length == 1 && args[0].equals("init")) {
             if (!_initialized) {
                 _repo = new CommitTree();
+                _repo.logRefs(new TreeMap<>(), "init");
+                saveRepo();
+                Utils.writeContents(formatFile(),
+                        Integer.toString(CommitTree.FORMAT));
             } else {
                 System.out.println("Gitlet version-control system already "
                         + "exists in the current directory.");
                 return;
             }
+        } else if (args.length == 4 && args[0].equals("clone")
+                && args[1].equals("--shared")) {
+            if (!cloneShared(args[2], args[3])) {
+                return;
+            }
         } else if (!_initialized) {
             System.out.println("Not in an initialized Gitlet directory.");
             return;
         } else {
-            _repo = Utils.readObject(Utils.join(_repositoryDir,
-                    ".gitlet/commitTreeFile"), CommitTree.class);
-            commandSwitch(args);
+            upgrade();
+            run(args);
         }
-        Utils.writeObject(Utils.join(_repositoryDir,
-                ".gitlet/commitTreeFile"),
-                _repo);
         System.exit(0);
     }
+
+    /** Runs the command given by ARGS on an up-to-date repository. */
+    private static void run(String... args) throws IOException {
+        if (args.length == 1 && args[0].equals("watch")) {
+            if (!getStateDir().equals(getGitletDir())) {
+                System.out.println("The watcher only runs in the main "
+                        + "worktree.");
+                return;
+            }
+            Watcher.run(getGitletDir());
+        } else if (READ_ONLY.contains(args[0])) {
+            _repo = loadRepo();
+            commandSwitch(args);
+        } else if (args.length == 3 && args[0].equals("bisect")
+                && args[1].equals("run")) {
+            bisectRun(args);
+        } else {
+            write(args, () -> {
+                commandSwitch(args);
+                return true;
+            });
+        }
+    }
+
+    /** Runs BODY as a command that changes the repository, logged in the
+     *  reflogs as ARGS: under the writer lock, on the repository as the
+     *  last writer published it, publishing it again after. Then starts
+     *  automatic maintenance, if it is due. Returns the result of BODY. */
+    private static boolean write(String[] args, Body body)
+            throws IOException {
+        boolean result, due;
+        _lock = new RepoLock(getGitletDir());
+        try {
+            _repo = loadRepo();
+            TreeMap<String, String> refs = _repo.refs();
+            result = body.run();
+            _repo.logRefs(refs, String.join(" ", args));
+            saveRepo();
+            due = Maintenance.due(getGitletDir());
+        } finally {
+            _lock.close();
+            _lock = null;
+        }
+        if (due) {
+            startMaintenance();
+        }
+        return result;
+    }
+
+    /** Starts "maintenance run --auto" in a process of its own, which
+     *  takes the writer lock once this command has released it, and which
+     *  this command does not wait for, so that housekeeping never holds up
+     *  the command that found it due. Does nothing if the process cannot
+     *  be started: the next command to find maintenance due tries again. */
+    private static void startMaintenance() {
+        String java = ProcessHandle.current().info().command()
+                .orElse("java");
+        try {
+            new ProcessBuilder(java, "-cp",
+                    System.getProperty("java.class.path"), Main.class.getName(),
+                    "maintenance", "run", "--auto")
+                    .directory(getRepositoryDir())
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectErrorStream(true).start();
+        } catch (IOException | UnsupportedOperationException excp) {
+            /* Maintenance is left for a later command. */
+        }
+    }
+
+    /** Runs "bisect run SCRIPT", given as ARGS: tests commits with the
+     *  shell command SCRIPT until the first bad commit is found. Its exit
+     *  status marks the commit being tested (see
+     *  CommitTree.bisectResult), except that 128 or more stops the
+     *  bisection where it is. Each mark, with the checkout of the next
+     *  commit to test, is a command of its own, and SCRIPT runs between
+     *  them without the writer lock, so it may run Gitlet commands that
+     *  change the repository. As the bisection is saved after each mark, a
+     *  run that is interrupted continues where it stopped when run
+     *  again. */
+    private static void bisectRun(String[] args) throws IOException {
+        boolean more = write(args, () -> _repo.bisectReady());
+        while (more) {
+            System.out.println("running " + args[2]);
+            int status;
+            try {
+                status = new ProcessBuilder("sh", "-c", args[2])
+                        .directory(getRepositoryDir())
+                        .inheritIO().start().waitFor();
+            } catch (InterruptedException excp) {
+                return;
+            }
+            if (status < 0 || status >= 128) {
+                System.out.println("bisect run failed: exit code "
+                        + status);
+                return;
+            }
+            more = write(args, () -> _repo.bisectResult(status));
+        }
+    }
+
+    /** The body of a command run by write. */
+    private interface Body {
+        /** Runs on _repo, returning a result for the caller. */
+        boolean run() throws IOException;
+    }
+
+    /** Makes a new repository in directory DEST that shares the objects of
+     *  the repository in directory SOURCE, listing it as an alternate
+     *  instead of copying them, and checks out its current branch. Returns
+     *  false if it cannot. */
+    private static boolean cloneShared(String source, String dest)
+            throws IOException {
+        File sourceGitlet = new File(absolute(source), ".gitlet");
+        File destDir = absolute(dest);
+        if (!sourceGitlet.isDirectory()) {
+            System.out.println("Source repository does not exist.");
+            return false;
+        } else if (format(sourceGitlet) != CommitTree.FORMAT) {
+            System.out.println("Source repository must be upgraded first.");
+            return false;
+        } else if (new File(destDir, ".gitlet").exists()) {
+            System.out.println("Gitlet version-control system already "
+                    + "exists in the destination directory.");
+            return false;
+        }
+        _repositoryDir = destDir;
+        getGitletDir().mkdirs();
+        Utils.writeContents(Utils.join(getGitletDir(), "alternates"),
+                sourceGitlet.getCanonicalPath() + "\n");
+        _repo = Utils.readObject(new File(sourceGitlet, "commitTreeFile"),
+                CommitTree.class);
+        _repo.loadRefs(sourceGitlet, sourceGitlet);
+        _repo.cloneInto();
+        saveRepo();
+        Utils.writeContents(formatFile(),
+                Integer.toString(CommitTree.FORMAT));
+        return true;
+    }
+
+    /** Returns PATH, resolved against the current directory if it is
+     *  relative, without "." or ".." components. */
+    private static File absolute(String path) {
+        File file = new File(path);
+        file = file.isAbsolute() ? file : new File(_repositoryDir, path);
+        return file.toPath().normalize().toFile();
+    }
+
+    /** Brings a repository written by an older version of Gitlet up to
+     *  date, once, before any command runs on it. See CommitTree.FORMAT. */
+    private static void upgrade() {
+        if (format(getGitletDir()) == CommitTree.FORMAT) {
+            return;
+        }
+        _lock = new RepoLock(getGitletDir());
+        try {
+            int format = format(getGitletDir());
+            if (format < CommitTree.FORMAT) {
+                _repo = Utils.readObject(Utils.join(getGitletDir(),
+                        "commitTreeFile"), CommitTree.class);
+                _repo.migrate();
+                Utils.writeObjectAtomic(Utils.join(getGitletDir(),
+                        "commitTreeFile"), getGitletDir(), _repo);
+                Utils.writeContents(formatFile(),
+                        Integer.toString(CommitTree.FORMAT));
+            }
+        } finally {
+            _lock.close();
+            _lock = null;
+        }
+    }
+
+    /** Runs SAVE, which records state derived from the repository as this
+     *  command loaded it (such as the watcher's, see WatchJournal), under
+     *  the writer lock. A writer runs it at once. A reader takes the lock
+     *  only if it is free, and skips SAVE if a writer has published a
+     *  change since the reader loaded the repository, so that derived state
+     *  is never written over a newer one. */
+    static void saveDerived(Runnable save) {
+        if (_lock != null) {
+            save.run();
+            return;
+        }
+        RepoLock lock = RepoLock.tryAcquire(getGitletDir());
+        if (lock == null) {
+            return;
+        }
+        try {
+            if (Arrays.equals(Utils.readContents(Utils.join(getGitletDir(),
+                    "commitTreeFile")), _published) && _repo.refsCurrent()) {
+                save.run();
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Returns the layout of the repository whose metadata is in GITLETDIR:
+     *  that its format file records, or 1 if it has none. */
+    private static int format(File gitletDir) {
+        File file = new File(gitletDir, "format");
+        return file.exists()
+                ? Integer.parseInt(Utils.readContentsAsString(file).trim()) : 1;
+    }
+
+    /** Returns the file recording the layout of the repository. */
+    private static File formatFile() {
+        return Utils.join(getGitletDir(), "format");
+    }
+
+    /** Returns the CommitTree last published by a writer, with the state
+     *  of the current worktree in place (see CommitTree.swapWorktree) and
+     *  its refs read (see Refs). */
+    private static CommitTree loadRepo() {
+        _published = Utils.readContents(Utils.join(getGitletDir(),
+                "commitTreeFile"));
+        CommitTree repo = Utils.deserialize(_published, CommitTree.class);
+        if (!getStateDir().equals(getGitletDir())) {
+            repo.swapWorktree(getStateDir().getName());
+        }
+        repo.loadRefs(getGitletDir(), getStateDir());
+        return repo;
+    }
+
+    /** Publishes _repo for subsequent commands: writes the refs and
+     *  staging lists that changed, each to its own file, then replaces
+     *  commitTreeFile, which only lists the repository's folders and
+     *  worktrees, if it changed, atomically, so that readers running
+     *  concurrently never see a half written one. */
+    private static void saveRepo() {
+        _repo.saveRefs();
+        boolean linked = !getStateDir().equals(getGitletDir());
+        if (linked) {
+            _repo.swapWorktree(getStateDir().getName());
+        }
+        byte[] contents = Utils.serialize(_repo);
+        if (!Arrays.equals(contents, _published)) {
+            Utils.writeContentsAtomic(Utils.join(getGitletDir(),
+                    "commitTreeFile"), getGitletDir(), contents);
+            _published = contents;
+        }
+        if (linked) {
+            _repo.swapWorktree(getStateDir().getName());
+        }
+    }
+
     public static void commandSwitch(String[] args) throws IOException {
         if (args.length == 1) {
             switch (args[0]) {
@@ -46,6 +306,18 @@ public class Main {
             case "status":
                 _repo.status();
                 break;
+            case "stash":
+                _repo.stash("push", null);
+                break;
+            case "reflog":
+                _repo.reflog("HEAD");
+                break;
+            case "fast-export":
+                _repo.fastExport();
+                break;
+            case "fast-import":
+                _repo.fastImport(null);
+                break;
             default:
                 System.out.println("No command with that name exists");
             }
@@ -79,9 +351,85 @@ public class Main {
             case "merge":
                 _repo.merge(args[1]);
                 break;
+            case "blame":
+                _repo.blame(args[1]);
+                break;
+            case "grep":
+                _repo.grep(args[1], List.of());
+                break;
+            case "bisect":
+                _repo.bisect(args[1], null);
+                break;
+            case "rebase":
+                _repo.rebase(args[1]);
+                break;
+            case "stash":
+                _repo.stash(args[1], null);
+                break;
+            case "rev-list":
+                _repo.revList(args[1], false);
+                break;
+            case "cherry-pick":
+                _repo.cherryPick(args[1]);
+                break;
+            case "revert":
+                _repo.revert(args[1]);
+                break;
+            case "sparse-checkout":
+                _repo.sparseCheckout(args[1], List.of());
+                break;
+            case "reflog":
+                _repo.reflog(args[1]);
+                break;
+            case "fast-import":
+                _repo.fastImport(args[1]);
+                break;
+            case "maintenance":
+                if (args[1].equals("run")) {
+                    _repo.maintenance(false);
+                } else if (args[1].equals("grep-index")) {
+                    _repo.grepIndex();
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "worktree":
+                if (args[1].equals("list")) {
+                    _repo.listWorktrees();
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
             default:
                 System.out.println("No command with that name exists");
             }
+        } else if (args[0].equals("archive") && args.length == 5
+                && args[2].startsWith("--format=") && args[3].equals("-o")) {
+            _repo.archive(args[1], args[2].substring("--format=".length()),
+                    args[4]);
+        } else if (args[0].equals("worktree") && args[1].equals("add")
+                && args.length == 4) {
+            _repo.addWorktree(absolute(args[2]), args[3]);
+        } else if (args[0].equals("sparse-checkout")) {
+            _repo.sparseCheckout(args[1],
+                    List.of(args).subList(2, args.length));
+        } else if (args[0].equals("maintenance") && args.length == 3
+                && args[1].equals("run") && args[2].equals("--auto")) {
+            _repo.maintenance(true);
+        } else if (args[0].equals("rev-list") && args[1].equals("--count")
+                && args.length == 3) {
+            _repo.revList(args[2], true);
+        } else if (args[0].equals("stash") && args.length == 3) {
+            _repo.stash(args[1], args[2]);
+        } else if (args[0].equals("bisect") && args.length == 3) {
+            _repo.bisect(args[1], args[2]);
+        } else if (args[0].equals("grep")) {
+            _repo.grep(args[1], List.of(args).subList(2, args.length));
+        } else if (args[0].equals("log") && args[1].equals("--")
+                && args.length == 3) {
+            _repo.log(args[2]);
+        } else if (args[0].equals("log") || args[0].equals("global-log")) {
+            logLimited(args);
         } else if (args[0].equals("checkout") && args[1].equals("--")
                 && args.length == 3) {
             _repo.checkoutFile(args[2]);
@@ -93,18 +441,98 @@ public class Main {
         }
     }
 
+    /** Runs log or global-log, as given by ARGS, with the limits they
+     *  set: "-n COUNT" for at most COUNT commits, "--since DATE" for only
+     *  those made at or after DATE, as yyyy-MM-dd or yyyy-MM-dd HH:mm:ss
+     *  in local time. */
+    private static void logLimited(String[] args) {
+        int count = Integer.MAX_VALUE;
+        ZonedDateTime since = null;
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                if (args[i].equals("-n") && i + 1 < args.length) {
+                    count = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("--since") && i + 1 < args.length) {
+                    since = parseDate(args[i + 1]);
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            }
+        } catch (IllegalArgumentException | DateTimeParseException excp) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        if (args[0].equals("log")) {
+            _repo.log(count, since);
+        } else {
+            _repo.globalLog(count, since);
+        }
+    }
+
+    /** Returns the time DATE, given as yyyy-MM-dd or yyyy-MM-dd HH:mm:ss,
+     *  in local time. */
+    static ZonedDateTime parseDate(String date) {
+        if (date.length() == "yyyy-MM-dd".length()) {
+            return LocalDate.parse(date).atStartOfDay(ZoneId.systemDefault());
+        }
+        return LocalDateTime.parse(date, DateTimeFormatter.ofPattern(
+                "yyyy-MM-dd HH:mm:ss")).atZone(ZoneId.systemDefault());
+    }
+
     public static File getRepositoryDir() {
         return _repositoryDir;
     }
 
+    /** Returns the directory holding the repository's metadata, which
+     *  every worktree of the repository shares. */
+    public static File getGitletDir() {
+        File local = new File(_repositoryDir, ".gitlet");
+        return local.isFile() ? getStateDir().getParentFile().getParentFile()
+                : local;
+    }
+
+    /** Returns the directory holding the metadata private to the current
+     *  worktree: its staged blobs and any bisection in progress. For the
+     *  main worktree, this is the repository's .gitlet; a linked
+     *  worktree's .gitlet is a file naming it. See Worktree. */
+    public static File getStateDir() {
+        File local = new File(_repositoryDir, ".gitlet");
+        if (!local.equals(_stateFor)) {
+            _stateDir = local.isFile()
+                    ? new File(Utils.readContentsAsString(local).trim())
+                    : local;
+            _stateFor = local;
+        }
+        return _stateDir;
+    }
+
+    /** Commands that never change the repository. They run without taking
+     *  the writer lock, on the CommitTree published when they start, so any
+     *  number of them can run alongside each other and alongside a writer. */
+    private static final Set<String> READ_ONLY =
+            Set.of("log", "global-log", "status", "find", "blame",
+                    "grep", "archive", "reflog");
+
     /** Directory to the repository. **/
     private static File _repositoryDir =
             new File(System.getProperty("user.dir"));
 
+    /** The .gitlet of the worktree whose state directory is _stateDir. **/
+    private static File _stateFor;
+
+    /** Metadata directory private to the current worktree. **/
+    private static File _stateDir;
+
     /** True if repo is initialized. **/
     private static boolean _initialized =
             new File(_repositoryDir, "/.gitlet").exists();
 
     /** The commit tree for the repository. **/
     private static CommitTree _repo;
+
+    /** The writer lock, while this command holds it. **/
+    private static RepoLock _lock;
+
+    /** The serialized CommitTree as last read or written, or null. **/
+    private static byte[] _published;
 }
@@ -0,0 +1,262 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Repository housekeeping, run by "maintenance run", and automatically,
+ *  when it is due, by "maintenance run --auto", which a command that
+ *  changed the repository starts in the background once it has published
+ *  its changes and released the writer lock (see Main.write). Tasks:
+ *
+ *  - pack loose objects: consolidates the small loose blobs, trees and
+ *    commits into a pack (see Pack), then deletes them;
+ *  - repack: merges the packs into one, smallest first, once there are
+ *    many;
+ *  - pack refs: moves the branch files into packed-refs (see Refs), so
+ *    that reading the branches stays one file read however many there are;
+ *  - rebuild caches: stores the reachability bitmaps of the branch heads
+ *    (see Reachability);
+ *  - prune: deletes temporary files left by interrupted writes, files
+ *    left in .gitlet by old versions, and staged blobs and chunks no
+ *    longer staged.
+ *
+ *  Each task checks its time budget before each object or file it handles,
+ *  and stops when it is spent, keeping the work it completed, leaving the
+ *  repository consistent, and the rest of its work to the next run. Run
+ *  automatically, at most once every INTERVAL, tasks have a budget of
+ *  AUTO_BUDGET each, so that the writer lock is never held for long, the
+ *  packing tasks only run past their thresholds, and failures are
+ *  ignored. The time of the last
+ *  check is that of the file .gitlet/maintenance, so deciding whether it
+ *  is due costs one look at it.
+ *  @author Frank Jin
+ */
+class Maintenance {
+
+    /** Least number of loose objects for automatic packing. */
+    static final int LOOSE_OBJECTS = 10000;
+
+    /** Least number of packs for automatic repacking. */
+    static final int PACKS = 50;
+
+    /** Least number of loose branch files for automatic ref packing. */
+    static final int LOOSE_REFS = 100;
+
+    /** Largest object packed, in bytes; larger ones stay loose. */
+    static final long SMALL = 64 << 10;
+
+    /** Milliseconds between automatic runs. */
+    static final long INTERVAL = 60 * 60 * 1000;
+
+    /** Milliseconds each task may take when run automatically. */
+    static final long AUTO_BUDGET = 200;
+
+    /** Milliseconds each task may take when run by "maintenance run". */
+    static final long RUN_BUDGET = 60 * 1000;
+
+    /** Temporary files older than this many milliseconds are pruned. */
+    static final long PRUNE_AGE = 60 * 60 * 1000;
+
+    /** Object folders whose objects are packed. */
+    private static final String[] FOLDERS =
+        {"commitDump", "treeDump", "blobDump"};
+
+    /** Returns true iff automatic maintenance of the repository whose
+     *  metadata is in GITLETDIR is due, marking it done if so. */
+    static boolean due(File gitletDir) {
+        File stamp = new File(gitletDir, "maintenance");
+        long now = System.currentTimeMillis();
+        if (stamp.exists() && now - stamp.lastModified() < INTERVAL) {
+            return false;
+        }
+        boolean first = !stamp.exists();
+        Utils.writeContents(stamp, "");
+        return !first;
+    }
+
+    /** Maintenance of the repository whose metadata is in GITLETDIR, run
+     *  automatically iff AUTO. */
+    Maintenance(File gitletDir, boolean auto) {
+        _gitletDir = gitletDir;
+        _auto = auto;
+    }
+
+    /** Runs every task. TIPS are the branch heads, and STAGED the blobs
+     *  staged in ADDSTAGING. */
+    void run(Collection<String> tips, File addStaging,
+             Collection<String> staged) {
+        packLoose();
+        repack();
+        packRefs();
+        rebuildCaches(tips);
+        prune(addStaging, new HashSet<>(staged));
+    }
+
+    /** Packs the small loose objects, if there are enough of them. Whether
+     *  there are is decided from the number of loose files alone, which
+     *  listing their folders tells without looking at each file, and the
+     *  budget starts after that: sizes are checked as the objects are
+     *  packed, and a pack cut short by the budget is kept. */
+    void packLoose() {
+        List<String> keys = new ArrayList<>();
+        for (String folder : FOLDERS) {
+            String[] names = new File(_gitletDir, folder).list();
+            if (names != null) {
+                for (String name : names) {
+                    keys.add(folder + "/" + name);
+                }
+            }
+        }
+        if (keys.isEmpty() || _auto && keys.size() < LOOSE_OBJECTS) {
+            return;
+        }
+        long deadline = deadline();
+        Pack.Writer writer = new Pack.Writer(_gitletDir);
+        for (String key : keys) {
+            if (System.currentTimeMillis() > deadline) {
+                break;
+            }
+            File file = new File(_gitletDir, key);
+            if (file.isFile() && file.length() <= SMALL) {
+                writer.add(key, Utils.readContents(file));
+            }
+        }
+        Pack pack = writer.finish();
+        if (pack != null) {
+            for (String key : pack.entries().keySet()) {
+                new File(_gitletDir, key).delete();
+            }
+        }
+    }
+
+    /** Merges the packs into one, if there are enough of them, copying
+     *  the objects of the smallest packs first. If the budget runs out
+     *  before every object is copied, the new pack is kept as long as it
+     *  holds every object of at least two packs, which are deleted, so
+     *  each run leaves fewer packs to merge. */
+    void repack() {
+        long deadline = deadline();
+        List<Pack> packs = Pack.load(_gitletDir);
+        if (packs.size() < 2 || _auto && packs.size() < PACKS) {
+            return;
+        }
+        packs.sort(Comparator.comparingInt(pack -> pack.entries().size()));
+        Set<String> keys = new LinkedHashSet<>();
+        for (Pack pack : packs) {
+            keys.addAll(pack.entries().keySet());
+        }
+        Pack merged = Pack.write(_gitletDir, new ArrayList<>(keys), packs,
+                deadline);
+        if (merged == null) {
+            return;
+        }
+        List<Pack> copied = new ArrayList<>();
+        for (Pack pack : packs) {
+            if (!pack.name().equals(merged.name()) && merged.entries()
+                    .keySet().containsAll(pack.entries().keySet())) {
+                copied.add(pack);
+            }
+        }
+        if (copied.size() < 2 && merged.entries().size() < keys.size()) {
+            merged.delete();
+            return;
+        }
+        for (Pack pack : copied) {
+            pack.delete();
+        }
+    }
+
+    /** Moves the loose branch files into packed-refs, if there are enough
+     *  of them. */
+    void packRefs() {
+        Refs refs = new Refs(_gitletDir);
+        int loose = refs.looseCount();
+        if (loose > 0 && !(_auto && loose < LOOSE_REFS)) {
+            refs.pack();
+        }
+    }
+
+    /** Stores the reachability bitmaps of TIPS, then deletes those of any
+     *  other commits, so that bitmaps are kept for the branch heads only. */
+    void rebuildCaches(Collection<String> tips) {
+        long deadline = deadline();
+        Reachability bitmaps = new Reachability(_gitletDir);
+        Set<String> heads = new HashSet<>(tips);
+        for (String tip : heads) {
+            if (System.currentTimeMillis() > deadline) {
+                return;
+            }
+            bitmaps.store(tip);
+        }
+        bitmaps.retain(heads);
+    }
+
+    /** Deletes stale temporary files, the .gitlet/temp*.txt files old
+     *  versions left behind, the blobs in ADDSTAGING other than those in
+     *  STAGED, and the staged chunks (see Blob.stagedChunks) none of those
+     *  lists. */
+    void prune(File addStaging, Set<String> staged) {
+        long deadline = deadline();
+        List<File> dirs = new ArrayList<>(List.of(_gitletDir));
+        File[] worktrees = new File(_gitletDir, "worktrees").listFiles();
+        if (worktrees != null) {
+            dirs.addAll(List.of(worktrees));
+        }
+        long old = System.currentTimeMillis() - PRUNE_AGE;
+        for (File dir : dirs) {
+            List<String> names = Utils.plainFilenamesIn(dir);
+            for (String name : names == null ? List.<String>of() : names) {
+                File file = new File(dir, name);
+                if (System.currentTimeMillis() > deadline) {
+                    return;
+                } else if (name.startsWith("tmp") && file.lastModified() < old
+                        || dir.equals(_gitletDir) && name.startsWith("temp")
+                        && name.endsWith(".txt")) {
+                    file.delete();
+                }
+            }
+        }
+        List<String> names = Utils.plainFilenamesIn(addStaging);
+        for (String name : names == null ? List.<String>of() : names) {
+            if (System.currentTimeMillis() > deadline) {
+                return;
+            } else if (!staged.contains(name)) {
+                new File(addStaging, name).delete();
+            }
+        }
+        Set<String> chunks = new HashSet<>();
+        for (String hash : staged) {
+            File blob = new File(addStaging, hash);
+            if (blob.exists()) {
+                chunks.addAll(Utils.readObject(blob, Blob.class).chunks());
+            }
+        }
+        File stagedChunks = Blob.stagedChunks(addStaging);
+        names = Utils.plainFilenamesIn(stagedChunks);
+        for (String name : names == null ? List.<String>of() : names) {
+            if (System.currentTimeMillis() > deadline) {
+                return;
+            } else if (!chunks.contains(name)) {
+                new File(stagedChunks, name).delete();
+            }
+        }
+    }
+
+    /** Returns the time at which a task started now must stop. */
+    private long deadline() {
+        return System.currentTimeMillis()
+                + (_auto ? AUTO_BUDGET : RUN_BUDGET);
+    }
+
+    /** Metadata folder of the repository. **/
+    private final File _gitletDir;
+
+    /** Whether this run is automatic. **/
+    private final boolean _auto;
+}
@@ -0,0 +1,243 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Lookup of stored objects (blobs, chunks, trees and commits) in a
+ *  repository and its alternates.
+ *
+ *  A repository may list, one per line in .gitlet/alternates, the .gitlet
+ *  directories of other repositories on the same machine whose objects it
+ *  may use. Objects are immutable and named by their hashes, so an object
+ *  found in an alternate is the same as a local copy would be: lookups try
+ *  the repository's own directory first and then each alternate (and their
+ *  alternates in turn), and writes of objects already present in any of
+ *  them are skipped. Alternates are only ever read.
+ *
+ *  Small objects may also have been consolidated into packs (see Pack and
+ *  Maintenance), in the repository or in an alternate. Readers should use
+ *  exists and read rather than find, which sees only loose objects. A
+ *  loose object may be deleted once it is packed, even while a lock-free
+ *  reader is about to read it, so a lookup that misses reloads the packs
+ *  before giving up.
+ *
+ *  A bulk writer (such as fast-import) may have new objects written into a
+ *  single pack instead of one durable file each: between startBatch and
+ *  endBatch, writeImmutable adds objects to the batch, where lookups find
+ *  them too. Nothing refers to them until the batch is finished.
+ *
+ *  Lookups may run on several threads at once (see Grep), so the packs and
+ *  alternates loaded are kept in concurrent maps, and each entry is
+ *  replaced whole rather than changed.
+ *  @author Frank Jin
+ */
+class ObjectStore {
+
+    /** Returns the file holding object ID, which belongs in the object
+     *  directory DIR of the current repository (blobDump, chunkDump,
+     *  treeDump or commitDump): the copy in DIR if there is one, else the
+     *  first copy in an alternate, else the (missing) file in DIR. */
+    static File find(File dir, String id) {
+        File local = new File(dir, id);
+        if (local.exists()) {
+            return local;
+        }
+        for (File alternate : alternates()) {
+            File file = Utils.join(alternate, dir.getName(), id);
+            if (file.exists()) {
+                return file;
+            }
+        }
+        return local;
+    }
+
+    /** Returns true iff object ID of the object directory DIR is stored,
+     *  loose or packed, in the current repository or an alternate. */
+    static boolean exists(File dir, String id) {
+        return find(dir, id).exists() || batched(dir, id)
+                || packed(dir, id) != null;
+    }
+
+    /** Returns object ID of the object directory DIR, which must be stored,
+     *  read as an object of class TYPE. */
+    static <T extends Serializable> T read(File dir, String id,
+                                           Class<T> type) {
+        File loose = find(dir, id);
+        if (loose.exists()) {
+            try {
+                return Utils.readObject(loose, type);
+            } catch (IllegalArgumentException excp) {
+                if (loose.exists()) {
+                    throw excp;
+                }
+            }
+        }
+        if (batched(dir, id)) {
+            return Utils.deserialize(_batch.read(dir.getName() + "/" + id),
+                    type);
+        }
+        return Utils.deserialize(readPacked(dir, id), type);
+    }
+
+    /** Writes the objects stored from now until endBatch into BATCH. */
+    static void startBatch(Pack.Writer batch) {
+        _batch = batch;
+    }
+
+    /** Stops writing objects into a batch. */
+    static void endBatch() {
+        _batch = null;
+    }
+
+    /** Returns the batch objects are written into, or null. */
+    static Pack.Writer batch() {
+        return _batch;
+    }
+
+    /** Returns true iff object ID of DIR is in the batch being written. */
+    private static boolean batched(File dir, String id) {
+        return _batch != null && _batch.contains(dir.getName() + "/" + id);
+    }
+
+    /** Returns object ID of DIR from the pack holding it, reloading the
+     *  packs if they changed underfoot. */
+    private static byte[] readPacked(File dir, String id) {
+        for (boolean retry = true; ; retry = false) {
+            Pack pack = packed(dir, id);
+            if (pack == null) {
+                throw new IllegalArgumentException("No object " + id + ".");
+            }
+            try {
+                return pack.read(dir.getName(), id);
+            } catch (IllegalArgumentException excp) {
+                if (!retry) {
+                    throw excp;
+                }
+                refresh(dir);
+            }
+        }
+    }
+
+    /** Returns the pack holding object ID of DIR, in the current repository
+     *  or an alternate, or null if it is not packed. */
+    private static Pack packed(File dir, String id) {
+        for (boolean retry = true; ; retry = false) {
+            for (File gitletDir : repositories(dir)) {
+                for (Pack pack : packs(gitletDir)) {
+                    if (pack.contains(dir.getName(), id)) {
+                        return pack;
+                    }
+                }
+            }
+            if (!retry || !refresh(dir)) {
+                return null;
+            }
+        }
+    }
+
+    /** Reloads the packs of the current repository, whose object directory
+     *  DIR is, and of its alternates, where they changed since they were
+     *  loaded. Returns true iff any did. */
+    private static boolean refresh(File dir) {
+        boolean changed = false;
+        for (File gitletDir : repositories(dir)) {
+            if (!packNames(gitletDir).equals(_packNames.get(gitletDir))) {
+                _packs.remove(gitletDir);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** Returns the packs of the repository with metadata in GITLETDIR,
+     *  loading them on first use. */
+    static List<Pack> packs(File gitletDir) {
+        return _packs.computeIfAbsent(gitletDir, dir -> {
+            _packNames.put(dir, packNames(dir));
+            return List.copyOf(Pack.load(dir));
+        });
+    }
+
+    /** Returns the names of the files in the packs folder of GITLETDIR. */
+    private static List<String> packNames(File gitletDir) {
+        List<String> result = Utils.plainFilenamesIn(
+                new File(gitletDir, "packs"));
+        return result == null ? List.of() : result;
+    }
+
+    /** Returns the metadata directories of the current repository, whose
+     *  object directory DIR is, and of its alternates. */
+    private static List<File> repositories(File dir) {
+        List<File> result = new ArrayList<>();
+        result.add(dir.getParentFile());
+        result.addAll(alternates());
+        return result;
+    }
+
+    /** Returns the names of all objects in DIR and in the corresponding
+     *  directories of the alternates, loose or packed, in order. */
+    static List<String> list(File dir) {
+        Set<String> result = new TreeSet<>();
+        for (File gitletDir : repositories(dir)) {
+            List<String> names = Utils.plainFilenamesIn(
+                    new File(gitletDir, dir.getName()));
+            if (names != null) {
+                result.addAll(names);
+            }
+            for (Pack pack : packs(gitletDir)) {
+                result.addAll(pack.ids(dir.getName()));
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the .gitlet directories of the alternates of the current
+     *  repository, direct and indirect, nearest first. */
+    static List<File> alternates() {
+        return _alternates.computeIfAbsent(Main.getGitletDir(), dir -> {
+            Set<File> found = new LinkedHashSet<>();
+            addAlternates(dir, found);
+            found.remove(dir);
+            return List.copyOf(found);
+        });
+    }
+
+    /** Adds the alternates listed by the repository with metadata in
+     *  GITLETDIR, and theirs, to FOUND, skipping any already there. */
+    private static void addAlternates(File gitletDir, Set<File> found) {
+        File list = new File(gitletDir, "alternates");
+        if (!list.isFile()) {
+            return;
+        }
+        for (String line : Utils.readContentsAsString(list).split("\n")) {
+            File alternate = new File(line.trim());
+            if (!line.trim().isEmpty() && alternate.isDirectory()
+                    && found.add(alternate)) {
+                addAlternates(alternate, found);
+            }
+        }
+    }
+
+    /** Packs loaded, by the metadata directory holding them. **/
+    private static final ConcurrentHashMap<File, List<Pack>> _packs =
+            new ConcurrentHashMap<>();
+
+    /** Names of the files in each metadata directory's packs folder when
+     *  its packs were loaded. **/
+    private static final ConcurrentHashMap<File, List<String>> _packNames =
+            new ConcurrentHashMap<>();
+
+    /** Pack new objects are written into, or null. **/
+    private static Pack.Writer _batch;
+
+    /** Alternates, direct and indirect, by the metadata directory of the
+     *  repository listing them. **/
+    private static final ConcurrentHashMap<File, List<File>> _alternates =
+            new ConcurrentHashMap<>();
+}
@@ -0,0 +1,299 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/** A pack: many small objects (blobs, trees and commits) consolidated into
+ *  one file, so that the object folders stay small. A pack named NAME is
+ *  two files in .gitlet/packs: NAME.pack, the objects' serialized forms one
+ *  after another, and NAME.idx, a map from "FOLDER/ID" (as blobDump/ID) to
+ *  each object's offset and length in NAME.pack. The index is written after
+ *  the pack, both durably, so a pack is only ever seen whole. Packs are
+ *  never changed, only replaced by a larger one and deleted.
+ *
+ *  A pack keeps one channel on NAME.pack open from its first read, and
+ *  reads objects at their offsets through it, so reading many objects
+ *  costs one open, and threads can read at once. A pack deleted while
+ *  open stays readable through the channel until the process ends.
+ *  @author Frank Jin
+ */
+class Pack {
+
+    /** The pack whose index is IDX. */
+    @SuppressWarnings("unchecked")
+    Pack(File idx) {
+        String name = idx.getName();
+        _data = new File(idx.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        _index = idx;
+        _entries = Utils.readObject(idx, HashMap.class);
+    }
+
+    /** Returns the packs of the repository whose metadata is in GITLETDIR,
+     *  in order of name. */
+    static List<Pack> load(File gitletDir) {
+        List<Pack> result = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(
+                new File(gitletDir, "packs"));
+        if (names != null) {
+            for (String name : names) {
+                File idx = new File(new File(gitletDir, "packs"), name);
+                try {
+                    if (name.endsWith(".idx")) {
+                        result.add(new Pack(idx));
+                    }
+                } catch (IllegalArgumentException excp) {
+                    if (idx.exists()) {
+                        throw excp;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Writes a pack, in the repository whose metadata is in GITLETDIR, of
+     *  the objects whose keys ("FOLDER/ID") are KEYS, each stored loose or
+     *  in one of the packs OLD, in order, stopping at the first object
+     *  reached after DEADLINE (in milliseconds). Returns the new pack, or
+     *  null if no object was packed. */
+    static Pack write(File gitletDir, List<String> keys,
+                      List<Pack> old, long deadline) {
+        Writer writer = new Writer(gitletDir);
+        for (String key : keys) {
+            if (System.currentTimeMillis() > deadline) {
+                break;
+            }
+            writer.add(key, contents(gitletDir, key, old));
+        }
+        return writer.finish();
+    }
+
+    /** A pack being written, object by object, into a temporary file, and
+     *  published as a whole by finish. Objects already added can be read
+     *  back before then. */
+    static class Writer {
+        /** A new pack in the repository whose metadata is in GITLETDIR. */
+        Writer(File gitletDir) {
+            _gitletDir = gitletDir;
+            try {
+                _tmp = File.createTempFile("tmp", null, gitletDir);
+                _out = new FileOutputStream(_tmp);
+                _buffer = new BufferedOutputStream(_out, 1 << 16);
+            } catch (IOException excp) {
+                throw Utils.error("Unable to write a pack: %s",
+                        excp.getMessage());
+            }
+        }
+
+        /** Adds the serialized object CONTENTS with key KEY. */
+        void add(String key, byte[] contents) {
+            try {
+                _buffer.write(contents);
+            } catch (IOException excp) {
+                throw Utils.error("Unable to write a pack: %s",
+                        excp.getMessage());
+            }
+            _entries.put(key, new long[] {_length, contents.length});
+            _length += contents.length;
+        }
+
+        /** Returns true iff the object with key KEY was added. */
+        boolean contains(String key) {
+            return _entries.containsKey(key);
+        }
+
+        /** Returns the serialized object with key KEY, which was added. */
+        byte[] read(String key) {
+            try {
+                _buffer.flush();
+            } catch (IOException excp) {
+                throw Utils.error("Unable to write a pack: %s",
+                        excp.getMessage());
+            }
+            return Pack.read(_tmp, _entries.get(key));
+        }
+
+        /** Makes the pack durable and visible to readers, and returns it,
+         *  or returns null, leaving nothing behind, if it is empty. */
+        Pack finish() {
+            try {
+                _buffer.flush();
+                _out.getFD().sync();
+                _buffer.close();
+            } catch (IOException excp) {
+                throw Utils.error("Unable to write a pack: %s",
+                        excp.getMessage());
+            }
+            if (_entries.isEmpty()) {
+                _tmp.delete();
+                return null;
+            }
+            File dir = new File(_gitletDir, "packs");
+            dir.mkdirs();
+            String name = "pack-" + Utils.sha1(String.join("\n",
+                    new TreeSet<>(_entries.keySet())));
+            if (!_tmp.renameTo(new File(dir, name + ".pack"))) {
+                throw Utils.error("Unable to write a pack.");
+            }
+            File idx = new File(dir, name + ".idx");
+            Utils.writeContentsDurable(idx, _gitletDir,
+                    Utils.serialize(_entries));
+            return new Pack(idx);
+        }
+
+        /** Deletes the pack unpublished. */
+        void abort() {
+            try {
+                _buffer.close();
+            } catch (IOException excp) {
+                /* Ignore: the file is deleted anyway. */
+            }
+            _tmp.delete();
+        }
+
+        /** Metadata folder of the repository. **/
+        private final File _gitletDir;
+
+        /** The temporary file being written. **/
+        private final File _tmp;
+
+        /** Stream writing _tmp. **/
+        private final FileOutputStream _out;
+
+        /** Buffer in front of _out. **/
+        private final BufferedOutputStream _buffer;
+
+        /** Bytes added so far. **/
+        private long _length;
+
+        /** Offset and length of each object added, by key. **/
+        private final HashMap<String, long[]> _entries = new HashMap<>();
+    }
+
+    /** Returns the serialized object with key KEY in GITLETDIR, loose or in
+     *  one of PACKS. */
+    private static byte[] contents(File gitletDir, String key,
+                                   List<Pack> packs) {
+        File loose = new File(gitletDir, key);
+        if (loose.exists()) {
+            return Utils.readContents(loose);
+        }
+        for (Pack pack : packs) {
+            if (pack._entries.containsKey(key)) {
+                return pack.read(key);
+            }
+        }
+        throw Utils.error("Object %s is missing.", key);
+    }
+
+    /** Returns true iff this pack holds object ID of folder DIR. */
+    boolean contains(String dir, String id) {
+        return _entries.containsKey(dir + "/" + id);
+    }
+
+    /** Returns the serialized object ID of folder DIR, which this pack
+     *  must hold. Throws IllegalArgumentException if the pack is gone. */
+    byte[] read(String dir, String id) {
+        return read(dir + "/" + id);
+    }
+
+    /** Returns the serialized object with key KEY. */
+    private byte[] read(String key) {
+        long[] entry = _entries.get(key);
+        ByteBuffer result = ByteBuffer.allocate((int) entry[1]);
+        try {
+            FileChannel channel = channel();
+            while (result.hasRemaining()) {
+                if (channel.read(result, entry[0] + result.position()) < 0) {
+                    throw new IOException("Pack " + name() + " is short.");
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result.array();
+    }
+
+    /** Returns the channel reading this pack's objects, opening it on
+     *  first use. */
+    private synchronized FileChannel channel() throws IOException {
+        if (_channel == null) {
+            _channel = FileChannel.open(_data.toPath(),
+                    StandardOpenOption.READ);
+        }
+        return _channel;
+    }
+
+    /** Returns the bytes of DATA, a pack still being written, at the offset
+     *  and of the length ENTRY holds. */
+    private static byte[] read(File data, long[] entry) {
+        try (RandomAccessFile in = new RandomAccessFile(data, "r")) {
+            byte[] result = new byte[(int) entry[1]];
+            in.seek(entry[0]);
+            in.readFully(result);
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the ids of the objects of folder DIR this pack holds. */
+    List<String> ids(String dir) {
+        List<String> result = new ArrayList<>();
+        for (String key : _entries.keySet()) {
+            if (key.startsWith(dir + "/")) {
+                result.add(key.substring(dir.length() + 1));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the offset and length of every object this pack holds, by
+     *  key. */
+    Map<String, long[]> entries() {
+        return _entries;
+    }
+
+    /** Returns the name of this pack. */
+    String name() {
+        return _data.getName();
+    }
+
+    /** Deletes this pack, its index first, closing its channel. */
+    synchronized void delete() {
+        _index.delete();
+        if (_channel != null) {
+            try {
+                _channel.close();
+            } catch (IOException excp) {
+                /* Ignore: the file is deleted anyway. */
+            }
+            _channel = null;
+        }
+        _data.delete();
+    }
+
+    /** File holding the objects. **/
+    private final File _data;
+
+    /** File holding the index. **/
+    private final File _index;
+
+    /** Offset and length of each object, by key. **/
+    private final HashMap<String, long[]> _entries;
+
+    /** Channel reading _data, or null until the first read. **/
+    private FileChannel _channel;
+}
@@ -0,0 +1,284 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/** Reachability bitmaps: for selected commits, the set of commits reachable
+ *  from them, as a bit set over a dense numbering of commits. Counting or
+ *  listing the commits on one branch but not another is then set algebra
+ *  on two bitmaps rather than a walk of both histories.
+ *
+ *  The numbering is kept in .gitlet/commitIndex, as records of RECORD
+ *  bytes, "ID PARENT MERGE\n", where PARENT and MERGE are one more than the
+ *  numbers of the commit's parent and merge parent (0 if none), in ten
+ *  digits. A commit's number is the position of its record. Every commit is
+ *  numbered after its parents, and records are only ever appended, so a
+ *  number, and every bitmap using it, never goes stale. A record cut short
+ *  by a crash is ignored, and cut off before the next append. Commits are
+ *  numbered when a query first reaches them, and the numbering is only
+ *  read once a query needs it.
+ *
+ *  The bitmap of a commit is built by walking back from it through the
+ *  numbering, without reading commits, until reaching commits that have a
+ *  stored bitmap, whose bits are taken whole. Bitmaps are only stored for
+ *  selected commits, the branch heads, by maintenance (see store), compressed
+ *  (see Bitmap), in .gitlet/bitmaps, named by commit id, after the records
+ *  they use are durable. Both are derived data, safe to delete: without the
+ *  numbering, or with a damaged one, the bitmaps using it are dropped, and
+ *  so is a bitmap that does not fit the numbering it is read with.
+ *  @author Frank Jin
+ */
+class Reachability {
+
+    /** Length of a record of commitIndex, in bytes. */
+    private static final int RECORD = 63;
+
+    /** The bitmaps of the repository whose metadata lives in GITLETDIR. */
+    Reachability(File gitletDir) {
+        _index = new File(gitletDir, "commitIndex");
+        _bitmaps = new File(gitletDir, "bitmaps");
+        _commitDump = new File(gitletDir, "commitDump");
+        List<String> stored = Utils.plainFilenamesIn(_bitmaps);
+        if (stored != null && !_index.exists()) {
+            for (String name : stored) {
+                new File(_bitmaps, name).delete();
+            }
+        } else if (stored != null) {
+            _stored.addAll(stored);
+        }
+    }
+
+    /** Returns the commits reachable from commit ID, itself included. */
+    BitSet reachable(String id) {
+        BitSet stored = stored(id);
+        if (stored != null) {
+            return stored;
+        }
+        BitSet result = new BitSet();
+        Deque<Integer> todo = new ArrayDeque<>();
+        todo.push(number(id));
+        while (!todo.isEmpty()) {
+            int n = todo.pop();
+            if (result.get(n)) {
+                continue;
+            }
+            stored = stored(_ids.get(n));
+            if (stored != null) {
+                result.or(stored);
+                continue;
+            }
+            result.set(n);
+            for (int parent : new int[] {_parents.get(n), _merges.get(n)}) {
+                if (parent >= 0 && !result.get(parent)) {
+                    todo.push(parent);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the stored bitmap of commit ID, or null if it has none. A
+     *  bitmap that does not fit the numbering, because it does not hold ID
+     *  itself or holds commits past the last one numbered, is dropped, so
+     *  that the caller walks past it and maintenance stores it afresh. */
+    private BitSet stored(String id) {
+        load();
+        if (!_stored.contains(id)) {
+            return null;
+        }
+        BitSet bits = Bitmap.decompress(Utils.readContents(
+                new File(_bitmaps, id)));
+        Integer n = _numbers.get(id);
+        if (n == null || !bits.get(n) || bits.length() > _ids.size()) {
+            new File(_bitmaps, id).delete();
+            _stored.remove(id);
+            return null;
+        }
+        return bits;
+    }
+
+    /** Stores the bitmap of commit ID, so that later queries reaching it
+     *  stop there. */
+    void store(String id) {
+        if (!_stored.contains(id)) {
+            BitSet bits = reachable(id);
+            _bitmaps.mkdirs();
+            Utils.writeContentsAtomic(new File(_bitmaps, id), _bitmaps,
+                    Bitmap.compress(bits));
+            _stored.add(id);
+        }
+    }
+
+    /** Deletes the stored bitmaps of every commit but those in KEEP. */
+    void retain(Collection<String> keep) {
+        for (String id : new ArrayList<>(_stored)) {
+            if (!keep.contains(id)) {
+                new File(_bitmaps, id).delete();
+                _stored.remove(id);
+            }
+        }
+    }
+
+    /** Returns the number of commits numbered so far. */
+    int size() {
+        load();
+        return _ids.size();
+    }
+
+    /** Returns the id of the commit numbered N. */
+    String id(int n) {
+        load();
+        return _ids.get(n);
+    }
+
+    /** Returns the number of commit ID, numbering it, and every ancestor
+     *  not yet numbered, first. */
+    int number(String id) {
+        load();
+        if (_numbers.containsKey(id)) {
+            return _numbers.get(id);
+        }
+        int valid = _ids.size();
+        StringBuilder records = new StringBuilder();
+        Deque<String> todo = new ArrayDeque<>();
+        HashMap<String, Commit> read = new HashMap<>();
+        todo.push(id);
+        while (!todo.isEmpty()) {
+            String next = todo.peek();
+            if (_numbers.containsKey(next)) {
+                todo.pop();
+                continue;
+            }
+            Commit commit = read.computeIfAbsent(next,
+                    c -> ObjectStore.read(_commitDump, c, Commit.class));
+            List<String> missing = new ArrayList<>();
+            for (String parent : new String[] {commit.getPrevCommitID(),
+                commit.getMergeParent()}) {
+                if (parent != null && !_numbers.containsKey(parent)) {
+                    missing.add(parent);
+                }
+            }
+            if (missing.isEmpty()) {
+                todo.pop();
+                int parent = numberOf(commit.getPrevCommitID());
+                int merge = numberOf(commit.getMergeParent());
+                add(next, parent, merge);
+                records.append(String.format("%s %010d %010d\n", next,
+                        parent + 1, merge + 1));
+            } else {
+                missing.forEach(todo::push);
+            }
+        }
+        append((long) valid * RECORD,
+                records.toString().getBytes(StandardCharsets.US_ASCII));
+        return _numbers.get(id);
+    }
+
+    /** Reads the numbering, if it has not been read yet. Starts it afresh,
+     *  dropping the bitmaps, if a whole record is damaged. */
+    private void load() {
+        if (_loaded) {
+            return;
+        }
+        _loaded = true;
+        if (!_index.exists()) {
+            return;
+        }
+        byte[] contents = Utils.readContents(_index);
+        for (int n = 0; n < contents.length / RECORD; n += 1) {
+            String record = new String(contents, n * RECORD, RECORD,
+                    StandardCharsets.US_ASCII);
+            try {
+                if (record.charAt(40) != ' ' || record.charAt(51) != ' '
+                        || record.charAt(62) != '\n') {
+                    throw new NumberFormatException();
+                }
+                int parent = Integer.parseInt(record.substring(41, 51)) - 1;
+                int merge = Integer.parseInt(record.substring(52, 62)) - 1;
+                if (parent >= n || merge >= n) {
+                    throw new NumberFormatException();
+                }
+                add(record.substring(0, 40), parent, merge);
+            } catch (NumberFormatException excp) {
+                _index.delete();
+                retain(List.of());
+                _ids.clear();
+                _numbers.clear();
+                _parents.clear();
+                _merges.clear();
+                return;
+            }
+        }
+    }
+
+    /** Writes RECORDS to the numbering at offset END, cutting off whatever
+     *  follows it, such as a record left incomplete by a crash, and makes
+     *  them durable. */
+    private void append(long end, byte[] records) {
+        try (FileChannel out = FileChannel.open(_index.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            out.truncate(end);
+            out.position(end);
+            ByteBuffer buffer = ByteBuffer.wrap(records);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(false);
+        } catch (IOException excp) {
+            throw Utils.error("Unable to write %s.", _index);
+        }
+    }
+
+    /** Returns the number of commit ID, or -1 if ID is null. */
+    private int numberOf(String id) {
+        return id == null ? -1 : _numbers.get(id);
+    }
+
+    /** Numbers commit ID next, with parent PARENT and merge parent MERGE
+     *  (numbers, or -1 if none). */
+    private void add(String id, int parent, int merge) {
+        _numbers.putIfAbsent(id, _ids.size());
+        _ids.add(id);
+        _parents.add(parent);
+        _merges.add(merge);
+    }
+
+    /** Whether the numbering has been read. **/
+    private boolean _loaded;
+
+    /** File holding the numbering. **/
+    private final File _index;
+
+    /** Folder holding the stored bitmaps. **/
+    private final File _bitmaps;
+
+    /** Folder holding commits. **/
+    private final File _commitDump;
+
+    /** Ids of the commits with stored bitmaps. **/
+    private final HashSet<String> _stored = new HashSet<>();
+
+    /** Commit ids, by number. **/
+    private final List<String> _ids = new ArrayList<>();
+
+    /** Commit numbers, by id. **/
+    private final HashMap<String, Integer> _numbers = new HashMap<>();
+
+    /** Number of each commit's parent, or -1, by number. **/
+    private final List<Integer> _parents = new ArrayList<>();
+
+    /** Number of each commit's merge parent, or -1, by number. **/
+    private final List<Integer> _merges = new ArrayList<>();
+}
@@ -0,0 +1,83 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeSet;
+
+/** The state of a rebase stopped by a conflict, kept in the worktree's
+ *  private metadata folder, in the file rebase, until it is continued or
+ *  aborted: the commit the branch pointed to when it started, the commit
+ *  whose replay conflicted, the files that conflicted, and the commits
+ *  still to replay.
+ *  @author Frank Jin
+ */
+class Rebase implements Serializable {
+    /** Fixed so that a stopped rebase stays readable as methods are added
+     *  to this class. **/
+    private static final long serialVersionUID = 8774639027492596581L;
+
+    /** A rebase of the branch that pointed to commit ORIGHEAD. */
+    Rebase(String origHead) {
+        _origHead = origHead;
+    }
+
+    /** Returns the rebase stopped in the worktree whose private metadata
+     *  is in STATEDIR, or null if there is none. */
+    static Rebase load(File stateDir) {
+        File file = new File(stateDir, "rebase");
+        return file.exists() ? Utils.readObject(file, Rebase.class) : null;
+    }
+
+    /** Saves this rebase in STATEDIR. */
+    void save(File stateDir) {
+        Utils.writeObjectAtomic(new File(stateDir, "rebase"), stateDir,
+                this);
+    }
+
+    /** Ends the rebase stopped in STATEDIR, if any. */
+    static void clear(File stateDir) {
+        new File(stateDir, "rebase").delete();
+    }
+
+    /** Returns the commit the branch pointed to before the rebase. */
+    String getOrigHead() {
+        return _origHead;
+    }
+
+    /** Returns the commit whose replay conflicted, or null. */
+    String getStopped() {
+        return _stopped;
+    }
+
+    /** Returns the commits still to replay, in order. */
+    LinkedList<String> getTodo() {
+        return _todo;
+    }
+
+    /** Returns the files whose replay conflicted. */
+    TreeSet<String> getConflicts() {
+        return _conflicts;
+    }
+
+    /** Records that replaying commit ID conflicted in files CONFLICTS, with
+     *  TODO left. */
+    void stop(String id, List<String> conflicts, LinkedList<String> todo) {
+        _stopped = id;
+        _conflicts = new TreeSet<>(conflicts);
+        _todo = todo;
+    }
+
+    /** Commit the branch pointed to before the rebase. **/
+    private final String _origHead;
+
+    /** Commit whose replay conflicted. **/
+    private String _stopped;
+
+    /** Files whose replay conflicted. **/
+    private TreeSet<String> _conflicts = new TreeSet<>();
+
+    /** Commits still to replay. **/
+    private LinkedList<String> _todo = new LinkedList<>();
+}
@@ -0,0 +1,222 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** The reflog of one ref (HEAD or a branch): every value the ref took, with
+ *  the time and the command that moved it, so that commits a reset or a
+ *  checkout left behind can be found again without scanning every commit.
+ *
+ *  A reflog is a file of fixed-size records, only ever appended to, oldest
+ *  first. A record is RECORD bytes: the old and new commit ids (dashes for
+ *  none), the time in milliseconds since the epoch, and the start of the
+ *  message, UTF-8, padded with zeros. Times never decrease along the file
+ *  (a record is never dated before the one it follows), so the file is its
+ *  own time index: the n-th newest entry is one seek away, and the entry
+ *  current at a given time is found by binary search, in O(log n) reads
+ *  however long the reflog grows. A record torn by a crash is ignored,
+ *  and cut off by the next append.
+ *  @author Frank Jin
+ */
+class Reflog {
+
+    /** Bytes in a record. */
+    static final int RECORD = 160;
+
+    /** Bytes of a record holding the message. */
+    static final int MESSAGE = RECORD - 2 * Utils.UID_LENGTH - Long.BYTES;
+
+    /** Stands for a missing commit id. */
+    private static final String NONE = "-".repeat(Utils.UID_LENGTH);
+
+    /** One record. */
+    static class Entry {
+        /** An entry for a move from OLD to NOW (ids, null if none) at TIME
+         *  (in milliseconds) by MESSAGE. */
+        Entry(String old, String now, long time, String message) {
+            _old = old;
+            _now = now;
+            _time = time;
+            _message = message;
+        }
+
+        /** Returns the id the ref had before, or null. */
+        String getOld() {
+            return _old;
+        }
+
+        /** Returns the id the ref took, or null if it was deleted. */
+        String getNow() {
+            return _now;
+        }
+
+        /** Returns when the ref moved, in milliseconds since the epoch. */
+        long getTime() {
+            return _time;
+        }
+
+        /** Returns the (possibly shortened) message. */
+        String getMessage() {
+            return _message;
+        }
+
+        /** Old id. **/
+        private final String _old;
+
+        /** New id. **/
+        private final String _now;
+
+        /** Time of the move. **/
+        private final long _time;
+
+        /** What moved the ref. **/
+        private final String _message;
+    }
+
+    /** The reflog kept in FILE. */
+    Reflog(File file) {
+        _file = file;
+    }
+
+    /** Records that the ref moved from OLD to NOW (ids, null if none) by
+     *  MESSAGE, now. */
+    void append(String old, String now, String message) {
+        _file.getParentFile().mkdirs();
+        try (RandomAccessFile out = new RandomAccessFile(_file, "rw")) {
+            long count = out.length() / RECORD;
+            long time = System.currentTimeMillis();
+            if (count > 0) {
+                time = Math.max(time, read(out, count - 1).getTime());
+            }
+            ByteBuffer record = ByteBuffer.allocate(RECORD);
+            record.put((old == null ? NONE : old)
+                    .getBytes(StandardCharsets.US_ASCII));
+            record.put((now == null ? NONE : now)
+                    .getBytes(StandardCharsets.US_ASCII));
+            record.putLong(time);
+            record.put(truncate(message));
+            out.setLength(count * RECORD);
+            out.seek(count * RECORD);
+            out.write(record.array());
+        } catch (IOException excp) {
+            throw Utils.error("Unable to write %s.", _file);
+        }
+    }
+
+    /** Returns the number of entries. */
+    long size() {
+        return _file.length() / RECORD;
+    }
+
+    /** Returns the N-th newest entry (0 for the newest), or null if there
+     *  are not that many. */
+    Entry get(long n) {
+        long count = size();
+        if (n < 0 || n >= count) {
+            return null;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(_file, "r")) {
+            return read(in, count - 1 - n);
+        } catch (IOException excp) {
+            throw Utils.error("Unable to read %s.", _file);
+        }
+    }
+
+    /** Returns the newest entry made at or before TIME (in milliseconds),
+     *  or null if the reflog starts later. */
+    Entry at(long time) {
+        try (RandomAccessFile in = new RandomAccessFile(_file, "r")) {
+            long n = count(in, time);
+            return n == 0 ? null : read(in, n - 1);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the oldest entry made at or after TIME (in milliseconds)
+     *  that moved the ref to ID, or null if there is none. Only the entries
+     *  from TIME on are read. */
+    Entry first(String id, long time) {
+        try (RandomAccessFile in = new RandomAccessFile(_file, "r")) {
+            long count = in.length() / RECORD;
+            for (long i = count(in, time - 1); i < count; i += 1) {
+                Entry entry = read(in, i);
+                if (id.equals(entry.getNow())) {
+                    return entry;
+                }
+            }
+            return null;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Deletes this reflog. */
+    void delete() {
+        _file.delete();
+    }
+
+    /** Returns the number of entries of IN made at or before TIME (in
+     *  milliseconds), by binary search. */
+    private static long count(RandomAccessFile in, long time)
+            throws IOException {
+        long lo = 0;
+        long hi = in.length() / RECORD;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (read(in, mid).getTime() <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns record I of IN. */
+    private static Entry read(RandomAccessFile in, long i)
+            throws IOException {
+        byte[] record = new byte[RECORD];
+        in.seek(i * RECORD);
+        in.readFully(record);
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        String old = id(record, 0);
+        String now = id(record, Utils.UID_LENGTH);
+        long time = buffer.getLong(2 * Utils.UID_LENGTH);
+        int end = RECORD;
+        while (end > RECORD - MESSAGE && record[end - 1] == 0) {
+            end -= 1;
+        }
+        return new Entry(old, now, time, new String(record,
+                RECORD - MESSAGE, end - (RECORD - MESSAGE),
+                StandardCharsets.UTF_8));
+    }
+
+    /** Returns the id at OFFSET in RECORD, or null if there is none. */
+    private static String id(byte[] record, int offset) {
+        String result = new String(record, offset, Utils.UID_LENGTH,
+                StandardCharsets.US_ASCII);
+        return result.equals(NONE) ? null : result;
+    }
+
+    /** Returns MESSAGE in UTF-8, cut to at most MESSAGE bytes without
+     *  splitting a character. */
+    private static byte[] truncate(String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MESSAGE) {
+            return bytes;
+        }
+        int end = MESSAGE;
+        while ((bytes[end] & 0xC0) == 0x80) {
+            end -= 1;
+        }
+        return Arrays.copyOf(bytes, end);
+    }
+
+    /** File holding the records. **/
+    private final File _file;
+}
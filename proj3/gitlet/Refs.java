@@ -0,0 +1,289 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/** The refs of a repository, each in a small file of its own, so that a
+ *  command that moves one branch rewrites one file rather than the whole
+ *  repository state, and the state does not grow with the branches:
+ *
+ *  - .gitlet/refs/heads/NAME holds the id of the head of branch NAME;
+ *  - .gitlet/packed-refs holds lines "ID refs/heads/NAME" for branches whose
+ *    files were consolidated into it (see pack), for which a file in
+ *    refs/heads, if any, takes precedence;
+ *  - the private folder of each worktree (.gitlet itself for the main one)
+ *    holds HEAD, a symbolic ref "ref: refs/heads/NAME" naming the branch
+ *    checked out, followed by the id of the commit checked out when that is
+ *    not the branch's head (as during a bisection); removed, the files
+ *    staged for removal, one per line; and staged, lines "BLOB NAME" for
+ *    the files staged for addition.
+ *
+ *  Each file is replaced atomically and durably, after the objects it
+ *  refers to, so a lock-free reader sees each ref either before or after a
+ *  move. A writer replaces the branches and HEAD before staged and removed
+ *  (see CommitTree.saveRefs), so a crash in a command that both moves a
+ *  branch and empties the staging area, as commit does, leaves at worst
+ *  files staged that the branch already holds, and never loses staged
+ *  changes. A reader reads every file again after reading them all, and
+ *  starts over if any changed (see CommitTree.loadRefs).
+ *  Reading every branch costs one read of packed-refs plus one per loose
+ *  file, which pack, run by maintenance, keeps few.
+ *  @author Frank Jin
+ */
+class Refs {
+
+    /** Prefix of the names of branch refs. */
+    static final String HEADS = "refs/heads/";
+
+    /** The refs of the repository whose metadata is in GITLETDIR. */
+    Refs(File gitletDir) {
+        _gitletDir = gitletDir;
+        _loose = Utils.join(gitletDir, "refs", "heads");
+        _packed = new File(gitletDir, "packed-refs");
+    }
+
+    /** Returns true iff NAME can name a branch alongside BRANCHES: its
+     *  file must lie in refs/heads, so it has no empty, "." or ".."
+     *  components, and no branch may be another's folder. */
+    static boolean valid(String name, Collection<String> branches) {
+        for (String part : name.split("/", -1)) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..")) {
+                return false;
+            }
+        }
+        if (name.contains("\\") || name.contains("\n")) {
+            return false;
+        }
+        for (String other : branches) {
+            if (other.startsWith(name + "/") || name.startsWith(other + "/")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the head of every branch, by branch name. */
+    TreeMap<String, String> branches() {
+        TreeMap<String, String> loose = new TreeMap<>();
+        for (String name : looseNames()) {
+            File file = new File(_loose, name);
+            if (file.isFile()) {
+                try {
+                    loose.put(name, Utils.readContentsAsString(file).trim());
+                } catch (IllegalArgumentException excp) {
+                    if (file.exists()) {
+                        throw excp;
+                    }
+                }
+            }
+        }
+        TreeMap<String, String> result = packed();
+        result.putAll(loose);
+        return result;
+    }
+
+    /** Writes the branches of AFTER that differ from BEFORE, and deletes
+     *  those of BEFORE not in AFTER. Both map names to heads. A deleted
+     *  branch leaves packed-refs before its file goes, so that a reader
+     *  never sees it at an older head. */
+    void update(Map<String, String> before, Map<String, String> after) {
+        for (Map.Entry<String, String> branch : after.entrySet()) {
+            if (branch.getValue() != null && !Objects.equals(branch.getValue(),
+                    before.get(branch.getKey()))) {
+                File file = new File(_loose, branch.getKey());
+                file.getParentFile().mkdirs();
+                Utils.writeContentsDurable(file, _gitletDir,
+                        (branch.getValue() + "\n")
+                                .getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        TreeMap<String, String> packed = null;
+        for (String name : before.keySet()) {
+            if (!after.containsKey(name)) {
+                packed = packed == null ? packed() : packed;
+                if (packed.remove(name) != null) {
+                    writePacked(packed);
+                }
+                new File(_loose, name).delete();
+            }
+        }
+    }
+
+    /** Returns the number of branches in loose files. */
+    int looseCount() {
+        return looseNames().size();
+    }
+
+    /** Moves every branch into packed-refs, deleting the loose files. */
+    void pack() {
+        TreeMap<String, String> branches = branches();
+        writePacked(branches);
+        for (String name : looseNames()) {
+            new File(_loose, name).delete();
+        }
+    }
+
+    /** Returns the branches in packed-refs, by name. */
+    private TreeMap<String, String> packed() {
+        TreeMap<String, String> result = new TreeMap<>();
+        if (_packed.isFile()) {
+            for (String line
+                    : Utils.readContentsAsString(_packed).split("\n")) {
+                int space = line.indexOf(' ');
+                if (space > 0 && line.startsWith(HEADS, space + 1)) {
+                    result.put(line.substring(space + 1 + HEADS.length()),
+                            line.substring(0, space));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Replaces packed-refs with BRANCHES, which maps names to heads. */
+    private void writePacked(TreeMap<String, String> branches) {
+        StringBuilder contents = new StringBuilder();
+        for (Map.Entry<String, String> branch : branches.entrySet()) {
+            contents.append(branch.getValue()).append(' ').append(HEADS)
+                    .append(branch.getKey()).append('\n');
+        }
+        Utils.writeContentsDurable(_packed, _gitletDir, contents.toString()
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the names of the branches in loose files, including those
+     *  in subfolders, as "FOLDER/NAME". */
+    private List<String> looseNames() {
+        List<String> result = new ArrayList<>();
+        addNames(_loose, "", result);
+        return result;
+    }
+
+    /** Adds the names of the files under DIR, with PREFIX, to RESULT. */
+    private static void addNames(File dir, String prefix,
+                                 List<String> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addNames(file, prefix + file.getName() + "/", result);
+            } else {
+                result.add(prefix + file.getName());
+            }
+        }
+    }
+
+    /** Returns the branch checked out in the worktree whose private folder
+     *  is STATEDIR, or null if it has no HEAD. */
+    static String branch(File stateDir) {
+        String[] lines = head(stateDir);
+        return lines == null ? null
+                : lines[0].substring(("ref: " + HEADS).length());
+    }
+
+    /** Returns the commit checked out in the worktree whose private folder
+     *  is STATEDIR if it is not its branch's head, or else null. */
+    static String detached(File stateDir) {
+        String[] lines = head(stateDir);
+        return lines == null || lines.length < 2 ? null : lines[1];
+    }
+
+    /** Makes BRANCH the branch checked out in the worktree whose private
+     *  folder is STATEDIR, at commit DETACHED if that is not the branch's
+     *  head (else null). */
+    static void writeHead(File stateDir, String branch, String detached) {
+        String contents = "ref: " + HEADS + branch + "\n"
+                + (detached == null ? "" : detached + "\n");
+        Utils.writeContentsDurable(new File(stateDir, "HEAD"), stateDir,
+                contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the lines of HEAD in STATEDIR, or null if there is none. */
+    private static String[] head(File stateDir) {
+        File head = new File(stateDir, "HEAD");
+        if (!head.isFile()) {
+            return null;
+        }
+        String contents = Utils.readContentsAsString(head);
+        if (!contents.startsWith("ref: " + HEADS)) {
+            throw Utils.error("Corrupt HEAD in %s.", stateDir);
+        }
+        return contents.split("\n");
+    }
+
+    /** Returns the files staged for removal in the worktree whose private
+     *  folder is STATEDIR. */
+    static ArrayList<String> removed(File stateDir) {
+        File file = new File(stateDir, "removed");
+        ArrayList<String> result = new ArrayList<>();
+        if (file.isFile()) {
+            for (String name
+                    : Utils.readContentsAsString(file).split("\n")) {
+                if (!name.isEmpty()) {
+                    result.add(name);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Records REMOVED as the files staged for removal in the worktree
+     *  whose private folder is STATEDIR. */
+    static void writeRemoved(File stateDir, List<String> removed) {
+        StringBuilder contents = new StringBuilder();
+        for (String name : removed) {
+            contents.append(name).append('\n');
+        }
+        Utils.writeContentsDurable(new File(stateDir, "removed"), stateDir,
+                contents.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the files staged for addition in the worktree whose private
+     *  folder is STATEDIR, mapped to their staged blobs. */
+    static TreeMap<String, String> staged(File stateDir) {
+        File file = new File(stateDir, "staged");
+        TreeMap<String, String> result = new TreeMap<>();
+        if (file.isFile()) {
+            for (String line
+                    : Utils.readContentsAsString(file).split("\n")) {
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    result.put(line.substring(space + 1),
+                            line.substring(0, space));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Records STAGED, which maps files to their staged blobs, as the files
+     *  staged for addition in the worktree whose private folder is
+     *  STATEDIR. */
+    static void writeStaged(File stateDir, Map<String, String> staged) {
+        StringBuilder contents = new StringBuilder();
+        for (Map.Entry<String, String> file : staged.entrySet()) {
+            contents.append(file.getValue()).append(' ')
+                    .append(file.getKey()).append('\n');
+        }
+        Utils.writeContentsDurable(new File(stateDir, "staged"), stateDir,
+                contents.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Metadata folder of the repository. **/
+    private final File _gitletDir;
+
+    /** Folder of the loose branch files. **/
+    private final File _loose;
+
+    /** The packed-refs file. **/
+    private final File _packed;
+}
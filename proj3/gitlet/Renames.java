@@ -0,0 +1,206 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Rename detection between two snapshots. Given the files one side
+ *  deleted and the files it added, pairs them up as renames: first the ones
+ *  with identical contents (and so, blobs), then the ones whose contents are
+ *  at least MIN_SIMILARITY percent alike.
+ *
+ *  Similarity is the Jaccard similarity of the sets of lines of two blobs,
+ *  estimated from MinHash sketches: SKETCH hashes of each line, of which a
+ *  sketch keeps the smallest per hash function. The fraction of positions
+ *  at which two sketches agree estimates their similarity. Sketches are
+ *  cached per blob in .gitlet/sketches, so each blob is read once. Candidate
+ *  pairs are found by locality-sensitive hashing: sketches are cut into
+ *  bands, and only files sharing a band are compared, so the work grows
+ *  with the number of files rather than the number of pairs.
+ *  @author Frank Jin
+ */
+class Renames {
+
+    /** Percentage of lines two files must share to be a rename. */
+    static final int MIN_SIMILARITY = 50;
+
+    /** Number of hash functions in a sketch. */
+    static final int SKETCH = 64;
+
+    /** Number of hashes per band. With 32 bands of 2, files that are half
+     *  alike share a band with near certainty. */
+    private static final int ROWS = 2;
+
+    /** Detector for the repository whose metadata lives in GITLETDIR, with
+     *  staged blobs in ADDSTAGING. */
+    Renames(File gitletDir, File addStaging) {
+        _blobDump = new File(gitletDir, "blobDump");
+        _addStaging = addStaging;
+        _cacheDir = new File(gitletDir, "sketches");
+    }
+
+    /** Returns the renames among DELETED and ADDED, each of which maps paths
+     *  to blobs, as a map from the old path to the new. Every path is in at
+     *  most one rename. */
+    TreeMap<String, String> detect(Map<String, String> deleted,
+                                   Map<String, String> added) {
+        TreeMap<String, String> result = new TreeMap<>();
+        HashMap<String, String> byBlob = new HashMap<>();
+        for (Map.Entry<String, String> file : deleted.entrySet()) {
+            byBlob.putIfAbsent(file.getValue(), file.getKey());
+        }
+        HashSet<String> paired = new HashSet<>();
+        for (Map.Entry<String, String> file : added.entrySet()) {
+            String from = byBlob.remove(file.getValue());
+            if (from != null) {
+                result.put(from, file.getKey());
+                paired.add(file.getKey());
+            }
+        }
+
+        HashMap<String, int[]> sketches = new HashMap<>();
+        HashMap<String, List<String>> buckets = new HashMap<>();
+        for (Map.Entry<String, String> file : deleted.entrySet()) {
+            if (!result.containsKey(file.getKey())) {
+                int[] sketch = sketch(file.getValue());
+                if (sketch != null) {
+                    sketches.put(file.getKey(), sketch);
+                    for (int b = 0; b < SKETCH; b += ROWS) {
+                        buckets.computeIfAbsent(band(sketch, b),
+                                k -> new ArrayList<>()).add(file.getKey());
+                    }
+                }
+            }
+        }
+        List<Object[]> pairs = new ArrayList<>();
+        for (Map.Entry<String, String> file : added.entrySet()) {
+            if (paired.contains(file.getKey()) || sketches.isEmpty()) {
+                continue;
+            }
+            int[] sketch = sketch(file.getValue());
+            if (sketch == null) {
+                continue;
+            }
+            HashSet<String> seen = new HashSet<>();
+            for (int b = 0; b < SKETCH; b += ROWS) {
+                for (String from : buckets.getOrDefault(band(sketch, b),
+                        List.of())) {
+                    if (seen.add(from)) {
+                        int score = similarity(sketches.get(from), sketch);
+                        if (score >= MIN_SIMILARITY) {
+                            pairs.add(new Object[] {score, from,
+                                file.getKey()});
+                        }
+                    }
+                }
+            }
+        }
+        pairs.sort((p, q) -> {
+            int c = Integer.compare((int) q[0], (int) p[0]);
+            if (c == 0) {
+                c = ((String) p[2]).compareTo((String) q[2]);
+            }
+            return c != 0 ? c : ((String) p[1]).compareTo((String) q[1]);
+        });
+        for (Object[] pair : pairs) {
+            String from = (String) pair[1], to = (String) pair[2];
+            if (!result.containsKey(from) && paired.add(to)) {
+                result.put(from, to);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the percentage of positions at which sketches A and B
+     *  agree. */
+    static int similarity(int[] a, int[] b) {
+        int same = 0;
+        for (int i = 0; i < SKETCH; i += 1) {
+            if (a[i] == b[i]) {
+                same += 1;
+            }
+        }
+        return same * 100 / SKETCH;
+    }
+
+    /** Returns the key of the band of SKETCH starting at position START. */
+    private static String band(int[] sketch, int start) {
+        StringBuilder key = new StringBuilder().append(start);
+        for (int i = start; i < start + ROWS; i += 1) {
+            key.append(':').append(sketch[i]);
+        }
+        return key.toString();
+    }
+
+    /** Returns the sketch of blob ID, or null if it has no lines. */
+    private int[] sketch(String id) {
+        File cached = new File(_cacheDir, id);
+        if (cached.exists()) {
+            int[] sketch = Utils.readObject(cached, int[].class);
+            return sketch.length == 0 ? null : sketch;
+        }
+        Blob blob = ObjectStore.exists(_blobDump, id)
+                ? ObjectStore.read(_blobDump, id, Blob.class)
+                : Utils.readObject(new File(_addStaging, id), Blob.class);
+        int[] sketch = sketch(blob);
+        _cacheDir.mkdirs();
+        Utils.writeObjectAtomic(cached, Main.getGitletDir(),
+                sketch == null ? new int[0] : sketch);
+        return sketch;
+    }
+
+    /** Returns the sketch of the lines of BLOB, or null if there are none.
+     *  The blob is read as a stream, a line at a time, so it may be of any
+     *  size. */
+    static int[] sketch(Blob blob) {
+        int[] result = new int[SKETCH];
+        Arrays.fill(result, Integer.MAX_VALUE);
+        boolean[] empty = {true};
+        Blame.lines(blob.open(), line -> {
+            empty[0] = false;
+            long hash = 0xcbf29ce484222325L;
+            for (byte b : line.getBytes(StandardCharsets.UTF_8)) {
+                hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+            }
+            for (int i = 0; i < SKETCH; i += 1) {
+                int h = (int) (mix(hash + SEEDS[i]) >>> 33);
+                if (h < result[i]) {
+                    result[i] = h;
+                }
+            }
+        });
+        return empty[0] ? null : result;
+    }
+
+    /** Returns X with its bits thoroughly mixed (the SplitMix64
+     *  finalizer). */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /** Offsets that turn one line hash into SKETCH independent ones. **/
+    private static final long[] SEEDS = new long[SKETCH];
+
+    static {
+        for (int i = 0; i < SKETCH; i += 1) {
+            SEEDS[i] = mix(0x9e3779b97f4a7c15L * (i + 1));
+        }
+    }
+
+    /** Where committed blobs live. **/
+    private final File _blobDump;
+
+    /** Where staged blobs live. **/
+    private final File _addStaging;
+
+    /** Where sketches are cached. **/
+    private final File _cacheDir;
+}
@@ -0,0 +1,71 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+/** The writer lock of a repository. Any command that changes the
+ *  repository holds an exclusive OS-level lock on .gitlet/lock for its whole
+ *  run, so two writers are serialized rather than interleaved. Readers never
+ *  take this lock: they read commitTreeFile and the refs once, which writers
+ *  only ever replace atomically, each file a whole (see Refs), and after that
+ *  only touch commits and blobs, which are never modified once written.
+ *  The lock is released by the OS if the holding process dies, so a crashed
+ *  writer cannot leave a stale lock behind.
+ *  @author Frank Jin
+ */
+class RepoLock implements AutoCloseable {
+
+    /** Blocks until the writer lock of the repository whose metadata lives in
+     *  GITLETDIR is free, then takes it. */
+    RepoLock(File gitletDir) {
+        this(gitletDir, true);
+    }
+
+    /** Takes the writer lock of the repository whose metadata lives in
+     *  GITLETDIR, waiting for it to be free iff WAIT. */
+    private RepoLock(File gitletDir, boolean wait) {
+        try {
+            _channel = FileChannel.open(new File(gitletDir, "lock").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            _lock = wait ? _channel.lock() : _channel.tryLock();
+        } catch (IOException excp) {
+            throw Utils.error("Unable to lock the repository: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /** Takes the writer lock of the repository whose metadata lives in
+     *  GITLETDIR if it is free, and returns it, or returns null at once if
+     *  another process holds it. */
+    static RepoLock tryAcquire(File gitletDir) {
+        RepoLock result = new RepoLock(gitletDir, false);
+        if (result._lock == null) {
+            result.close();
+            return null;
+        }
+        return result;
+    }
+
+    /** Releases the lock. */
+    @Override
+    public void close() {
+        try {
+            if (_lock != null) {
+                _lock.release();
+            }
+            _channel.close();
+        } catch (IOException excp) {
+            throw Utils.error("Unable to unlock the repository: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /** Channel on the lock file. **/
+    private final FileChannel _channel;
+
+    /** The lock held on _channel. **/
+    private final FileLock _lock;
+}
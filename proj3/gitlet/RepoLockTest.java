@@ -0,0 +1,92 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of the writer lock: writers wait for each other, and readers
+ *  neither wait for writers nor see half of a write.
+ *  @author Frank Jin
+ */
+public class RepoLockTest {
+
+    /** A writer waits while another process holds the lock, and a reader
+     *  runs meanwhile, seeing the repository as it was. */
+    @Test
+    public void writerWaitsForLock() throws InterruptedException {
+        try (TestRepo repo = new TestRepo()) {
+            Process writer;
+            try (RepoLock lock = new RepoLock(repo.gitletDir())) {
+                writer = repo.start("branch", "other");
+                assertFalse(writer.waitFor(1, TimeUnit.SECONDS));
+                String status = repo.run("status");
+                assertTrue(status, status.contains("*master"));
+                assertFalse(status, status.contains("other"));
+            }
+            TestRepo.output(writer);
+            assertTrue(repo.run("status").contains("other"));
+        }
+    }
+
+    /** Writers started together all take effect. */
+    @Test
+    public void writersAreSerialized() {
+        try (TestRepo repo = new TestRepo()) {
+            List<Process> writers = new ArrayList<>();
+            for (int i = 0; i < WRITERS; i += 1) {
+                writers.add(repo.start("branch", "b" + i));
+            }
+            for (Process writer : writers) {
+                TestRepo.output(writer);
+            }
+            String status = repo.run("status");
+            for (int i = 0; i < WRITERS; i += 1) {
+                assertTrue(status, status.contains("b" + i + "\n"));
+            }
+        }
+    }
+
+    /** Readers running while a writer makes commits see each commit
+     *  either whole or not at all, and never fail. */
+    @Test
+    public void readersDuringCommits() throws InterruptedException {
+        try (TestRepo repo = new TestRepo()) {
+            List<Throwable> failures = new ArrayList<>();
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < COMMITS; i += 1) {
+                        repo.write("f.txt", "version " + i);
+                        repo.run("add", "f.txt");
+                        repo.run("commit", "version " + i);
+                    }
+                } catch (Throwable excp) {
+                    failures.add(excp);
+                }
+            });
+            writer.start();
+            int seen = 1;
+            while (writer.isAlive()) {
+                String log = repo.run("log");
+                int commits = log.split("===", -1).length - 1;
+                assertTrue(log, commits >= seen && commits <= COMMITS + 1);
+                seen = commits;
+                String status = repo.run("status");
+                assertTrue(status, status.startsWith("=== Branches ===\n"
+                        + "*master\n"));
+            }
+            writer.join();
+            assertEquals(List.of(), failures);
+            assertEquals(COMMITS + 1,
+                    repo.run("log").split("===", -1).length - 1);
+        }
+    }
+
+    /** Number of writers started together. */
+    private static final int WRITERS = 5;
+
+    /** Number of commits made while readers run. */
+    private static final int COMMITS = 8;
+}
@@ -0,0 +1,139 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/** The sparse-checkout patterns of a worktree, kept one per line in the
+ *  file sparse in its private metadata folder. Only files matched by a
+ *  pattern, or inside a directory matched by one, are written to the
+ *  working directory, compared with it, or looked for in it. Patterns are
+ *  globs over slash-separated paths: "*" matches within one name, "**"
+ *  across names. Without patterns, every file is included.
+ *  @author Frank Jin
+ */
+class Sparse {
+
+    /** Patterns PATTERNS. Throws a PatternSyntaxException if one of them
+     *  is not a valid glob. */
+    Sparse(List<String> patterns) {
+        _patterns = new ArrayList<>(patterns);
+        _matchers = new ArrayList<>();
+        for (String pattern : _patterns) {
+            _matchers.add(FileSystems.getDefault().getPathMatcher(
+                    "glob:" + pattern));
+        }
+    }
+
+    /** Returns the patterns of the worktree whose private metadata is in
+     *  STATEDIR. */
+    static Sparse load(File stateDir) {
+        File file = new File(stateDir, "sparse");
+        List<String> patterns = new ArrayList<>();
+        if (file.exists()) {
+            for (String line
+                    : Utils.readContentsAsString(file).split("\n")) {
+                if (!line.trim().isEmpty()) {
+                    patterns.add(line.trim());
+                }
+            }
+        }
+        return new Sparse(patterns);
+    }
+
+    /** Saves these patterns in STATEDIR, or deletes them if there are
+     *  none. */
+    void save(File stateDir) {
+        File file = new File(stateDir, "sparse");
+        if (_patterns.isEmpty()) {
+            file.delete();
+        } else {
+            Utils.writeContentsAtomic(file, stateDir,
+                    String.join("\n", _patterns) + "\n");
+        }
+    }
+
+    /** Returns the patterns, in the order given. */
+    List<String> patterns() {
+        return _patterns;
+    }
+
+    /** Returns true iff every file is included. */
+    boolean all() {
+        return _patterns.isEmpty();
+    }
+
+    /** Returns true iff the file at PATH is included: some pattern matches
+     *  it or one of the directories containing it. */
+    boolean includes(String path) {
+        if (all()) {
+            return true;
+        }
+        for (String p = path; p != null;
+             p = p.contains("/") ? p.substring(0, p.lastIndexOf('/')) : null) {
+            for (PathMatcher matcher : _matchers) {
+                if (matcher.matches(Paths.get(p))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns false only if no file under directory DIR is included, so
+     *  that DIR need not be looked at. */
+    boolean mayContain(String dir) {
+        if (all()) {
+            return true;
+        }
+        String[] names = dir.split("/");
+        for (String pattern : _patterns) {
+            String[] parts = pattern.split("/");
+            boolean matches = true;
+            for (int i = 0; i < Math.min(parts.length, names.length); i += 1) {
+                if (parts[i].contains("**")) {
+                    break;
+                } else if (!FileSystems.getDefault().getPathMatcher(
+                        "glob:" + parts[i]).matches(Paths.get(names[i]))) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the directories (or files), "" for the whole tree, that
+     *  between them hold every included file: the part of each pattern
+     *  before its first wildcard. */
+    List<String> roots() {
+        TreeSet<String> result = new TreeSet<>();
+        if (all()) {
+            result.add("");
+        }
+        for (String pattern : _patterns) {
+            List<String> literal = new ArrayList<>();
+            for (String part : pattern.split("/")) {
+                if (part.matches(".*[*?\\[{\\\\].*")) {
+                    break;
+                }
+                literal.add(part);
+            }
+            result.add(String.join("/", literal));
+        }
+        return result.contains("") ? List.of("") : new ArrayList<>(result);
+    }
+
+    /** The patterns. **/
+    private final List<String> _patterns;
+
+    /** Matchers for _patterns. **/
+    private final List<PathMatcher> _matchers;
+}
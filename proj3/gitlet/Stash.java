@@ -0,0 +1,37 @@
+package gitlet;
+
+import java.io.File;
+import java.util.LinkedList;
+
+/** The stash: commits holding set-aside work, newest first, kept in the
+ *  file stash in the repository's metadata folder. This is a hidden ref:
+ *  no branch points to the commits, and log never shows them. Each one's
+ *  parent is the commit the work was based on, and its tree that commit's
+ *  tree with the work applied, so that it shares every unchanged blob. Its
+ *  second parent, when it has one, is a commit on the same base holding
+ *  the staging area as it was, so that the staged changes are staged again
+ *  when the work is brought back.
+ *  @author Frank Jin
+ */
+class Stash {
+
+    /** Returns the stashed commits of the repository whose metadata is in
+     *  GITLETDIR, newest first. */
+    @SuppressWarnings("unchecked")
+    static LinkedList<String> load(File gitletDir) {
+        File file = new File(gitletDir, "stash");
+        return file.exists() ? Utils.readObject(file, LinkedList.class)
+                : new LinkedList<>();
+    }
+
+    /** Saves ENTRIES as the stash in GITLETDIR, or deletes it if there are
+     *  none. */
+    static void save(File gitletDir, LinkedList<String> entries) {
+        File file = new File(gitletDir, "stash");
+        if (entries.isEmpty()) {
+            file.delete();
+        } else {
+            Utils.writeObjectAtomic(file, gitletDir, entries);
+        }
+    }
+}
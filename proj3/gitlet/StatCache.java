@@ -0,0 +1,62 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.HashMap;
+
+/** The size, modification time and blob hash last seen for each working
+ *  file, kept in the worktree's private metadata folder, in the file
+ *  statCache. A file whose size and modification time still match its entry
+ *  is taken to hold the same blob without being read.
+ *
+ *  An entry recorded within a second of the file's modification time is
+ *  never trusted: the file may have been written again since, within the
+ *  same tick of the clock, without its time changing.
+ *  @author Frank Jin
+ */
+class StatCache implements Serializable {
+    /** Fixed so that saved caches stay readable as methods are added to
+     *  this class. **/
+    private static final long serialVersionUID = -6427539807753340446L;
+
+    /** Entries recorded less than this many milliseconds after the file was
+     *  modified are not trusted. */
+    private static final long RACY = 1000;
+
+    /** Returns the cache of the worktree whose private metadata is in
+     *  STATEDIR, empty if there is none. */
+    static StatCache load(File stateDir) {
+        File file = new File(stateDir, "statCache");
+        return file.exists() ? Utils.readObject(file, StatCache.class)
+                : new StatCache();
+    }
+
+    /** Saves this cache in STATEDIR. */
+    void save(File stateDir) {
+        Utils.writeObjectAtomic(new File(stateDir, "statCache"), stateDir,
+                this);
+    }
+
+    /** Returns the hash of the blob working file FILE, at PATH, would have,
+     *  reading it only if it changed since its entry was recorded. */
+    String hash(String path, File file) {
+        long size = file.length(), modified = file.lastModified();
+        long[] stat = _stats.get(path);
+        if (stat != null && stat[0] == size && stat[1] == modified
+                && stat[2] - modified >= RACY) {
+            return _hashes.get(path);
+        }
+        String hash = Blob.hash(file);
+        _stats.put(path, new long[] {size, modified,
+            System.currentTimeMillis()});
+        _hashes.put(path, hash);
+        return hash;
+    }
+
+    /** Each file's size, modification time and the time its entry was
+     *  recorded. **/
+    private final HashMap<String, long[]> _stats = new HashMap<>();
+
+    /** Each file's blob hash. **/
+    private final HashMap<String, String> _hashes = new HashMap<>();
+}
@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/** A repository in a fresh temporary directory, for the unit tests that
+ *  need several Gitlet processes at once (writers contending for the lock,
+ *  a watcher next to the commands that read its journal). Each command runs
+ *  as its own process, with this JVM's class path, as it would from a
+ *  shell, since Main keeps its state in static fields and exits when done.
+ *  @author Frank Jin
+ */
+class TestRepo implements AutoCloseable {
+
+    /** Seconds a command may take before the test fails. */
+    static final int TIMEOUT = 30;
+
+    /** A new, empty directory, in which init has been run. */
+    TestRepo() {
+        try {
+            _dir = Files.createTempDirectory("gitlet").toFile();
+        } catch (IOException excp) {
+            throw new IllegalStateException(excp);
+        }
+        run("init");
+    }
+
+    /** Returns the working directory. */
+    File dir() {
+        return _dir;
+    }
+
+    /** Returns the metadata folder. */
+    File gitletDir() {
+        return new File(_dir, ".gitlet");
+    }
+
+    /** Returns the file named NAME in the working directory. */
+    File file(String name) {
+        return new File(_dir, name);
+    }
+
+    /** Writes CONTENTS to the file named NAME in the working directory. */
+    void write(String name, String contents) {
+        Utils.writeContents(file(name), contents);
+    }
+
+    /** Starts the command ARGS, with its output and errors merged. */
+    Process start(String... args) {
+        List<String> command = new ArrayList<>(List.of(
+                ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"),
+                Main.class.getName()));
+        command.addAll(Arrays.asList(args));
+        try {
+            Process result = new ProcessBuilder(command).directory(_dir)
+                    .redirectErrorStream(true).start();
+            _started.add(result);
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+
+    /** Returns the output of PROCESS, after checking that it exits within
+     *  TIMEOUT seconds of closing it, without error. */
+    static String output(Process process) {
+        try {
+            String result = new String(process.getInputStream().readAllBytes(),
+                    StandardCharsets.UTF_8);
+            assertTrue("command timed out",
+                    process.waitFor(TIMEOUT, TimeUnit.SECONDS));
+            assertEquals(result, 0, process.exitValue());
+            assertFalse(result, result.contains("Exception"));
+            return result;
+        } catch (IOException | InterruptedException excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+
+    /** Runs the command ARGS and returns its output. */
+    String run(String... args) {
+        return output(start(args));
+    }
+
+    /** Stops every command still running and deletes the directory. */
+    @Override
+    public void close() {
+        for (Process process : _started) {
+            process.destroyForcibly();
+            try {
+                process.waitFor();
+            } catch (InterruptedException excp) {
+                break;
+            }
+        }
+        try (Stream<File> files = Files.walk(_dir.toPath())
+                .sorted(Comparator.reverseOrder()).map(p -> p.toFile())) {
+            files.forEach(File::delete);
+        } catch (IOException excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+
+    /** Working directory. **/
+    private final File _dir;
+
+    /** Commands started, so that close can stop the ones left running. **/
+    private final List<Process> _started = new ArrayList<>();
+}
@@ -0,0 +1,255 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** A snapshot of one directory: the names of the files directly inside it,
+ *  mapped to their blobs, and the names of its subdirectories, mapped to
+ *  their own Trees. Trees are content-addressed (named by the SHA-1 of their
+ *  serialization) and live in .gitlet/treeDump, so two commits share every
+ *  subdirectory that did not change between them, and two trees with the
+ *  same hash are known to hold the same files without looking inside.
+ *
+ *  Paths passed to and returned by the static methods here are relative to
+ *  the root of the repository, with components separated by "/", and are
+ *  valid (see validPath).
+ *  @author Frank Jin
+ */
+class Tree implements Serializable {
+    /** Fixed so that stored trees stay readable as methods are added to
+     *  this class. **/
+    private static final long serialVersionUID = 6053048366276691713L;
+
+    /** Returns the tree with hash ID. */
+    static Tree read(String id) {
+        return ObjectStore.read(dir(), id, Tree.class);
+    }
+
+    /** Stores this tree, if it is not already stored, and returns its
+     *  hash. */
+    String save() {
+        String id = Utils.sha1(Utils.serialize(this));
+        dir().mkdirs();
+        CommitTree.writeImmutable(ObjectStore.find(dir(), id), this);
+        return id;
+    }
+
+    /** Returns the hash of the tree with no files. */
+    static String empty() {
+        return new Tree().save();
+    }
+
+    /** Returns true iff PATH can name a file in a tree: it is not empty or
+     *  absolute, has no empty, "." or ".." components, and is not inside
+     *  .gitlet. */
+    static boolean validPath(String path) {
+        String[] parts = path.split("/", -1);
+        if (path.indexOf('\0') >= 0 || parts[0].equals(".gitlet")) {
+            return false;
+        }
+        for (String part : parts) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the blob stored at PATH in the tree with hash ROOT, or null.
+     *  Only reads the trees along PATH. */
+    static String lookup(String root, String path) {
+        String[] parts = path.split("/");
+        Tree tree = read(root);
+        for (int i = 0; i < parts.length - 1; i += 1) {
+            String sub = tree._dirs.get(parts[i]);
+            if (sub == null) {
+                return null;
+            }
+            tree = read(sub);
+        }
+        return tree._files.get(parts[parts.length - 1]);
+    }
+
+    /** Returns every file at or under PATH (a file or a directory, or "" for
+     *  everything) in the tree with hash ROOT, mapped to its blob. */
+    static TreeMap<String, String> list(String root, String path) {
+        TreeMap<String, String> result = new TreeMap<>();
+        if (path.isEmpty()) {
+            collect(root, "", result);
+            return result;
+        }
+        String[] parts = path.split("/");
+        Tree tree = read(root);
+        for (int i = 0; i < parts.length - 1; i += 1) {
+            String sub = tree._dirs.get(parts[i]);
+            if (sub == null) {
+                return result;
+            }
+            tree = read(sub);
+        }
+        String last = parts[parts.length - 1];
+        if (tree._files.containsKey(last)) {
+            result.put(path, tree._files.get(last));
+        } else if (tree._dirs.containsKey(last)) {
+            collect(tree._dirs.get(last), path + "/", result);
+        }
+        return result;
+    }
+
+    /** Returns every file in the tree with hash ROOT, mapped to its blob. */
+    static TreeMap<String, String> flatten(String root) {
+        return list(root, "");
+    }
+
+    /** Adds every file in the tree with hash ID to RESULT, with PREFIX
+     *  prepended to its path. */
+    private static void collect(String id, String prefix,
+                                TreeMap<String, String> result) {
+        Tree tree = read(id);
+        for (Map.Entry<String, String> file : tree._files.entrySet()) {
+            result.put(prefix + file.getKey(), file.getValue());
+        }
+        for (Map.Entry<String, String> sub : tree._dirs.entrySet()) {
+            collect(sub.getValue(), prefix + sub.getKey() + "/", result);
+        }
+    }
+
+    /** Adds every blob in the tree with hash ID to RESULT. SEEN holds the
+     *  trees already visited, which are skipped, and is updated, so that
+     *  subtrees shared between several roots are read once. */
+    static void blobs(String id, Set<String> seen, Set<String> result) {
+        if (!seen.add(id)) {
+            return;
+        }
+        Tree tree = read(id);
+        result.addAll(tree._files.values());
+        for (String sub : tree._dirs.values()) {
+            blobs(sub, seen, result);
+        }
+    }
+
+    /** Returns the changes that turn the tree with hash FROM into the one
+     *  with hash TO: each path whose blob differs, mapped to its blob in TO,
+     *  or to null if TO does not have it. Either hash may be null for an
+     *  empty tree. Subtrees with equal hashes are skipped without being
+     *  read. */
+    static TreeMap<String, String> diff(String from, String to) {
+        TreeMap<String, String> result = new TreeMap<>();
+        diff(from, to, "", result);
+        return result;
+    }
+
+    /** Adds the changes that turn tree FROM into tree TO to RESULT, with
+     *  PREFIX prepended to their paths. */
+    private static void diff(String from, String to, String prefix,
+                             TreeMap<String, String> result) {
+        if (Objects.equals(from, to)) {
+            return;
+        }
+        Tree before = from == null ? new Tree() : read(from);
+        Tree after = to == null ? new Tree() : read(to);
+        TreeSet<String> names = new TreeSet<>(before._files.keySet());
+        names.addAll(after._files.keySet());
+        for (String name : names) {
+            String blob = after._files.get(name);
+            if (!Objects.equals(before._files.get(name), blob)) {
+                result.put(prefix + name, blob);
+            }
+        }
+        names = new TreeSet<>(before._dirs.keySet());
+        names.addAll(after._dirs.keySet());
+        for (String name : names) {
+            diff(before._dirs.get(name), after._dirs.get(name),
+                    prefix + name + "/", result);
+        }
+    }
+
+    /** Returns the hash of the tree that results from applying CHANGES to
+     *  the tree with hash ROOT. CHANGES maps paths to their new blobs, or to
+     *  null for paths to remove. Only the trees along the changed paths are
+     *  read and written; every other subtree is shared with ROOT. */
+    static String update(String root, SortedMap<String, String> changes) {
+        String result = update(root, changes, "");
+        return result == null ? empty() : result;
+    }
+
+    /** Returns the hash of the tree that results from applying those of
+     *  CHANGES under the directory PREFIX to the tree with hash ID (null if
+     *  empty), or null if the result is empty. */
+    private static String update(String id, SortedMap<String, String> changes,
+                                 String prefix) {
+        if (changes.isEmpty()) {
+            return id;
+        }
+        Tree tree = id == null ? new Tree() : read(id);
+        String subdir = null;
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String rest = change.getKey().substring(prefix.length());
+            int slash = rest.indexOf('/');
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    tree._files.remove(rest);
+                } else {
+                    tree._dirs.remove(rest);
+                    tree._files.put(rest, change.getValue());
+                }
+            } else if (!rest.substring(0, slash).equals(subdir)) {
+                subdir = rest.substring(0, slash);
+                String subPrefix = prefix + subdir + "/";
+                String sub = update(tree._dirs.get(subdir),
+                        changes.subMap(subPrefix,
+                                subPrefix + Character.MAX_VALUE),
+                        subPrefix);
+                if (sub == null) {
+                    tree._dirs.remove(subdir);
+                } else {
+                    tree._files.remove(subdir);
+                    tree._dirs.put(subdir, sub);
+                }
+            }
+        }
+        if (tree._files.isEmpty() && tree._dirs.isEmpty()) {
+            return null;
+        }
+        return tree.save();
+    }
+
+    /** Returns the hash of a copy of the tree with hash ID in which every
+     *  blob is replaced with its entry in BLOBIDS. DONE maps the trees
+     *  already copied to their copies, and is updated. */
+    static String rename(String id, Map<String, String> blobIds,
+                         Map<String, String> done) {
+        String result = done.get(id);
+        if (result == null) {
+            Tree tree = read(id);
+            Tree copy = new Tree();
+            for (Map.Entry<String, String> file : tree._files.entrySet()) {
+                copy._files.put(file.getKey(), blobIds.get(file.getValue()));
+            }
+            for (Map.Entry<String, String> sub : tree._dirs.entrySet()) {
+                copy._dirs.put(sub.getKey(),
+                        rename(sub.getValue(), blobIds, done));
+            }
+            result = copy.save();
+            done.put(id, result);
+        }
+        return result;
+    }
+
+    /** Returns the directory where trees are stored. */
+    private static File dir() {
+        return Utils.join(Main.getGitletDir(), "treeDump");
+    }
+
+    /** Files directly in this directory, mapped to their blobs. **/
+    private final TreeMap<String, String> _files = new TreeMap<>();
+
+    /** Subdirectories of this directory, mapped to their trees. **/
+    private final TreeMap<String, String> _dirs = new TreeMap<>();
+}
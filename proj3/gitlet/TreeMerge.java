@@ -0,0 +1,223 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** A three-way merge of trees, done entirely in the object store: given a
+ *  base tree and two trees descended from it, builds the tree holding both
+ *  sets of changes, and lists the files whose changes conflict. Nothing is
+ *  read from or written to the working directory; callers load the result
+ *  there, if they want it, once it is known.
+ *
+ *  Only the files either side changed are looked at, found by diffing
+ *  trees, which skips the subtrees neither side touched. A file one side
+ *  renamed (see Renames) is merged with the other side's version of its old
+ *  name. A file both sides changed differently gets a blob holding both
+ *  versions between conflict markers, copied without reading either whole
+ *  into memory.
+ *  @author Frank Jin
+ */
+class TreeMerge {
+
+    /** A merge in the repository whose metadata lives in GITLETDIR, with
+     *  staged blobs in ADDSTAGING. */
+    TreeMerge(File gitletDir, File addStaging) {
+        _gitletDir = gitletDir;
+        _blobDump = new File(gitletDir, "blobDump");
+        _addStaging = addStaging;
+    }
+
+    /** Returns the hash of the tree that merges the changes from tree BASE
+     *  to tree OURS with those from BASE to tree THEIRS. Afterwards,
+     *  conflicts() lists the files that conflicted. */
+    String merge(String base, String ours, String theirs) {
+        _conflicts = new ArrayList<>();
+        TreeMap<String, String> ourChanges = Tree.diff(base, ours);
+        TreeMap<String, String> theirChanges = Tree.diff(base, theirs);
+        Side baseSide = new Side(base), ourSide = new Side(ours),
+                theirSide = new Side(theirs);
+        TreeMap<String, String> ourRenames = renames(base, ourChanges);
+        TreeMap<String, String> theirRenames = renames(base, theirChanges);
+        followRenames(ourRenames, theirRenames, baseSide, theirSide);
+        followRenames(theirRenames, ourRenames, baseSide, ourSide);
+
+        TreeSet<String> paths = new TreeSet<>(ourChanges.keySet());
+        paths.addAll(theirChanges.keySet());
+        TreeMap<String, String> changes = new TreeMap<>();
+        for (String path : paths) {
+            String b = baseSide.get(path), o = ourSide.get(path),
+                    t = theirSide.get(path), result;
+            if (Objects.equals(o, t) || Objects.equals(b, t)) {
+                result = o;
+            } else if (Objects.equals(b, o)) {
+                result = t;
+            } else {
+                result = conflict(o, t);
+                _conflicts.add(path);
+            }
+            if (!Objects.equals(result, Tree.lookup(ours, path))) {
+                changes.put(path, result);
+            }
+        }
+        return Tree.update(ours, changes);
+    }
+
+    /** Returns the files that conflicted in the last merge, in order. */
+    List<String> conflicts() {
+        return _conflicts;
+    }
+
+    /** Returns the renames among CHANGES, the changes one side made to
+     *  tree BASE, as a map from old names to new ones. */
+    private TreeMap<String, String> renames(String base,
+                                            TreeMap<String, String> changes) {
+        TreeMap<String, String> deleted = new TreeMap<>();
+        TreeMap<String, String> added = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String old = Tree.lookup(base, change.getKey());
+            if (change.getValue() == null) {
+                deleted.put(change.getKey(), old);
+            } else if (old == null) {
+                added.put(change.getKey(), change.getValue());
+            }
+        }
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return new TreeMap<>();
+        }
+        return new Renames(_gitletDir, _addStaging).detect(deleted, added);
+    }
+
+    /** Moves the files one side renamed, as listed in RENAMED, to their new
+     *  names in BASE and in OTHER, the other side, so that the other side's
+     *  changes to them are merged into the renamed files. Files the other
+     *  side also renamed (OTHERRENAMED) or removed, or whose new name it
+     *  already uses, are left alone. */
+    private void followRenames(TreeMap<String, String> renamed,
+                               TreeMap<String, String> otherRenamed,
+                               Side base, Side other) {
+        for (Map.Entry<String, String> rename : renamed.entrySet()) {
+            String from = rename.getKey(), to = rename.getValue();
+            if (!otherRenamed.containsKey(from) && other.get(from) != null
+                    && other.get(to) == null && base.get(to) == null) {
+                other.move(from, to);
+                base.move(from, to);
+            }
+        }
+    }
+
+    /** Stores a blob holding versions OURS and THEIRS (blob hashes, or null
+     *  for a removed file) between conflict markers, and returns its
+     *  hash. The versions are copied a chunk at a time, and a result large
+     *  enough to be stored in chunks is written to a temporary file first,
+     *  so that no version has to fit in memory. */
+    private String conflict(String ours, String theirs) {
+        Blob blob;
+        if (size(ours) + size(theirs) < Blob.CHUNKED) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeConflict(out, ours, theirs);
+            blob = new Blob(out.toByteArray());
+        } else {
+            File tmp = null;
+            try {
+                tmp = File.createTempFile("tmp", null, _gitletDir);
+                try (OutputStream out = new BufferedOutputStream(
+                        new FileOutputStream(tmp), 1 << 16)) {
+                    writeConflict(out, ours, theirs);
+                }
+                blob = new Blob(tmp);
+            } catch (IOException excp) {
+                throw Utils.error("Unable to write a merged file: %s",
+                        excp.getMessage());
+            } finally {
+                if (tmp != null) {
+                    tmp.delete();
+                }
+            }
+        }
+        CommitTree.writeImmutable(ObjectStore.find(_blobDump,
+                blob.getHash()), blob);
+        return blob.getHash();
+    }
+
+    /** Writes versions OURS and THEIRS (blob hashes, or null for a removed
+     *  file) between conflict markers to OUT. */
+    private void writeConflict(OutputStream out, String ours,
+                               String theirs) {
+        try {
+            out.write("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+            if (ours != null) {
+                blob(ours).writeTo(out);
+            }
+            out.write("=======\n".getBytes(StandardCharsets.UTF_8));
+            if (theirs != null) {
+                blob(theirs).writeTo(out);
+            }
+            out.write(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw Utils.error("Unable to write a merged file: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /** Returns the number of bytes in blob ID, or 0 if ID is null. */
+    private long size(String id) {
+        return id == null ? 0 : blob(id).size();
+    }
+
+    /** Returns blob ID. */
+    private Blob blob(String id) {
+        return ObjectStore.read(_blobDump, id, Blob.class);
+    }
+
+    /** The files of one tree, looked up as needed, with some of them moved
+     *  to other names. */
+    private static class Side {
+        /** The files of tree ROOT. */
+        Side(String root) {
+            _root = root;
+        }
+
+        /** Returns the blob at PATH, or null if there is none. */
+        String get(String path) {
+            return _moved.containsKey(path) ? _moved.get(path)
+                    : Tree.lookup(_root, path);
+        }
+
+        /** Moves the file at FROM to TO. */
+        void move(String from, String to) {
+            _moved.put(to, get(from));
+            _moved.put(from, null);
+        }
+
+        /** Hash of the tree. **/
+        private final String _root;
+
+        /** Paths whose blobs differ from the tree's: moved files, and the
+         *  null left where they were. **/
+        private final HashMap<String, String> _moved = new HashMap<>();
+    }
+
+    /** Metadata directory of the repository. **/
+    private final File _gitletDir;
+
+    /** Where committed blobs live. **/
+    private final File _blobDump;
+
+    /** Where staged blobs live. **/
+    private final File _addStaging;
+
+    /** Files that conflicted in the last merge. **/
+    private List<String> _conflicts = new ArrayList<>();
+}
@@ -3,16 +3,22 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -155,6 +161,50 @@ class Utils {
         writeContents(file, serialize(obj));
     }
 
+    /** Write OBJ to FILE atomically, as for writeContentsAtomic. */
+    static void writeObjectAtomic(File file, File tmpDir, Serializable obj) {
+        writeContentsAtomic(file, tmpDir, serialize(obj));
+    }
+
+    /** Write the result of concatenating the bytes in CONTENTS to FILE so
+     *  that concurrent readers of FILE see either its old contents or all
+     *  of the new ones, never a partial write.  The bytes first go to a
+     *  fresh temporary file in TMPDIR, which must be on the same file
+     *  system as FILE, and that file is then renamed over FILE.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void writeContentsAtomic(File file, File tmpDir,
+                                    Object... contents) {
+        try {
+            File tmp = File.createTempFile("tmp", null, tmpDir);
+            writeContents(tmp, contents);
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write CONTENTS to FILE as for writeContentsAtomic, but force them
+     *  to the storage device before FILE appears, so that once it exists
+     *  it survives a crash whole.  Throws IllegalArgumentException in case
+     *  of problems. */
+    static void writeContentsDurable(File file, File tmpDir,
+                                     byte[] contents) {
+        try {
+            File tmp = File.createTempFile("tmp", null, tmpDir);
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(contents);
+                out.getFD().sync();
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /* DIRECTORIES */
 
     /** Filter out all but plain files. */
@@ -218,10 +268,32 @@ class Utils {
         }
     }
 
+    /** Returns the object serialized in BYTES, cast to EXPECTEDCLASS.
+     *  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try (ObjectInputStream in =
+                 new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
 
+    /** Return a writer to the standard output that passes on what is
+     *  written to it in blocks of 64 KB.  Text appears as each block fills,
+     *  so a long report starts to appear at once without being held whole
+     *  in memory; the caller must flush the writer when done. */
+    static PrintWriter output() {
+        return new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out), 1 << 16));
+    }
+
     /** Return a GitletException whose message is composed from MSG and ARGS as
      *  for the String.format method. */
     static GitletException error(String msg, Object... args) {
@@ -0,0 +1,209 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** The reading side of the journal kept by a running Watcher.
+ *
+ *  The journal, .gitlet/watchJournal, starts with a line "#GENERATION"
+ *  naming the watcher run that wrote it, followed by one line per event: the
+ *  path (relative to the repository) of a file that was created, modified
+ *  or deleted, or "?NAME" when the watcher saw cookie NAME (see sync).
+ *
+ *  Commands keep, in .gitlet/watchState, the set of paths that may differ
+ *  from the current commit or are staged, together with how much of the
+ *  journal that set accounts for. A path outside that set and not named in
+ *  the rest of the journal is known to be unchanged from the current commit
+ *  and unstaged, so commands only need to look at the union of the two.
+ *  Moving the current commit does not invalidate the set: commits only take
+ *  in staged files, which are always in it, and checkouts rewrite the files
+ *  they change, which the watcher reports. The state is only written under
+ *  the writer lock (see Main.saveDerived).
+ *
+ *  Whenever the answer cannot be trusted (no watcher is running, the
+ *  watcher has started a new journal since the state was saved, or it did
+ *  not answer a sync in time), candidates returns null and the caller must
+ *  scan the whole working directory.
+ *  @author Frank Jin
+ */
+class WatchJournal {
+
+    /** Milliseconds to wait for the watcher to acknowledge a sync. */
+    static final int SYNC_TIMEOUT = 1000;
+
+    /** What commands know about the working directory. */
+    static class State implements Serializable {
+        /** Fixed so that saved states stay readable as this class
+         *  changes. **/
+        private static final long serialVersionUID = 1L;
+
+        /** Generation of the journal this state was computed from. **/
+        private String generation;
+        /** Length of the prefix of that journal it accounts for. **/
+        private long offset;
+        /** Paths that may differ from the current commit. **/
+        private TreeSet<String> dirty;
+    }
+
+    /** Returns the journal of the watcher running on the repository whose
+     *  metadata is in GITLETDIR, or null if no watcher is running. */
+    static WatchJournal open(File gitletDir) {
+        File lockFile = new File(gitletDir, "watcher");
+        if (!lockFile.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(lockFile.toPath(),
+                StandardOpenOption.WRITE)) {
+            FileLock probe = channel.tryLock();
+            if (probe != null) {
+                probe.release();
+                return null;
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        return new WatchJournal(gitletDir);
+    }
+
+    /** A journal for the repository with metadata directory GITLETDIR. */
+    private WatchJournal(File gitletDir) {
+        _gitletDir = gitletDir;
+        _journal = new File(gitletDir, "watchJournal");
+        _stateFile = new File(gitletDir, "watchState");
+    }
+
+    /** Returns the paths that may differ from the current commit, or null if
+     *  the caller must scan everything. */
+    Set<String> candidates() {
+        if (!sync()) {
+            return null;
+        }
+        State state = null;
+        if (_stateFile.exists()) {
+            try {
+                state = Utils.readObject(_stateFile, State.class);
+            } catch (IllegalArgumentException excp) {
+                state = null;
+            }
+        }
+        if (state == null || !state.generation.equals(_generation)
+                || state.offset > _end) {
+            return null;
+        }
+        Set<String> result = new TreeSet<>(state.dirty);
+        for (String line : read(state.offset)) {
+            if (!line.startsWith("?")) {
+                result.add(line);
+            }
+        }
+        if (_generation == null) {
+            return null;
+        }
+        return result;
+    }
+
+    /** Records that DIRTY is the set of paths that may differ from the
+     *  current commit or are staged, as of the journal position reached by
+     *  the last call of candidates. DIRTY must cover every path candidates
+     *  returned (all paths, if it returned null) that still differs, and
+     *  every staged path. */
+    void save(Set<String> dirty) {
+        if (_generation == null) {
+            return;
+        }
+        State state = new State();
+        state.generation = _generation;
+        state.offset = _end;
+        state.dirty = new TreeSet<>(dirty);
+        Utils.writeObjectAtomic(_stateFile, _gitletDir, state);
+    }
+
+    /** Makes sure the journal covers every change made before this call, by
+     *  creating a cookie file and waiting for the watcher to report it.
+     *  Returns false if the watcher does not do so in time. */
+    private boolean sync() {
+        File cookies = new File(_gitletDir, Watcher.COOKIES);
+        String cookie = Utils.sha1(Long.toString(System.nanoTime()),
+                Long.toString(ProcessHandle.current().pid()));
+        try {
+            cookies.mkdirs();
+            new File(cookies, cookie).createNewFile();
+        } catch (IOException excp) {
+            return false;
+        }
+        long deadline = System.currentTimeMillis() + SYNC_TIMEOUT;
+        _generation = null;
+        _end = 0;
+        while (System.currentTimeMillis() < deadline) {
+            if (read(_generation == null ? 0 : _end).contains("?" + cookie)) {
+                return _generation != null;
+            }
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException excp) {
+                break;
+            }
+        }
+        new File(cookies, cookie).delete();
+        return false;
+    }
+
+    /** Returns the complete lines of the journal after position START,
+     *  other than its header, and sets _end to the end of the last of them.
+     *  Sets _generation from the header when START is 0, and clears it if
+     *  the header no longer matches it (the watcher started a new
+     *  journal). */
+    private List<String> read(long start) {
+        List<String> result = new ArrayList<>();
+        try (RandomAccessFile in = new RandomAccessFile(_journal, "r")) {
+            String header = in.readLine();
+            if (start == 0) {
+                _generation = header == null || !header.startsWith("#")
+                        ? null : header.substring(1);
+                start = in.getFilePointer();
+            } else if (header == null || !header.equals("#" + _generation)) {
+                _generation = null;
+            }
+            byte[] bytes = new byte[(int) Math.max(0, in.length() - start)];
+            in.seek(start);
+            in.readFully(bytes);
+            int lineStart = 0;
+            for (int i = 0; i < bytes.length; i += 1) {
+                if (bytes[i] == '\n') {
+                    result.add(new String(bytes, lineStart, i - lineStart,
+                            StandardCharsets.UTF_8));
+                    lineStart = i + 1;
+                }
+            }
+            _end = start + lineStart;
+        } catch (IOException excp) {
+            _generation = null;
+        }
+        return result;
+    }
+
+    /** The repository's metadata directory. **/
+    private final File _gitletDir;
+
+    /** The journal file. **/
+    private final File _journal;
+
+    /** Where commands keep their State. **/
+    private final File _stateFile;
+
+    /** Generation of the journal, as of the last sync. **/
+    private String _generation;
+
+    /** End of the last complete line read from the journal. **/
+    private long _end;
+}
@@ -0,0 +1,82 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Objects;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of the watcher's journal, as commands read it.
+ *  @author Frank Jin
+ */
+public class WatchJournalTest {
+
+    /** Once commands have saved a state, the journal names exactly the
+     *  files changed since, and status agrees with it. */
+    @Test
+    public void journalNamesChangedFiles() throws InterruptedException {
+        try (TestRepo repo = new TestRepo()) {
+            startWatcher(repo, null);
+            WatchJournal journal = WatchJournal.open(repo.gitletDir());
+            assertNotNull(journal);
+            assertNull(journal.candidates());
+            journal.save(Set.of());
+            repo.write("a.txt", "a");
+            journal = WatchJournal.open(repo.gitletDir());
+            assertEquals(Set.of("a.txt"), journal.candidates());
+            assertTrue(repo.run("status").endsWith(
+                    "=== Untracked Files ===\na.txt\n\n"));
+        }
+    }
+
+    /** After the watcher starts a new journal, commands stop trusting the
+     *  state they saved, and scan the working directory again. */
+    @Test
+    public void newGenerationFallsBack() throws InterruptedException {
+        try (TestRepo repo = new TestRepo()) {
+            Process watcher = startWatcher(repo, null);
+            WatchJournal journal = WatchJournal.open(repo.gitletDir());
+            assertNull(journal.candidates());
+            journal.save(Set.of());
+            String old = generation(repo);
+            watcher.destroyForcibly();
+            watcher.waitFor();
+            assertNull(WatchJournal.open(repo.gitletDir()));
+            repo.write("b.txt", "b");
+            startWatcher(repo, old);
+            journal = WatchJournal.open(repo.gitletDir());
+            assertNull(journal.candidates());
+            assertTrue(repo.run("status").endsWith(
+                    "=== Untracked Files ===\nb.txt\n\n"));
+        }
+    }
+
+    /** Starts a watcher on REPO and returns it once it has started a
+     *  journal, of a generation other than OLD. */
+    private static Process startWatcher(TestRepo repo, String old)
+            throws InterruptedException {
+        Process result = repo.start("watch");
+        long deadline = System.currentTimeMillis()
+                + TestRepo.TIMEOUT * 1000L;
+        while (generation(repo) == null
+                || Objects.equals(generation(repo), old)
+                || WatchJournal.open(repo.gitletDir()) == null) {
+            assertTrue("watcher did not start", result.isAlive()
+                    && System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        return result;
+    }
+
+    /** Returns the header of REPO's journal, or null if it has none. */
+    private static String generation(TestRepo repo) {
+        File journal = new File(repo.gitletDir(), "watchJournal");
+        if (!journal.exists()) {
+            return null;
+        }
+        String contents = Utils.readContentsAsString(journal);
+        int end = contents.indexOf('\n');
+        return end < 0 ? null : contents.substring(0, end);
+    }
+}
@@ -0,0 +1,164 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/** The optional file-system watcher, started with "gitlet watch" and left
+ *  running in the background. It records every path created, modified or
+ *  deleted in the working directory in .gitlet/watchJournal (see
+ *  WatchJournal for the format and for how commands use it), so that status,
+ *  add and the untracked-file checks only look at those paths instead of the
+ *  whole working directory. While it runs it holds a lock on .gitlet/watcher,
+ *  which is how commands tell that the journal is live.
+ *
+ *  When the operating system drops events, or the journal has grown past
+ *  MAX_ENTRIES, the watcher starts a new journal with a new generation,
+ *  which makes the next command fall back to a full scan.
+ *  @author Frank Jin
+ */
+class Watcher {
+
+    /** Subdirectory of .gitlet in which commands create cookies. */
+    static final String COOKIES = "watchCookies";
+
+    /** Number of entries after which the journal is restarted. */
+    static final int MAX_ENTRIES = 100000;
+
+    /** Watches the working directory of the repository whose metadata is
+     *  in GITLETDIR until the repository goes away or the process is
+     *  killed. */
+    static void run(File gitletDir) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                new File(gitletDir, "watcher").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                System.out.println("A watcher is already running.");
+                return;
+            }
+            new Watcher(gitletDir).watch();
+        }
+    }
+
+    /** A watcher for the repository with metadata directory GITLETDIR. */
+    private Watcher(File gitletDir) {
+        _gitletDir = gitletDir;
+        _root = gitletDir.getParentFile().toPath();
+        _cookies = new File(gitletDir, COOKIES);
+    }
+
+    /** Records events until the repository disappears. */
+    private void watch() throws IOException {
+        _cookies.mkdirs();
+        WatchService service = FileSystems.getDefault().newWatchService();
+        register(service, _root);
+        Path cookies = _cookies.toPath();
+        cookies.register(service, ENTRY_CREATE);
+        restart();
+        while (_gitletDir.isDirectory()) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException excp) {
+                break;
+            }
+            Path dir = (Path) key.watchable();
+            StringBuilder lines = new StringBuilder();
+            boolean overflow = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    overflow = true;
+                    continue;
+                }
+                Path name = (Path) event.context();
+                if (dir.equals(cookies)) {
+                    lines.append('?').append(name).append('\n');
+                    Files.deleteIfExists(cookies.resolve(name));
+                } else if (!dir.equals(_root)
+                        || !name.toString().equals(".gitlet")) {
+                    if (event.kind() == ENTRY_CREATE
+                            && Files.isDirectory(dir.resolve(name))) {
+                        register(service, dir.resolve(name));
+                    }
+                    lines.append(_root.relativize(dir.resolve(name))
+                            .toString().replace(File.separatorChar, '/'))
+                            .append('\n');
+                    _entries += 1;
+                }
+            }
+            key.reset();
+            if (overflow || _entries > MAX_ENTRIES) {
+                restart();
+            }
+            append(lines.toString());
+        }
+    }
+
+    /** Registers DIR and every directory under it, other than .gitlet,
+     *  with SERVICE. A directory created before it is registered is still
+     *  reported itself, and commands look inside reported directories. */
+    private void register(WatchService service, Path dir) throws IOException {
+        dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        File[] subdirs = dir.toFile().listFiles(File::isDirectory);
+        if (subdirs == null) {
+            return;
+        }
+        for (File sub : subdirs) {
+            if (!sub.equals(_gitletDir)) {
+                register(service, sub.toPath());
+            }
+        }
+    }
+
+    /** Starts a new journal, with a fresh generation and no entries. */
+    private void restart() throws IOException {
+        File fresh = File.createTempFile("tmp", null, _gitletDir);
+        String header = String.format("#%d-%d\n", System.currentTimeMillis(),
+                ProcessHandle.current().pid());
+        Utils.writeContents(fresh, header);
+        Files.move(fresh.toPath(), new File(_gitletDir, "watchJournal")
+                .toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        _entries = 0;
+    }
+
+    /** Appends LINES to the journal in a single write. */
+    private void append(String lines) throws IOException {
+        if (lines.isEmpty()) {
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(
+                new File(_gitletDir, "watchJournal"), true)) {
+            out.write(lines.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** The repository's metadata directory. **/
+    private final File _gitletDir;
+
+    /** The working directory. **/
+    private final Path _root;
+
+    /** Where commands create cookies. **/
+    private final File _cookies;
+
+    /** Entries in the current journal. **/
+    private int _entries;
+}
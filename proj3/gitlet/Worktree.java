@@ -0,0 +1,55 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+
+/** The state of one linked worktree: a working directory, other than the
+ *  repository's own, with its own head, branch and staging area, whose
+ *  commits, trees and blobs live in the repository's object folders.
+ *
+ *  The directory's .gitlet is a plain file holding the path of the
+ *  worktree's private metadata folder, .gitlet/worktrees/NAME in the
+ *  repository, which holds its HEAD and staging lists (see Refs), its
+ *  staged blobs and any bisection in progress. The repository's CommitTree
+ *  lists every linked worktree, so that one writer lock covers them all.
+ *  @author Frank Jin
+ */
+class Worktree implements Serializable {
+    /** Fixed so that stored worktrees stay readable as methods are added
+     *  to this class. **/
+    private static final long serialVersionUID = 1819718202224853552L;
+
+    /** A worktree in directory DIR, whose staged blobs are kept in
+     *  ADDSTAGING. */
+    Worktree(File dir, File addStaging) {
+        _dir = dir;
+        _addStaging = addStaging;
+    }
+
+    /** Returns the working directory. */
+    File getDir() {
+        return _dir;
+    }
+
+    /** Returns the folder of staged blobs. */
+    File getAddStaging() {
+        return _addStaging;
+    }
+
+    /** Returns the private metadata folder. */
+    File stateDir() {
+        return _addStaging.getParentFile();
+    }
+
+    /** Returns true unless the working directory, or its .gitlet file, has
+     *  been deleted. */
+    boolean exists() {
+        return new File(_dir, ".gitlet").exists();
+    }
+
+    /** Working directory. **/
+    private File _dir;
+
+    /** Folder of staged blobs. **/
+    private File _addStaging;
+}